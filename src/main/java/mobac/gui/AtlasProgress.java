@@ -84,6 +84,8 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 		MapInfo mapInfo;
 		long numberOfDownloadedBytes = 0;
 		long numberOfBytesLoadedFromCache = 0;
+		long tileImageCacheHits = 0;
+		long tileImageCacheMisses = 0;
 		int totalNumberOfTiles = 0;
 		int totalNumberOfMaps = 0;
 		int totalProgress = 0;
@@ -123,6 +125,8 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 	private JLabel nrOfDownloadedBytesPerSecondValue;
 	private JLabel nrOfCacheBytes;
 	private JLabel nrOfCacheBytesValue;
+	private JLabel tileImageCache;
+	private JLabel tileImageCacheValue;
 	private JLabel activeDownloads;
 	private JLabel activeDownloadsValue;
 	private JLabel retryableDownloadErrors;
@@ -218,6 +222,8 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 		nrOfDownloadedBytesValue = new JLabel();
 		nrOfCacheBytes = new JLabel(I18nUtils.localizedStringForKey("dlg_download_bytes_from_cache"));
 		nrOfCacheBytesValue = new JLabel();
+		tileImageCache = new JLabel(I18nUtils.localizedStringForKey("dlg_download_tile_image_cache"));
+		tileImageCacheValue = new JLabel();
 
 		activeDownloads = new JLabel(I18nUtils.localizedStringForKey("dlg_download_thread_count"));
 		activeDownloadsValue = new JLabel();
@@ -283,6 +289,8 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 		infoPanel.add(nrOfDownloadedBytesValue, gbci.toggleEol());
 		infoPanel.add(nrOfCacheBytes, gbci.toggleEol());
 		infoPanel.add(nrOfCacheBytesValue, gbci.toggleEol());
+		infoPanel.add(tileImageCache, gbci.toggleEol());
+		infoPanel.add(tileImageCacheValue, gbci.toggleEol());
 		infoPanel.add(nrOfDownloadedBytesPerSecond, gbci.toggleEol());
 		infoPanel.add(nrOfDownloadedBytesPerSecondValue, gbci.toggleEol());
 		infoPanel.add(activeDownloads, gbci.toggleEol());
@@ -420,6 +428,20 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 		updateGUI();
 	}
 
+	/**
+	 * Updates the hit/miss counters of the decoded tile cache used during map creation
+	 * 
+	 * @param hits
+	 * @param misses
+	 */
+	public void setTileImageCacheStatistics(long hits, long misses) {
+		synchronized (data) {
+			data.tileImageCacheHits = hits;
+			data.tileImageCacheMisses = misses;
+		}
+		updateGUI();
+	}
+
 	private String formatTime(long longSeconds) {
 		String timeString = "";
 
@@ -654,6 +676,9 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 			// downloaded bytes
 			nrOfDownloadedBytesValue.setText(": " + Utilities.formatBytes(data.numberOfDownloadedBytes));
 			nrOfCacheBytesValue.setText(": " + Utilities.formatBytes(data.numberOfBytesLoadedFromCache));
+			tileImageCacheValue.setText(String.format(
+					I18nUtils.localizedStringForKey("dlg_download_tile_image_cache_value"), data.tileImageCacheHits,
+					data.tileImageCacheMisses));
 
 			// total creation time
 			long totalSeconds = (System.currentTimeMillis() - initialTotalTime) / 1000;
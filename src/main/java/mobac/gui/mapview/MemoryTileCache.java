@@ -18,12 +18,15 @@ package mobac.gui.mapview;
 
 //License: GPL. Copyright 2008 by Jan Peter Stotz
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryNotificationInfo;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import javax.management.Notification;
 import javax.management.NotificationBroadcaster;
@@ -31,38 +34,58 @@ import javax.management.NotificationListener;
 
 import mobac.gui.mapview.Tile.TileState;
 import mobac.program.interfaces.MapSource;
+import mobac.program.model.Settings;
 
 import org.apache.log4j.Logger;
 
 /**
- * {@link TileImageCache} implementation that stores all {@link Tile} objects in memory up to a certain limit (
+ * Cache that stores {@link Tile} objects in memory up to a certain amount of memory used by the decoded tile images (
  * {@link #getCacheSize()}). If the limit is exceeded the least recently used {@link Tile} objects will be deleted.
+ * <p>
+ * The cache is divided into segments (selected by the tile key) each having its own lock and least recently used
+ * order, therefore threads accessing different tiles usually do not block each other.
+ * </p>
+ * <p>
+ * Evicted tiles that still have their encoded image data (see {@link Tile#getImageData()}) are moved to a second
+ * level that only keeps the encoded data. If such a tile is requested again it is restored from the encoded data
+ * instead of loading it again from the tile store or the map source.
+ * </p>
  * 
  * @author Jan Peter Stotz
  * @author r_x
  */
 public class MemoryTileCache implements NotificationListener {
 
-	protected final Logger log;
+	protected static final int SEGMENT_COUNT = 16;
 
 	/**
-	 * Default cache size
+	 * Memory accounted for tiles without an own image (e.g. tiles showing the loading or error image)
 	 */
-	protected int cacheSize = 200;
+	protected static final int EMPTY_TILE_SIZE = 256;
+
+	protected final Logger log;
 
-	protected Hashtable<String, CacheEntry> hashtable;
+	/**
+	 * Maximum memory in bytes used by the decoded tile images
+	 */
+	protected long cacheSize;
 
 	/**
-	 * List of all tiles in their last recently used order
+	 * Maximum memory in bytes used by the encoded image data of evicted tiles
 	 */
-	protected CacheLinkedListElement lruTiles;
+	protected long compressedCacheSize;
+
+	protected final Segment[] segments;
 
 	public MemoryTileCache() {
 		log = Logger.getLogger(this.getClass());
-		hashtable = new Hashtable<String, CacheEntry>(cacheSize);
-		lruTiles = new CacheLinkedListElement();
-		
-		cacheSize = 500;
+		Settings s = Settings.getInstance();
+		cacheSize = s.mapviewTileCacheSize * 1024L * 1024L;
+		compressedCacheSize = s.mapviewCompressedTileCacheSize * 1024L * 1024L;
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+
 		MemoryMXBean mbean = ManagementFactory.getMemoryMXBean();
 		NotificationBroadcaster emitter = (NotificationBroadcaster) mbean;
 		emitter.addNotificationListener(this, null, null);
@@ -76,208 +99,211 @@ public class MemoryTileCache implements NotificationListener {
 	}
 
 	/**
-	 * In case we are running out of memory we free half of the cached down to a minimum of 25 cached tiles.
+	 * In case we are running out of memory we free half of the cached tiles and drop all encoded tile data.
 	 */
 	public void handleNotification(Notification notification, Object handback) {
 		log.trace("Memory notification: " + notification.toString());
 		if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType()))
 			return;
-		synchronized (lruTiles) {
-			int count_half = lruTiles.getElementCount() / 2;
-			count_half = Math.max(25, count_half);
-			if (lruTiles.getElementCount() <= count_half)
-				return;
-			log.warn("memory low - freeing cached tiles: " + lruTiles.getElementCount() + " -> " + count_half);
-			try {
-				while (lruTiles.getElementCount() > count_half) {
-					removeEntry(lruTiles.getLastElement());
-				}
-			} catch (Exception e) {
-				log.error("", e);
+		log.warn("memory low - freeing cached tiles: " + getTileCount() + " -> " + (getTileCount() / 2));
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clearCompressed();
+				segment.evict(segment.size / 2, false);
 			}
 		}
 	}
 
+	/**
+	 * Adds a new tile to the cache. If the encoded image data of the tile is still present in the second level of
+	 * this cache it is handed over to the tile so that it can be decoded instead of being loaded again.
+	 * 
+	 * @param tile
+	 */
 	public void addTile(Tile tile) {
-		CacheEntry entry = createCacheEntry(tile);
-		hashtable.put(tile.getKey(), entry);
-		lruTiles.addFirst(entry);
-		if (hashtable.size() > cacheSize)
-			removeOldEntries();
+		long key = tile.getKey();
+		Segment segment = getSegment(key);
+		synchronized (segment) {
+			byte[] data = segment.removeCompressed(key);
+			if (data != null && tile.getImageData() == null && tile.getTileState() == TileState.TS_NEW)
+				tile.setImageData(data);
+			CacheEntry entry = new CacheEntry(tile);
+			CacheEntry old = segment.entries.put(key, entry);
+			if (old != null)
+				segment.size -= old.size;
+			segment.size += entry.size;
+			segment.evict(cacheSize / SEGMENT_COUNT, true);
+		}
 	}
 
 	public Tile getTile(MapSource source, int x, int y, int z) {
-		CacheEntry entry = hashtable.get(Tile.getTileKey(source, x, y, z));
-		if (entry == null)
-			return null;
-		// We don't care about placeholder tiles and hourglass image tiles, the
-		// important tiles are the loaded ones
-		if (entry.tile.getTileState() == TileState.TS_LOADED)
-			lruTiles.moveElementToFirstPos(entry);
-		return entry.tile;
-	}
-
-	/**
-	 * Removes the least recently used tiles
-	 */
-	protected void removeOldEntries() {
-		synchronized (lruTiles) {
-			try {
-				while (lruTiles.getElementCount() > cacheSize) {
-					removeEntry(lruTiles.getLastElement());
-				}
-			} catch (Exception e) {
-				log.warn("", e);
+		long key = Tile.getTileKey(source, x, y, z);
+		Segment segment = getSegment(key);
+		synchronized (segment) {
+			CacheEntry entry = segment.entries.get(key);
+			if (entry == null)
+				return null;
+			// The tile image is set asynchronously by the tile loader - update the accounted memory
+			if (entry.image != entry.tile.getImage()) {
+				long oldSize = entry.size;
+				entry.update();
+				segment.size += entry.size - oldSize;
+				if (entry.size > oldSize)
+					segment.evict(cacheSize / SEGMENT_COUNT, true);
 			}
+			return entry.tile;
 		}
 	}
 
-	protected void removeEntry(CacheEntry entry) {
-		hashtable.remove(entry.tile.getKey());
-		lruTiles.removeEntry(entry);
-	}
-
-	protected CacheEntry createCacheEntry(Tile tile) {
-		return new CacheEntry(tile);
-	}
-
 	/**
 	 * Clears the cache deleting all tiles from memory
 	 */
 	public void clear() {
-		synchronized (lruTiles) {
-			hashtable.clear();
-			lruTiles.clear();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+				segment.size = 0;
+				segment.clearCompressed();
+			}
 		}
 	}
 
 	public int getTileCount() {
-		return hashtable.size();
+		int count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				count += segment.entries.size();
+			}
+		}
+		return count;
 	}
 
-	public int getCacheSize() {
+	/**
+	 * @return maximum memory in bytes used by the decoded tile images
+	 */
+	public long getCacheSize() {
 		return cacheSize;
 	}
 
 	/**
-	 * Changes the maximum number of {@link Tile} objects that this cache holds.
+	 * Changes the maximum amount of memory used by the decoded tile images this cache holds.
 	 * 
 	 * @param cacheSize
-	 *            new maximum number of tiles
+	 *            new maximum size in bytes
 	 */
-	public void setCacheSize(int cacheSize) {
+	public void setCacheSize(long cacheSize) {
 		this.cacheSize = cacheSize;
-		if (hashtable.size() > cacheSize)
-			removeOldEntries();
-	}
-
-	/**
-	 * Linked list element holding the {@link Tile} and links to the {@link #next} and {@link #prev} item in the list.
-	 */
-	protected static class CacheEntry {
-		Tile tile;
-
-		CacheEntry next;
-		CacheEntry prev;
-
-		protected CacheEntry(Tile tile) {
-			this.tile = tile;
-		}
-
-		public Tile getTile() {
-			return tile;
-		}
-
-		public CacheEntry getNext() {
-			return next;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.evict(cacheSize / SEGMENT_COUNT, true);
+			}
 		}
+	}
 
-		public CacheEntry getPrev() {
-			return prev;
-		}
+	protected Segment getSegment(long key) {
+		int h = (int) (key ^ (key >>> 32));
+		h ^= (h >>> 16);
+		h ^= (h >>> 8);
+		return segments[h & (SEGMENT_COUNT - 1)];
+	}
 
+	protected static long getImageSize(BufferedImage image) {
+		if (image == null || image == Tile.LOADING_IMAGE || image == Tile.ERROR_IMAGE)
+			return EMPTY_TILE_SIZE;
+		DataBuffer db = image.getRaster().getDataBuffer();
+		return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
 	}
 
 	/**
-	 * Special implementation of a double linked list for {@link CacheEntry} elements. It supports element removal in
-	 * constant time - in difference to the Java implementation which needs O(n).
-	 * 
-	 * @author Jan Peter Stotz
+	 * One part of the cache. All fields are guarded by the segment itself.
 	 */
-	protected static class CacheLinkedListElement {
-		protected CacheEntry firstElement = null;
-		protected CacheEntry lastElement;
-		protected int elementCount;
+	protected class Segment {
 
-		public CacheLinkedListElement() {
-			clear();
-		}
-
-		public synchronized void clear() {
-			elementCount = 0;
-			firstElement = null;
-			lastElement = null;
-		}
+		/**
+		 * Cached tiles in their last recently used order (least recently used first)
+		 */
+		final LinkedHashMap<Long, CacheEntry> entries = new LinkedHashMap<Long, CacheEntry>(64, 0.75f, true);
 
 		/**
-		 * Add the element to the head of the list.
-		 * 
-		 * @param new element to be added
+		 * Encoded image data of evicted tiles in their last recently used order
 		 */
-		public synchronized void addFirst(CacheEntry element) {
-			if (elementCount == 0) {
-				firstElement = element;
-				lastElement = element;
-				element.prev = null;
-				element.next = null;
-			} else {
-				element.next = firstElement;
-				firstElement.prev = element;
-				element.prev = null;
-				firstElement = element;
-			}
-			elementCount++;
-		}
+		final LinkedHashMap<Long, byte[]> compressedEntries = new LinkedHashMap<Long, byte[]>(64, 0.75f, true);
+
+		long size = 0;
+		long compressedSize = 0;
 
 		/**
-		 * Removes the specified elemntent form the list.
+		 * Removes the least recently used tiles until the size of the segment is below <code>maxSize</code>.
 		 * 
-		 * @param element
-		 *            to be removed
+		 * @param maxSize
+		 * @param keepCompressed
+		 *            move the encoded image data of evicted tiles to the second level
 		 */
-		public synchronized void removeEntry(CacheEntry element) {
-			if (element.next != null) {
-				element.next.prev = element.prev;
+		void evict(long maxSize, boolean keepCompressed) {
+			Iterator<CacheEntry> it = entries.values().iterator();
+			while (size > maxSize && it.hasNext()) {
+				CacheEntry entry = it.next();
+				it.remove();
+				size -= entry.size;
+				Tile tile = entry.tile;
+				byte[] data = tile.getImageData();
+				if (keepCompressed && data != null && tile.getTileState() == TileState.TS_LOADED)
+					addCompressed(tile.getKey(), data);
 			}
-			if (element.prev != null) {
-				element.prev.next = element.next;
-			}
-			if (element == firstElement)
-				firstElement = element.next;
-			if (element == lastElement)
-				lastElement = element.prev;
-			element.next = null;
-			element.prev = null;
-			elementCount--;
 		}
 
-		public synchronized void moveElementToFirstPos(CacheEntry entry) {
-			if (firstElement == entry)
+		void addCompressed(long key, byte[] data) {
+			long maxSize = compressedCacheSize / SEGMENT_COUNT;
+			if (data.length > maxSize)
 				return;
-			removeEntry(entry);
-			addFirst(entry);
+			byte[] old = compressedEntries.put(key, data);
+			if (old != null)
+				compressedSize -= old.length;
+			compressedSize += data.length;
+			Iterator<byte[]> it = compressedEntries.values().iterator();
+			while (compressedSize > maxSize && it.hasNext()) {
+				compressedSize -= it.next().length;
+				it.remove();
+			}
 		}
 
-		public int getElementCount() {
-			return elementCount;
+		byte[] removeCompressed(long key) {
+			byte[] data = compressedEntries.remove(key);
+			if (data != null)
+				compressedSize -= data.length;
+			return data;
+		}
+
+		void clearCompressed() {
+			compressedEntries.clear();
+			compressedSize = 0;
+		}
+	}
+
+	/**
+	 * Holds the {@link Tile} and the memory accounted for its image.
+	 */
+	protected static class CacheEntry {
+		final Tile tile;
+
+		/**
+		 * The image the current {@link #size} has been calculated for
+		 */
+		BufferedImage image;
+		long size;
+
+		protected CacheEntry(Tile tile) {
+			this.tile = tile;
+			update();
 		}
 
-		public CacheEntry getLastElement() {
-			return lastElement;
+		void update() {
+			image = tile.getImage();
+			size = getImageSize(image);
 		}
 
-		public CacheEntry getFirstElement() {
-			return firstElement;
+		public Tile getTile() {
+			return tile;
 		}
 
 	}
@@ -26,6 +26,8 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
@@ -55,6 +57,12 @@ public class Tile {
 		}
 	}
 
+	/**
+	 * Numeric ids of the map sources (by name) used in the tile keys
+	 */
+	private static final ConcurrentHashMap<String, Integer> MAP_SOURCE_IDS = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicInteger MAP_SOURCE_ID_COUNTER = new AtomicInteger(0);
+
 	public enum TileState {
 		TS_NEW, TS_LOADING, TS_LOADED, TS_ERROR
 	};
@@ -64,7 +72,8 @@ public class Tile {
 	protected int ytile;
 	protected int zoom;
 	protected BufferedImage image;
-	protected String key;
+	protected byte[] imageData = null;
+	protected long key;
 	protected TileState tileState = TileState.TS_NEW;
 
 	/**
@@ -192,10 +201,23 @@ public class Tile {
 		loadImage(new ByteArrayInputStream(data));
 	}
 
+	/**
+	 * @return the encoded image data (e.g. PNG or JPG) the image of this tile has been decoded from or
+	 *         <code>null</code> if not available
+	 */
+	public byte[] getImageData() {
+		return imageData;
+	}
+
+	public void setImageData(byte[] imageData) {
+		this.imageData = imageData;
+	}
+
 	/**
 	 * @return key that identifies a tile
+	 * @see #getTileKey(MapSource, int, int, int)
 	 */
-	public String getKey() {
+	public long getKey() {
 		return key;
 	}
 
@@ -242,7 +264,7 @@ public class Tile {
 
 	@Override
 	public String toString() {
-		return "tile " + key;
+		return "tile " + zoom + "/" + xtile + "/" + ytile + "@" + mapSource.getName();
 	}
 
 	@Override
@@ -259,8 +281,34 @@ public class Tile {
 		return -1;
 	}
 
-	public static String getTileKey(MapSource source, int xtile, int ytile, int zoom) {
-		return zoom + "/" + xtile + "/" + ytile + "@" + source.getName();
+	/**
+	 * Packs map source, zoom level and tile coordinates into one long value: 15 bit map source id, 5 bit zoom level and
+	 * 22 bit for each tile coordinate (sufficient up to {@link JMapViewer#MAX_ZOOM}).
+	 * 
+	 * @param source
+	 * @param xtile
+	 * @param ytile
+	 * @param zoom
+	 * @return key that identifies a tile
+	 */
+	public static long getTileKey(MapSource source, int xtile, int ytile, int zoom) {
+		long key = getMapSourceId(source);
+		key = (key << 5) | (zoom & 0x1F);
+		key = (key << 22) | (xtile & 0x3FFFFF);
+		key = (key << 22) | (ytile & 0x3FFFFF);
+		return key;
+	}
+
+	private static int getMapSourceId(MapSource source) {
+		String name = source.getName();
+		Integer id = MAP_SOURCE_IDS.get(name);
+		if (id == null) {
+			Integer newId = Integer.valueOf(MAP_SOURCE_ID_COUNTER.incrementAndGet() & 0x7FFF);
+			id = MAP_SOURCE_IDS.putIfAbsent(name, newId);
+			if (id == null)
+				id = newId;
+		}
+		return id.intValue();
 	}
 
 }
@@ -19,12 +19,16 @@ package mobac.gui.mapview;
 //License: GPL. Copyright 2008 by Jan Peter Stotz
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.net.ConnectException;
 
+import javax.imageio.ImageIO;
+
 import mobac.exceptions.DownloadFailedException;
 import mobac.gui.mapview.Tile.TileState;
 import mobac.gui.mapview.interfaces.TileLoaderListener;
 import mobac.program.download.TileDownLoader;
+import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSource;
 import mobac.program.interfaces.MapSource.LoadMethod;
 import mobac.program.tilestore.TileStore;
@@ -57,6 +61,15 @@ public class TileLoader {
 		return new TileAsyncLoadJob(source, tilex, tiley, zoom);
 	}
 
+	/**
+	 * @param mapSource
+	 * @return <code>true</code> if the tile images of the map source are the plain decoded tile data
+	 * @see HttpMapSource#isPlainTileDataSource()
+	 */
+	protected static boolean isPlainImageDataSource(MapSource mapSource) {
+		return (mapSource instanceof HttpMapSource) && ((HttpMapSource) mapSource).isPlainTileDataSource();
+	}
+
 	protected class TileAsyncLoadJob implements Runnable {
 
 		final int tilex, tiley, zoom;
@@ -81,6 +94,8 @@ public class TileLoader {
 					return;
 				tile.setTileState(TileState.TS_LOADING);
 			}
+			if (loadTileFromImageData())
+				return;
 			if (loadTileFromStore())
 				return;
 			if (fileTilePainted) {
@@ -96,9 +111,52 @@ public class TileLoader {
 			}
 		}
 
+		/**
+		 * Decodes the tile image from the encoded image data that has been restored from the {@link MemoryTileCache}.
+		 * 
+		 * @return
+		 */
+		protected boolean loadTileFromImageData() {
+			byte[] data = tile.getImageData();
+			if (data == null)
+				return false;
+			try {
+				tile.loadImage(data);
+				if (tile.getImage() != null) {
+					tile.setTileState(TileState.TS_LOADED);
+					listener.tileLoadingFinished(tile, true);
+					return true;
+				}
+			} catch (Exception e) {
+				log.debug("Failed to decode " + tile, e);
+			}
+			tile.setImageData(null);
+			return false;
+		}
+
+		/**
+		 * Loads the tile image. For map sources that simply decode the downloaded image data the encoded image data is
+		 * kept in the tile so that {@link MemoryTileCache} can keep it after the decoded image has been evicted.
+		 * 
+		 * @param loadMethod
+		 * @return
+		 * @throws Exception
+		 */
+		protected BufferedImage loadTileImage(LoadMethod loadMethod) throws Exception {
+			if (!isPlainImageDataSource(mapSource))
+				return mapSource.getTileImage(zoom, tilex, tiley, loadMethod);
+			byte[] data = mapSource.getTileData(zoom, tilex, tiley, loadMethod);
+			if (data == null)
+				return null;
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+			if (image != null)
+				tile.setImageData(data);
+			return image;
+		}
+
 		protected void loadOrUpdateTile() {
 			try {
-				BufferedImage image = mapSource.getTileImage(zoom, tilex, tiley, LoadMethod.DEFAULT);
+				BufferedImage image = loadTileImage(LoadMethod.DEFAULT);
 				if (image != null) {
 					tile.setImage(image);
 					tile.setTileState(TileState.TS_LOADED);
@@ -121,7 +179,7 @@ public class TileLoader {
 
 		protected boolean loadTileFromStore() {
 			try {
-				BufferedImage image = mapSource.getTileImage(zoom, tilex, tiley, LoadMethod.CACHE);
+				BufferedImage image = loadTileImage(LoadMethod.CACHE);
 				if (image == null)
 					return false;
 				tile.setImage(image);
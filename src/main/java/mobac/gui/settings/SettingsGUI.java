@@ -79,9 +79,11 @@ import mobac.mapsources.loader.MapPackManager;
 import mobac.program.Logging;
 import mobac.program.ProgramInfo;
 import mobac.program.interfaces.MapSource;
+import mobac.program.model.DownloadEngine;
 import mobac.program.model.MapSourcesListModel;
 import mobac.program.model.ProxyType;
 import mobac.program.model.Settings;
+import mobac.program.model.TileStoreBackend;
 import mobac.program.model.UnitSystem;
 import mobac.program.tilestore.TileStore;
 import mobac.utilities.GBC;
@@ -175,6 +177,7 @@ public class SettingsGUI extends JDialog {
 	private JTextField atlasOutputDirectory;
 
 	private JComboBox threadCount;
+	private JComboBox downloadEngine;
 	private JComboBox bandwidth;
 
 	private JComboBox proxyType;
@@ -588,6 +591,10 @@ public class SettingsGUI extends JDialog {
 		panel.add(new JLabel(I18nUtils.localizedStringForKey("set_net_connection_desc")), GBC.eol()
 				.fill(GBC.HORIZONTAL));
 
+		downloadEngine = new JComboBox(DownloadEngine.values());
+		panel.add(downloadEngine, GBC.std().insets(5, 5, 5, 5));
+		panel.add(new JLabel(I18nUtils.localizedStringForKey("set_net_engine_desc")), GBC.eol().fill(GBC.HORIZONTAL));
+
 		bandwidth = new JComboBox(Bandwidth.values());
 		bandwidth.setMaximumRowCount(bandwidth.getItemCount());
 		panel.add(bandwidth, GBC.std().insets(5, 5, 5, 5));
@@ -679,6 +686,7 @@ public class SettingsGUI extends JDialog {
 
 		unitSystem.setSelectedItem(s.unitSystem);
 		tileStoreTab.tileStoreEnabled.setSelected(s.tileStoreEnabled);
+		tileStoreTab.tileStoreBackend.setSelectedItem(s.tileStoreBackend);
 
 		// language
 		languageCombo.setSelectedItem(SupportLocale.localeOf(s.localeLanguage, s.localeCountry));
@@ -704,6 +712,7 @@ public class SettingsGUI extends JDialog {
 				index = 0;
 		}
 		threadCount.setSelectedIndex(index);
+		downloadEngine.setSelectedItem(s.downloadEngine);
 
 		defaultExpirationTime.setTimeMilliValue(s.tileDefaultExpirationTime);
 		maxExpirationTime.setTimeMilliValue(s.tileMaxExpirationTime);
@@ -726,6 +735,7 @@ public class SettingsGUI extends JDialog {
 
 		s.unitSystem = (UnitSystem) unitSystem.getSelectedItem();
 		s.tileStoreEnabled = tileStoreTab.tileStoreEnabled.isSelected();
+		s.tileStoreBackend = (TileStoreBackend) tileStoreTab.tileStoreBackend.getSelectedItem();
 		s.tileDefaultExpirationTime = defaultExpirationTime.getTimeMilliValue();
 		s.tileMinExpirationTime = minExpirationTime.getTimeMilliValue();
 		s.tileMaxExpirationTime = maxExpirationTime.getTimeMilliValue();
@@ -739,6 +749,7 @@ public class SettingsGUI extends JDialog {
 		s.setAtlasOutputDirectory(atlasOutputDirectory.getText());
 		int threads = ((Integer) threadCount.getSelectedItem()).intValue();
 		s.downloadThreadCount = threads;
+		s.downloadEngine = (DownloadEngine) downloadEngine.getSelectedItem();
 
 		s.setBandwidthLimit(((Bandwidth) bandwidth.getSelectedItem()).limit);
 
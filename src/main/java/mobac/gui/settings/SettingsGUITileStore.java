@@ -30,6 +30,7 @@ import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -39,15 +40,18 @@ import javax.swing.border.BevelBorder;
 
 import mobac.mapsources.MapSourcesManager;
 import mobac.program.interfaces.MapSource;
+import mobac.program.model.TileStoreBackend;
 import mobac.program.tilestore.TileStore;
 import mobac.program.tilestore.TileStoreInfo;
 import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+import mobac.utilities.GBC;
 import mobac.utilities.I18nUtils;
 import mobac.utilities.Utilities;
 
 public class SettingsGUITileStore extends JPanel {
 
 	public final JCheckBox tileStoreEnabled;
+	public final JComboBox tileStoreBackend;
 	private final JPanel tileStoreInfoPanel;
 
 	private List<TileSourceInfoComponents> tileStoreInfoList = new LinkedList<TileSourceInfoComponents>();
@@ -66,6 +70,12 @@ public class SettingsGUITileStore extends JPanel {
 		JPanel tileStorePanel = new JPanel(new BorderLayout());
 		tileStorePanel.setBorder(SettingsGUI.createSectionBorder(I18nUtils.localizedStringForKey("set_tile_store_settings")));
 		tileStorePanel.add(tileStoreEnabled, BorderLayout.CENTER);
+		tileStoreBackend = new JComboBox(TileStoreBackend.values());
+		JPanel backendPanel = new JPanel(new GridBagLayout());
+		backendPanel.add(tileStoreBackend, GBC.std().insets(5, 5, 5, 5));
+		backendPanel.add(new JLabel(I18nUtils.localizedStringForKey("set_tile_store_backend_desc")), GBC.eol().fill(
+				GBC.HORIZONTAL));
+		tileStorePanel.add(backendPanel, BorderLayout.SOUTH);
 		tileStoreInfoPanel = new JPanel(new GridBagLayout());
 		// tileStoreInfoPanel.setBorder(createSectionBorder("Information"));
 
@@ -107,9 +117,16 @@ public class SettingsGUITileStore extends JPanel {
 					info.size = size;
 					final String mapTileCountText = (count < 0) ? "??" : Integer.toString(count);
 					final String mapTileSizeText = Utilities.formatBytes(size);
+					final String dedupText;
+					if (tsi.getDuplicateTileCount() > 0)
+						dedupText = String.format(I18nUtils.localizedStringForKey("set_tile_store_info_dedup_tips"),
+								tsi.getDuplicateTileCount(), Utilities.formatBytes(tsi.getDeduplicatedSize()));
+					else
+						dedupText = null;
 					SwingUtilities.invokeLater(new Runnable() {
 						public void run() {
 							info.countLabel.setText("<html><b>" + mapTileCountText + "</b></html>");
+							info.countLabel.setToolTipText(dedupText);
 							info.sizeLabel.setText("<html><b>" + mapTileSizeText + "</b></html>");
 						}
 					});
@@ -29,6 +29,7 @@ import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.JMapViewer;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
+import mobac.program.download.DownloadContext;
 import mobac.program.download.TileDownLoader;
 import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSource;
@@ -128,9 +129,9 @@ public abstract class AbstractHttpMapSource implements HttpMapSource {
 			if (entry == null)
 				return null;
 			byte[] data = entry.getData();
-			if (Thread.currentThread() instanceof MapSourceListener) {
-				((MapSourceListener) Thread.currentThread()).tileDownloaded(data.length);
-			}
+			MapSourceListener listener = DownloadContext.getMapSourceListener();
+			if (listener != null)
+				listener.tileDownloaded(data.length);
 			return data;
 		} else if (loadMethod == LoadMethod.SOURCE) {
 			initializeHttpMapSource();
@@ -149,6 +150,15 @@ public abstract class AbstractHttpMapSource implements HttpMapSource {
 		return ImageIO.read(new ByteArrayInputStream(data));
 	}
 
+	/**
+	 * Map sources overriding {@link #getTileData(int, int, int, LoadMethod)} or
+	 * {@link #getTileImage(int, int, int, LoadMethod)} with anything else than additional synchronization or error
+	 * handling have to override this method and return <code>false</code>.
+	 */
+	public boolean isPlainTileDataSource() {
+		return true;
+	}
+
 	public int getMaxZoom() {
 		return maxZoom;
 	}
@@ -24,6 +24,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 import javax.xml.bind.annotation.XmlElement;
@@ -70,14 +72,20 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource {
 	private MapSpace mapSpace = MercatorPower2MapSpace.INSTANCE_256;
 
 	protected File mapFile;
-	protected DatabaseRenderer renderer;
 	protected XmlRenderTheme xmlRenderTheme;
 	protected DisplayModel displayModel;
-	protected MultiMapDataStore multiMapDataStore;
-	protected RenderThemeFuture renderThemeFuture;
 	protected XmlRenderThemeStyleMenu renderThemeStyleMenu;
 
-	protected MapsForgeCache tileCache = new MapsForgeCache();
+	/**
+	 * Renderers currently not in use. Neither the map file reader nor the parsed render theme of mapsforge are
+	 * thread-safe, therefore each renderer has its own instances. Renderers are created on demand up to one per CPU
+	 * core and are shared by all threads requesting tiles (map preview and atlas creation).
+	 */
+	private final LinkedBlockingQueue<TileRenderer> idleRenderers = new LinkedBlockingQueue<TileRenderer>();
+
+	private final AtomicInteger rendererCount = new AtomicInteger(0);
+
+	private final int maxRendererCount = Runtime.getRuntime().availableProcessors();
 
 	@XmlElement(defaultValue = "false")
 	protected boolean transparent = false;
@@ -97,18 +105,44 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource {
 
 	@Override
 	public void initialize() throws MapSourceInitializationException {
-		GraphicFactory graphicFactory = AwtGraphicFactory.INSTANCE;
 		if (!mapFile.exists())
 			throw new MapSourceInitializationException("File does not exist: " + mapFile.getAbsolutePath());
-		multiMapDataStore = new MultiMapDataStore(MultiMapDataStore.DataPolicy.RETURN_FIRST);
-		multiMapDataStore.addMapDataStore(new MapFile(mapFile), true, true);
-
-		renderer = new DatabaseRenderer(multiMapDataStore, graphicFactory, tileCache);
-		renderThemeFuture = new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel);
-		// new Thread(renderThemeFuture).start();
-		renderThemeFuture.run();
-		// renderThemeFuture = new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel);
-		// renderThemeFuture.run();
+		destroyRenderers();
+		// The first renderer is created immediately for detecting invalid map files and render themes
+		rendererCount.incrementAndGet();
+		idleRenderers.add(new TileRenderer());
+	}
+
+	private TileRenderer acquireRenderer() throws InterruptedException {
+		TileRenderer renderer = idleRenderers.poll();
+		if (renderer != null)
+			return renderer;
+		while (true) {
+			int count = rendererCount.get();
+			if (count >= maxRendererCount)
+				return idleRenderers.take();
+			if (rendererCount.compareAndSet(count, count + 1)) {
+				try {
+					LOG.debug("Creating mapsforge renderer " + (count + 1) + " for " + mapFile);
+					return new TileRenderer();
+				} catch (RuntimeException e) {
+					rendererCount.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void releaseRenderer(TileRenderer renderer) {
+		idleRenderers.add(renderer);
+	}
+
+	private void destroyRenderers() {
+		TileRenderer renderer;
+		while ((renderer = idleRenderers.poll()) != null) {
+			rendererCount.decrementAndGet();
+			renderer.destroy();
+		}
 	}
 
 	protected void loadExternalRenderTheme(File xmlRenderThemeFile) throws FileNotFoundException {
@@ -182,18 +216,19 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource {
 			return null;
 
 		// ((MapSourceCallerThreadInfo)Thread.currentThread()).isMapPreviewThread()
-		RendererJob job;
 		Bitmap tileBitmap;
 		Tile tile = new Tile(x, y, (byte) zoom, 256);
-		job = new RendererJob(tile, multiMapDataStore, renderThemeFuture, displayModel, displayModel.getScaleFactor(),
-				transparent, false);
-
-		synchronized (this) {
-			tileBitmap = renderer.executeJob(job);
+		TileRenderer renderer = acquireRenderer();
+		try {
+			RendererJob job = new RendererJob(tile, renderer.mapDataStore, renderer.renderThemeFuture, displayModel,
+					displayModel.getScaleFactor(), transparent, false);
+			tileBitmap = renderer.databaseRenderer.executeJob(job);
+			if (tileBitmap == null)
+				throw new IOException("Failed to render image");
+			renderer.tileCache.put(job, null);
+		} finally {
+			releaseRenderer(renderer);
 		}
-		if (tileBitmap == null)
-			throw new IOException("Failed to render image");
-		tileCache.put(job, null);
 		return AwtGraphicFactory.getBitmap(tileBitmap);
 	}
 
@@ -214,6 +249,38 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource {
 		return name;
 	}
 
+	/**
+	 * One mapsforge renderer including its own map file reader and render theme instance. The {@link MapsForgeCache}
+	 * belongs to the renderer as it complements the label dependencies the {@link DatabaseRenderer} records between
+	 * neighboring tiles.
+	 */
+	private class TileRenderer {
+
+		final MultiMapDataStore mapDataStore;
+		final RenderThemeFuture renderThemeFuture;
+		final MapsForgeCache tileCache = new MapsForgeCache();
+		final DatabaseRenderer databaseRenderer;
+
+		public TileRenderer() {
+			GraphicFactory graphicFactory = AwtGraphicFactory.INSTANCE;
+			mapDataStore = new MultiMapDataStore(MultiMapDataStore.DataPolicy.RETURN_FIRST);
+			mapDataStore.addMapDataStore(new MapFile(mapFile), true, true);
+			databaseRenderer = new DatabaseRenderer(mapDataStore, graphicFactory, tileCache);
+			renderThemeFuture = new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel);
+			renderThemeFuture.run();
+		}
+
+		public void destroy() {
+			databaseRenderer.destroy();
+			mapDataStore.close();
+			try {
+				renderThemeFuture.get().destroy();
+			} catch (Exception e) {
+				LOG.debug("Failed to destroy render theme: " + e.getMessage());
+			}
+		}
+	}
+
 	private static class MapsForgeCache implements TileCache {
 
 		HashSet<Integer> set = new HashSet<>(10000);
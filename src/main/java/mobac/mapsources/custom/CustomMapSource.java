@@ -34,6 +34,7 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.UnrecoverableDownloadException;
 import mobac.mapsources.MapSourceTools;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
+import mobac.program.download.DownloadContext;
 import mobac.program.download.TileDownLoader;
 import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSourceListener;
@@ -155,9 +156,9 @@ public class CustomMapSource implements HttpMapSource {
 			if (entry == null)
 				return null;
 			byte[] data = entry.getData();
-			if (Thread.currentThread() instanceof MapSourceListener) {
-				((MapSourceListener) Thread.currentThread()).tileDownloaded(data.length);
-			}
+			MapSourceListener listener = DownloadContext.getMapSourceListener();
+			if (listener != null)
+				listener.tileDownloaded(data.length);
 			return data;
 		}
 		if (ignoreErrors) {
@@ -171,6 +172,14 @@ public class CustomMapSource implements HttpMapSource {
 		}
 	}
 
+	/**
+	 * Tiles with inverted y coordinate are stored under the inverted coordinate and missing tiles are replaced by an
+	 * image of the background color if errors are ignored.
+	 */
+	public boolean isPlainTileDataSource() {
+		return !invertYCoordinate && !ignoreErrors;
+	}
+
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod) throws IOException,
 			UnrecoverableDownloadException, InterruptedException {
 		
@@ -91,6 +91,11 @@ public class Hikebikemap extends AbstractMultiLayerMapSource {
 			return super.getTileImage(zoom, x, y, loadMethod);
 		}
 
+		@Override
+		public boolean isPlainTileDataSource() {
+			return false;
+		}
+
 	}
 
 	@Override
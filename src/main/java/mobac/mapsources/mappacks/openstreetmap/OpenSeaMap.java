@@ -97,6 +97,14 @@ public class OpenSeaMap extends AbstractMultiLayerMapSource implements MapSource
 			return Utilities.COLOR_TRANSPARENT;
 		}
 
+		/**
+		 * Empty tiles in the tile store represent non-existing tiles
+		 */
+		@Override
+		public boolean isPlainTileDataSource() {
+			return false;
+		}
+
 	}
 
 	public static Image makeColorTransparent(Image im, final Color color) {
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package mobac.program;
 
+import java.awt.Point;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
@@ -27,6 +28,7 @@ import mobac.exceptions.AtlasTestException;
 import mobac.exceptions.MapDownloadSkippedException;
 import mobac.gui.AtlasProgress;
 import mobac.gui.AtlasProgress.AtlasCreationController;
+import mobac.program.JobDispatcher.JobGroup;
 import mobac.program.atlascreators.AtlasCreator;
 import mobac.program.atlascreators.tileprovider.DownloadedTileProvider;
 import mobac.program.atlascreators.tileprovider.FilteredMapSourceProvider;
@@ -287,17 +289,23 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 					// If something goes wrong the temp file only persists until the VM exits
 					tileArchiveFile.deleteOnExit();
 					log.debug("Writing downloaded tiles to " + tileArchiveFile.getPath());
-					tileArchive = new TarIndexedArchive(tileArchiveFile, tileCount);
+					int tileSize = map.getMapSource().getMapSpace().getTileSize();
+					Point minTile = map.getMinTileCoordinate();
+					Point maxTile = map.getMaxTileCoordinate();
+					tileArchive = new TarIndexedArchive(tileArchiveFile, minTile.x / tileSize, minTile.y / tileSize,
+							maxTile.x / tileSize, maxTile.y / tileSize);
 				} else
 					log.debug("Downloading to tile store only");
 
-				djp = new DownloadJobProducerThread(this, downloadJobDispatcher, tileArchive, (DownloadableElement) map);
+				JobGroup jobGroup = downloadJobDispatcher.createJobGroup();
+				djp = new DownloadJobProducerThread(this, downloadJobDispatcher, jobGroup, tileArchive,
+						(DownloadableElement) map);
 
 				boolean failedMessageAnswered = false;
 
-				while (djp.isAlive() || (downloadJobDispatcher.getWaitingJobCount() > 0)
-						|| downloadJobDispatcher.isAtLeastOneWorkerActive()) {
-					Thread.sleep(500);
+				// Returns immediately when the last job has been completed, the timeout is only used for checking
+				// the download errors
+				while (!jobGroup.awaitCompletion(500)) {
 					if (!failedMessageAnswered && (jobsRetryError > 50) && !ap.ignoreDownloadErrors()) {
 						pauseResumeHandler.pause();
 						String[] answers = new String[] { I18nUtils.localizedStringForKey("Continue"),
@@ -329,6 +337,13 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 				}
 				djp = null;
 				log.debug("All download jobs has been completed!");
+				// Make sure all downloaded tiles are persisted before the map is processed
+				try {
+					TileStore.getInstance().flush();
+				} catch (IOException e) {
+					// The map is created from the tile archive - only the tile store is incomplete
+					log.error("Tile store incomplete: " + e.getMessage(), e);
+				}
 				if (tileArchive != null) {
 					tileArchive.writeEndofArchive();
 					tileArchive.close();
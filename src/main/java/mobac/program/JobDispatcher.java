@@ -17,11 +17,20 @@
 package mobac.program;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import mobac.exceptions.StopAllDownloadsException;
+import mobac.program.download.AbstractDownloadEngine;
+import mobac.program.download.PooledDownloadEngine;
 import mobac.program.interfaces.MapSourceListener;
+import mobac.program.model.DownloadEngine;
+import mobac.program.model.Settings;
 import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 import org.apache.log4j.Logger;
@@ -29,26 +38,61 @@ import org.apache.log4j.Logger;
 /**
  * Controls the worker threads that are downloading the map tiles in parallel. Additionally the job queue containing the
  * unprocessed tile download jobs can be accessed via this class.
+ * <p>
+ * The job queue is bounded: {@link #addJob(Job, JobGroup)} blocks until a worker has taken a job from the queue. Jobs
+ * that failed and should be retried are held back in a separate delay queue and re-enter the job queue after an
+ * exponentially growing delay. Each map creates its own {@link JobGroup} which allows to wait for the moment the last
+ * job of the map has been completed.
+ * </p>
  */
 public class JobDispatcher {
 
 	private static Logger log = Logger.getLogger(JobDispatcher.class);
 
+	/**
+	 * Maximum number of jobs waiting in the job queue
+	 */
+	protected static final int JOB_QUEUE_CAPACITY = 500;
+
+	/**
+	 * Delay in milliseconds before the first retry of a failed job. Each further retry doubles the delay up to
+	 * {@link #RETRY_MAX_DELAY}.
+	 */
+	protected static final long RETRY_BASE_DELAY = 1000;
+
+	protected static final long RETRY_MAX_DELAY = 60000;
+
+	/**
+	 * The {@link JobGroup} of the job currently executed by a thread. Required for assigning retry jobs to the correct
+	 * group.
+	 */
+	private static final ThreadLocal<JobGroup> CURRENT_JOB_GROUP = new ThreadLocal<JobGroup>();
+
 	protected final AtlasThread atlasThread;
 	protected final PauseResumeHandler pauseResumeHandler;
 	protected final MapSourceListener mapSourceListener;
 	protected final WorkerThread[] workers;
+	protected final RetryThread retryThread;
+	protected final AbstractDownloadEngine downloadEngine;
+
+	protected final BlockingQueue<QueuedJob> jobQueue = new LinkedBlockingQueue<QueuedJob>(JOB_QUEUE_CAPACITY);
 
-	protected int maxJobsInQueue = 100;
-	protected int minJobsInQueue = 50;
+	protected final DelayQueue<QueuedJob> retryQueue = new DelayQueue<QueuedJob>();
 
-	protected final BlockingQueue<Job> jobQueue = new LinkedBlockingQueue<Job>();
+	protected volatile JobGroup lastJobGroup = null;
 
 	public JobDispatcher(AtlasThread atlasThread, int threadCount, PauseResumeHandler pauseResumeHandler,
 			MapSourceListener mapSourceListener) {
 		this.atlasThread = atlasThread;
 		this.pauseResumeHandler = pauseResumeHandler;
 		this.mapSourceListener = mapSourceListener;
+		Settings s = Settings.getInstance();
+		if (s.downloadEngine == DownloadEngine.CONNECTION_POOL)
+			downloadEngine = new PooledDownloadEngine(this, pauseResumeHandler, mapSourceListener,
+					s.downloadMaxRequestsInFlight, s.downloadMaxConnectionsPerHost);
+		else
+			downloadEngine = null;
+		retryThread = new RetryThread();
 		workers = new WorkerThread[threadCount];
 		for (int i = 0; i < threadCount; i++)
 			workers[i] = new WorkerThread(i);
@@ -62,7 +106,10 @@ public class JobDispatcher {
 
 	public void terminateAllWorkerThreads() {
 		cancelOutstandingJobs();
+		if (downloadEngine != null)
+			downloadEngine.shutdown();
 		log.trace("Killing all worker threads");
+		retryThread.interrupt();
 		for (int i = 0; i < workers.length; i++) {
 			try {
 				WorkerThread w = workers[i];
@@ -74,62 +121,217 @@ public class JobDispatcher {
 				// We don't care about exception here
 			}
 		}
+		JobGroup jobGroup = lastJobGroup;
+		if (jobGroup != null)
+			jobGroup.cancel();
 	}
 
 	public void cancelOutstandingJobs() {
-		jobQueue.clear();
+		List<QueuedJob> droppedJobs = new ArrayList<QueuedJob>();
+		retryQueue.drainTo(droppedJobs);
+		jobQueue.drainTo(droppedJobs);
+		for (QueuedJob queuedJob : droppedJobs)
+			queuedJob.group.jobFinished();
 	}
 
 	/**
-	 * Blocks if more than 100 jobs are already scheduled.
+	 * Creates a new {@link JobGroup} for the jobs of one map.
 	 * 
-	 * @param job
-	 * @throws InterruptedException
+	 * @return
 	 */
-	public void addJob(Job job) throws InterruptedException {
-		while (jobQueue.size() > maxJobsInQueue) {
-			Thread.sleep(200);
-			if ((jobQueue.size() < minJobsInQueue) && (maxJobsInQueue < 2000)) {
-				// System and download connection is very fast - we have to
-				// increase the maximum job count in the queue
-				maxJobsInQueue *= 2;
-				minJobsInQueue *= 2;
-			}
-		}
-		jobQueue.put(job);
+	public JobGroup createJobGroup() {
+		JobGroup jobGroup = new JobGroup();
+		lastJobGroup = jobGroup;
+		return jobGroup;
 	}
 
 	/**
-	 * Adds the job to the job-queue and returns. This method will never block!
+	 * Blocks if the job queue is full until a worker thread has taken the next job.
 	 * 
 	 * @param job
+	 * @param jobGroup
+	 * @throws InterruptedException
 	 */
-	public void addErrorJob(Job job) {
+	public void addJob(Job job, JobGroup jobGroup) throws InterruptedException {
+		jobGroup.jobAdded();
 		try {
-			jobQueue.put(job);
+			jobQueue.put(new QueuedJob(job, jobGroup, 0));
 		} catch (InterruptedException e) {
-			// Can never happen with LinkedBlockingQueue
+			jobGroup.jobFinished();
+			throw e;
 		}
 	}
 
+	/**
+	 * Schedules a failed job for another try. The job is held back for a delay that doubles with each retry. This
+	 * method will never block!
+	 * 
+	 * @param job
+	 * @param retryCount
+	 *            number of the retry starting with 1
+	 */
+	public void addErrorJob(Job job, int retryCount) {
+		JobGroup jobGroup = getCurrentJobGroup();
+		if (jobGroup == null)
+			jobGroup = lastJobGroup;
+		long delay = RETRY_BASE_DELAY << Math.min(Math.max(retryCount - 1, 0), 16);
+		delay = Math.min(delay, RETRY_MAX_DELAY);
+		jobGroup.jobAdded();
+		retryQueue.put(new QueuedJob(job, jobGroup, delay));
+	}
+
 	public int getWaitingJobCount() {
-		return jobQueue.size();
+		return jobQueue.size() + retryQueue.size();
+	}
+
+	/**
+	 * @return the {@link JobGroup} of the job that is currently executed by the calling thread or <code>null</code>
+	 */
+	public JobGroup getCurrentJobGroup() {
+		return CURRENT_JOB_GROUP.get();
+	}
+
+	/**
+	 * Assigns the calling thread to the specified {@link JobGroup}. Used by threads that continue the execution of a
+	 * job outside of the worker threads, e.g. an {@link AbstractDownloadEngine}.
+	 * 
+	 * @param jobGroup
+	 *            may be <code>null</code>
+	 */
+	public void setCurrentJobGroup(JobGroup jobGroup) {
+		if (jobGroup != null)
+			CURRENT_JOB_GROUP.set(jobGroup);
+		else
+			CURRENT_JOB_GROUP.remove();
+	}
+
+	/**
+	 * @return the download engine or <code>null</code> if the worker threads perform the downloads themselves
+	 */
+	public AbstractDownloadEngine getDownloadEngine() {
+		return downloadEngine;
 	}
 
 	public static interface Job {
 		public void run(JobDispatcher dispatcher) throws Exception;
 	}
 
-	public boolean isAtLeastOneWorkerActive() {
-		for (int i = 0; i < workers.length; i++) {
-			WorkerThread w = workers[i];
-			if (w != null) {
-				if ((!w.idle) && (w.getState() != Thread.State.WAITING))
-					return true;
+	/**
+	 * Keeps track of the outstanding jobs of one map. A job counts as outstanding from the moment it is added to the
+	 * dispatcher until its execution has been completed without scheduling a retry. The group is complete as soon as
+	 * {@link #allJobsAdded()} has been called and no job is outstanding anymore.
+	 */
+	public static class JobGroup {
+
+		private int outstandingJobs = 0;
+		private boolean allJobsAdded = false;
+		private boolean cancelled = false;
+
+		public synchronized void jobAdded() {
+			outstandingJobs++;
+		}
+
+		public synchronized void jobFinished() {
+			outstandingJobs--;
+			if (isComplete())
+				notifyAll();
+		}
+
+		/**
+		 * Signals that no further jobs will be added (except retries of jobs of this group).
+		 */
+		public synchronized void allJobsAdded() {
+			allJobsAdded = true;
+			if (isComplete())
+				notifyAll();
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			notifyAll();
+		}
+
+		public synchronized boolean isComplete() {
+			return cancelled || (allJobsAdded && outstandingJobs <= 0);
+		}
+
+		public synchronized int getOutstandingJobCount() {
+			return outstandingJobs;
+		}
+
+		/**
+		 * Waits until the group is complete or the timeout elapsed.
+		 * 
+		 * @param timeout
+		 *            maximum time to wait in milliseconds
+		 * @return <code>true</code> if the group is complete
+		 * @throws InterruptedException
+		 */
+		public synchronized boolean awaitCompletion(long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (!isComplete()) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					return false;
+				wait(wait);
 			}
+			return true;
+		}
+	}
+
+	/**
+	 * Queue entry that connects a job with its {@link JobGroup}. For retry jobs it also specifies the time until the
+	 * job may be executed again.
+	 */
+	protected static class QueuedJob implements Delayed {
+
+		final Job job;
+		final JobGroup group;
+		final long executionTime;
+
+		public QueuedJob(Job job, JobGroup group, long delay) {
+			this.job = job;
+			this.group = group;
+			this.executionTime = System.currentTimeMillis() + delay;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(executionTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			long d = executionTime - ((QueuedJob) o).executionTime;
+			return (d < 0) ? -1 : ((d > 0) ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Moves the retry jobs back into the job queue as soon as their delay has elapsed.
+	 */
+	protected class RetryThread extends Thread {
+
+		public RetryThread() {
+			super("JobRetryThread");
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isInterrupted()) {
+					QueuedJob queuedJob = retryQueue.take();
+					try {
+						jobQueue.put(queuedJob);
+					} catch (InterruptedException e) {
+						queuedJob.group.jobFinished();
+						throw e;
+					}
+				}
+			} catch (InterruptedException e) {
+			}
+			log.trace("Retry thread is terminating");
 		}
-		log.debug("All worker threads are idle");
-		return false;
 	}
 
 	/**
@@ -140,8 +342,6 @@ public class JobDispatcher {
 
 		Job job = null;
 
-		boolean idle = true;
-
 		private Logger log = Logger.getLogger(WorkerThread.class);
 
 		public WorkerThread(int threadNum) {
@@ -161,19 +361,17 @@ public class JobDispatcher {
 
 		protected void executeJobs() throws InterruptedException {
 			while (!isInterrupted()) {
+				QueuedJob queuedJob;
 				try {
 					pauseResumeHandler.pauseWait();
-					idle = true;
-					job = jobQueue.take();
-					idle = false;
+					queuedJob = jobQueue.take();
 				} catch (InterruptedException e) {
 					return;
 				}
-				if (job == null)
-					return;
+				job = queuedJob.job;
+				setCurrentJobGroup(queuedJob.group);
 				try {
 					job.run(JobDispatcher.this);
-					job = null;
 				} catch (InterruptedException e) {
 				} catch (StopAllDownloadsException e) {
 					JobDispatcher.this.terminateAllWorkerThreads();
@@ -188,6 +386,10 @@ public class JobDispatcher {
 					log.error("", e);
 					Thread.sleep(5000);
 					System.gc();
+				} finally {
+					job = null;
+					setCurrentJobGroup(null);
+					queuedJob.group.jobFinished();
 				}
 			}
 		}
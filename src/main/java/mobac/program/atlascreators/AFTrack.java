@@ -19,8 +19,6 @@ package mobac.program.atlascreators;
 import java.awt.Point;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
@@ -30,8 +28,7 @@ import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.LayerInterface;
 import mobac.program.interfaces.MapInterface;
-import mobac.utilities.Utilities;
-import mobac.utilities.stream.ZipStoreOutputStream;
+import mobac.utilities.stream.ParallelZipWriter;
 
 /**
  * AFTrack OSZ Atlas format
@@ -79,13 +76,11 @@ public class AFTrack extends OSMTracker {
 
 	private class OszTileWriter extends OSMTileWriter {
 
-		ZipStoreOutputStream zipStream;
-		FileOutputStream out;
+		ParallelZipWriter zipStream;
 
-		public OszTileWriter(File oszFile) throws FileNotFoundException {
+		public OszTileWriter(File oszFile) throws IOException {
 			super();
-			out = new FileOutputStream(oszFile);
-			zipStream = new ZipStoreOutputStream(out);
+			zipStream = new ParallelZipWriter(oszFile);
 		}
 
 		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
@@ -106,7 +101,7 @@ public class AFTrack extends OSMTracker {
 			writer.append(String.format("maxy=%d\r\n", max.y));
 			writer.close();
 			zipStream.writeStoredEntry("Manifest.txt", bout.toByteArray());
-			Utilities.closeStream(zipStream);
+			zipStream.close();
 		}
 
 	}
@@ -51,6 +51,9 @@ public abstract class AbstractPlainImage extends AtlasCreator {
 		long heapMaxSize = r.maxMemory();
 		int maxMapSize = (int) (Math.sqrt(heapMaxSize / 3d) * 0.8); // reduce maximum by 20%
 		maxMapSize = (maxMapSize / 100) * 100; // round by 100;
+		// Larger maps are scaled down to getMaxImageSize() - only the size of the created image matters
+		if (getMaxImageSize() <= maxMapSize)
+			return;
 		for (LayerInterface layer : atlas) {
 			for (MapInterface map : layer) {
 				int w = map.getMaxTileCoordinate().x - map.getMinTileCoordinate().x;
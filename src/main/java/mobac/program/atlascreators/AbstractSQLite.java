@@ -25,6 +25,7 @@ import java.sql.SQLException;
 
 import mobac.exceptions.AtlasTestException;
 import mobac.exceptions.MapCreationException;
+import mobac.program.atlascreators.impl.SQLiteTilePipeline;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.interfaces.AtlasInterface;
 import mobac.program.interfaces.RequiresSQLite;
@@ -33,8 +34,6 @@ import mobac.utilities.jdbc.SQLiteLoader;
 
 public abstract class AbstractSQLite extends AtlasCreator implements RequiresSQLite {
 
-	private static final int MAX_BATCH_SIZE = 1000;
-
 	protected File databaseFile;
 
 	protected Connection conn = null;
@@ -47,8 +46,10 @@ public abstract class AbstractSQLite extends AtlasCreator implements RequiresSQL
 
 	protected void openConnection() throws SQLException {
 		if (conn == null || conn.isClosed()) {
+			boolean newDatabase = !databaseFile.exists();
 			String url = "jdbc:sqlite:/" + databaseFile.getAbsolutePath();
 			conn = DriverManager.getConnection(url);
+			SQLiteLoader.setBulkInsertPragmas(conn, newDatabase);
 		}
 	}
 
@@ -79,11 +80,28 @@ public abstract class AbstractSQLite extends AtlasCreator implements RequiresSQL
 
 	@Override
 	public void finishAtlasCreation() throws IOException, InterruptedException {
+		try {
+			if (conn != null && !conn.isClosed()) {
+				createIndexes();
+				if (!conn.getAutoCommit())
+					conn.commit();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error creating indexes of SQL database \"" + databaseFile + "\": "
+					+ e.getMessage(), e);
+		}
 		SQLiteLoader.closeConnection(conn);
 		conn = null;
 		super.finishAtlasCreation();
 	}
 
+	/**
+	 * Inserts all tiles of the current map using a {@link SQLiteTilePipeline}: the tiles are loaded and converted in
+	 * parallel and written via {@link #writeTile(int, int, int, byte[], byte[])} on the calling thread.
+	 * 
+	 * @throws InterruptedException
+	 * @throws MapCreationException
+	 */
 	protected void createTiles() throws InterruptedException, MapCreationException {
 		int maxMapProgress = 2 * (xMax - xMin + 1) * (yMax - yMin + 1);
 		atlasProgress.initMapCreation(maxMapProgress);
@@ -91,47 +109,19 @@ public abstract class AbstractSQLite extends AtlasCreator implements RequiresSQL
 		if (param != null)
 			mapDlTileProvider = new ConvertedRawTileProvider(mapDlTileProvider, param.getFormat());
 		try {
-			conn.setAutoCommit(false);
-			int batchTileCount = 0;
-			int tilesWritten = 0;
-			Runtime r = Runtime.getRuntime();
-			long heapMaxSize = r.maxMemory();
 			prepStmt = conn.prepareStatement(getTileInsertSQL());
-			for (int x = xMin; x <= xMax; x++) {
-				for (int y = yMin; y <= yMax; y++) {
-					checkUserAbort();
-					atlasProgress.incMapCreationProgress();
-					try {
-						byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
-						if (sourceTileData != null) {
-							writeTile(x, y, zoom, sourceTileData);
-							tilesWritten++;
-							long heapAvailable = heapMaxSize - r.totalMemory() + r.freeMemory();
-
-							batchTileCount++;
-							if ((heapAvailable < HEAP_MIN) || (batchTileCount >= MAX_BATCH_SIZE)) {
-								log.trace("Executing batch containing " + batchTileCount + " tiles");
-								prepStmt.executeBatch();
-								prepStmt.clearBatch();
-								System.gc();
-								conn.commit();
-								atlasProgress.incMapCreationProgress(batchTileCount);
-								batchTileCount = 0;
-							}
-						}
-					} catch (IOException e) {
-						throw new MapCreationException(map, e);
-					}
+			SQLiteTilePipeline pipeline = createTilePipeline();
+			int tilesWritten = pipeline.writeTiles(new SQLiteTilePipeline.TileBinder() {
+
+				public void bindTile(int x, int y, byte[] tileData, byte[] tileDigest) throws SQLException,
+						IOException {
+					writeTile(x, y, zoom, tileData, tileDigest);
 				}
-			}
-			prepStmt.executeBatch();
-			prepStmt.clearBatch();
+			});
 			prepStmt.close();
 			prepStmt = null;
-			System.gc();
 			if (tilesWritten > 0)
 				updateTileMetaInfo();
-			log.trace("Final commit containing " + batchTileCount + " tiles");
 			conn.commit();
 			atlasProgress.setMapCreationProgress(maxMapProgress);
 		} catch (SQLException e) {
@@ -139,10 +129,46 @@ public abstract class AbstractSQLite extends AtlasCreator implements RequiresSQL
 		}
 	}
 
+	/**
+	 * Creates the pipeline inserting the tiles of the current map via {@link #prepStmt}.
+	 * 
+	 * @return
+	 * @throws SQLException
+	 */
+	protected SQLiteTilePipeline createTilePipeline() throws SQLException {
+		return new SQLiteTilePipeline(this, mapDlTileProvider, conn, prepStmt);
+	}
+
+	/**
+	 * Creates the secondary indexes of the database after all tiles of the atlas have been inserted - maintaining
+	 * them while inserting is considerably slower than building them once.
+	 * 
+	 * @throws SQLException
+	 */
+	protected void createIndexes() throws SQLException {
+	}
+
 	protected abstract String getTileInsertSQL();
 
 	protected abstract void writeTile(int x, int y, int z, byte[] tileData) throws SQLException, IOException;
 
+	/**
+	 * Called for each tile by the {@link SQLiteTilePipeline}. The default implementation ignores the digest.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param tileData
+	 * @param tileDigest
+	 *            only available if requested by {@link #createTilePipeline()}
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	protected void writeTile(int x, int y, int z, byte[] tileData, byte[] tileDigest) throws SQLException,
+			IOException {
+		writeTile(x, y, z, tileData);
+	}
+
 	protected abstract String getDatabaseFileName();
 
 	protected abstract void updateTileMetaInfo() throws SQLException;
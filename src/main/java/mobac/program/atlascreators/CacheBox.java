@@ -18,7 +18,8 @@ package mobac.program.atlascreators;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import javax.imageio.ImageIO;
 
@@ -27,6 +28,7 @@ import mobac.exceptions.MapCreationException;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
+import mobac.program.atlascreators.impl.OffsetTableFileWriter;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.LayerInterface;
@@ -41,7 +43,7 @@ import mobac.utilities.Utilities;
 public class CacheBox extends AtlasCreator {
 
 	private File packFile = null;
-	private RandomAccessFile packRaFile = null;
+	private OffsetTableFileWriter packWriter = null;
 	private MapInfo[] mapInfos;
 
 	private int nextMapOffsetIndex = 0;
@@ -71,7 +73,7 @@ public class CacheBox extends AtlasCreator {
 		packFile = new File(atlasDir, layer.getName() + ".pack");
 		if (packFile.exists())
 			Utilities.deleteFile(packFile);
-		packRaFile = new RandomAccessFile(packFile, "rw");
+		packWriter = new OffsetTableFileWriter(packFile, ByteOrder.LITTLE_ENDIAN);
 		/*
 		 * We use the mapsource name as layer name. See feature request #2987674
 		 * for details.
@@ -113,9 +115,10 @@ public class CacheBox extends AtlasCreator {
 		// We need to keep the offset to the last index table
 		// -> required for index table finalization.
 		mapInfos[i] = new MapInfo(null, offset, 0, 0, 0, 0, 0);
-		log.trace(String.format("End of bounding boxes table: 0x%X", packRaFile.getFilePointer()));
-		packRaFile.seek(offset);
-		log.trace(String.format("Start of tile data: 0x%X", packRaFile.getFilePointer()));
+		log.trace(String.format("End of bounding boxes table: 0x%X", packWriter.getPosition()));
+		// The index tables are written after the tiles of each map have been written
+		packWriter.skip(offset - packWriter.getPosition());
+		log.trace(String.format("Start of tile data: 0x%X", packWriter.getPosition()));
 	}
 
 	@Override
@@ -153,20 +156,20 @@ public class CacheBox extends AtlasCreator {
 					checkUserAbort();
 					atlasProgress.incMapCreationProgress();
 					byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
-					offsets[offsetIndex++] = packRaFile.getFilePointer();
+					offsets[offsetIndex++] = packWriter.getPosition();
 					if (sourceTileData != null) {
-						packRaFile.write(sourceTileData);
+						packWriter.write(sourceTileData);
 					}
 				}
 			}
-			long pos = packRaFile.getFilePointer();
 			// Write the offsets of all tiles in this map to the correspondent
 			// offset index table
-			// Due to a bug in CacheBox we have to subtract 8 from the offset
-			packRaFile.seek(activeMapInfo.indexTableOffset - 8);
+			ByteBuffer indexTable = packWriter.allocate(offsets.length * 8);
 			for (long tileoffset : offsets)
-				writeLong(tileoffset);
-			packRaFile.seek(pos);
+				indexTable.putLong(tileoffset);
+			indexTable.flip();
+			// Due to a bug in CacheBox we have to subtract 8 from the offset
+			packWriter.writeAt(activeMapInfo.indexTableOffset - 8, indexTable);
 		} catch (IOException e) {
 			throw new MapCreationException(map, e);
 		}
@@ -175,23 +178,26 @@ public class CacheBox extends AtlasCreator {
 	@Override
 	public void finishLayerCreation() throws IOException {
 		long tableOffset = mapInfos[mapInfos.length - 1].indexTableOffset;
-		long offset = packRaFile.getFilePointer();
-		// Due to a bug in CacheBox we have to subtract 8 from the offset
-		packRaFile.seek(tableOffset - 8);
+		long offset = packWriter.getPosition();
 		// write the offset to the end of the file (after the last image)
 		// required by CacheBox for length calculation of the last tile
-		packRaFile.writeLong(swapLong(offset));
+		ByteBuffer endOffset = packWriter.allocate(8);
+		endOffset.putLong(offset);
+		endOffset.flip();
+		// Due to a bug in CacheBox we have to subtract 8 from the offset
+		packWriter.writeAt(tableOffset - 8, endOffset);
 		mapInfos = null;
 		packFile = null;
-		packRaFile.close();
-		packRaFile = null;
+		packWriter.close();
+		packWriter = null;
 	}
 
 	@Override
 	public void abortAtlasCreation() throws IOException {
 		mapInfos = null;
-		Utilities.closeFile(packRaFile);
-		packRaFile = null;
+		if (packWriter != null)
+			packWriter.abort();
+		packWriter = null;
 		if (packFile != null)
 			Utilities.deleteFile(packFile);
 		packFile = null;
@@ -208,32 +214,15 @@ public class CacheBox extends AtlasCreator {
 		System.arraycopy(asciiBytes, 0, buf, 0, Math.min(length, asciiBytes.length));
 		for (int i = asciiBytes.length; i < length; i++)
 			buf[i] = ' ';
-		packRaFile.write(buf);
+		packWriter.write(buf);
 	}
 
 	private void writeInt(int v) throws IOException {
-		packRaFile.writeInt(swapInt(v));
+		packWriter.writeInt(v);
 	}
 
 	private void writeLong(long v) throws IOException {
-		packRaFile.writeLong(swapLong(v));
-	}
-
-	public final static int swapInt(int v) {
-		return (v >>> 24) | (v << 24) | ((v << 8) & 0x00FF0000) | ((v >> 8) & 0x0000FF00);
-	}
-
-	public final static long swapLong(long v) {
-		long b1 = (v >> 0) & 0xff;
-		long b2 = (v >> 8) & 0xff;
-		long b3 = (v >> 16) & 0xff;
-		long b4 = (v >> 24) & 0xff;
-		long b5 = (v >> 32) & 0xff;
-		long b6 = (v >> 40) & 0xff;
-		long b7 = (v >> 48) & 0xff;
-		long b8 = (v >> 56) & 0xff;
-
-		return b1 << 56 | b2 << 48 | b3 << 40 | b4 << 32 | b5 << 24 | b6 << 16 | b7 << 8 | b8 << 0;
+		packWriter.writeLong(v);
 	}
 
 	private class MapInfo {
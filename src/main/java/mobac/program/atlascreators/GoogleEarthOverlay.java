@@ -21,7 +21,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.text.NumberFormat;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -43,7 +42,7 @@ import mobac.program.interfaces.MapSpace;
 import mobac.program.interfaces.TileImageDataWriter;
 import mobac.program.tiledatawriter.TileImageJpegDataWriter;
 import mobac.utilities.Utilities;
-import mobac.utilities.stream.ZipStoreOutputStream;
+import mobac.utilities.stream.ParallelZipWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -55,7 +54,7 @@ public class GoogleEarthOverlay extends AbstractPlainImage {
 	protected String cleanedMapName;
 
 	protected File kmzFile = null;
-	protected ZipStoreOutputStream kmzOutputStream = null;
+	protected ParallelZipWriter kmzOutputStream = null;
 
 	private Document kmlDoc = null;
 	private Element groundOverlayRoot = null;
@@ -65,8 +64,7 @@ public class GoogleEarthOverlay extends AbstractPlainImage {
 		super.initLayerCreation(layer);
 		Utilities.mkDirs(atlasDir);
 		kmzFile = new File(atlasDir, layer.getName() + ".kmz");
-		kmzOutputStream = new ZipStoreOutputStream(kmzFile);
-		kmzOutputStream.setMethod(ZipOutputStream.STORED);
+		kmzOutputStream = new ParallelZipWriter(kmzFile);
 		try {
 			if (layer.getMapCount() <= 1)
 				initKmlDoc(null);
@@ -84,7 +82,7 @@ public class GoogleEarthOverlay extends AbstractPlainImage {
 		} catch (Exception e) {
 			throw new IOException(e);
 		}
-		Utilities.closeStream(kmzOutputStream);
+		kmzOutputStream.close();
 		kmzOutputStream = null;
 		kmzFile = null;
 		super.finishLayerCreation();
@@ -92,7 +90,8 @@ public class GoogleEarthOverlay extends AbstractPlainImage {
 
 	@Override
 	public void abortAtlasCreation() throws IOException {
-		Utilities.closeStream(kmzOutputStream);
+		if (kmzOutputStream != null)
+			kmzOutputStream.abort();
 		kmzOutputStream = null;
 		kmzFile = null;
 		super.abortAtlasCreation();
@@ -218,7 +217,7 @@ public class GoogleEarthOverlay extends AbstractPlainImage {
 
 		ByteArrayOutputStream bos = new ByteArrayOutputStream(16000);
 		serializer.transform(new DOMSource(kmlDoc), new StreamResult(bos));
-		kmzOutputStream.writeStoredEntry("doc.kml", bos.toByteArray());
+		kmzOutputStream.writeDeflatedEntry("doc.kml", bos.toByteArray());
 		kmlDoc = null;
 		groundOverlayRoot = null;
 	}
@@ -120,12 +120,18 @@ public class IPhone3MapTiles5 extends RMapsSQLite {
 	protected void initializeDB() throws SQLException {
 		Statement stat = conn.createStatement();
 		stat.executeUpdate(TABLE_IMAGES);
-		stat.executeUpdate(INDEX_IMAGES);
 		if (stat.executeUpdate(TABLE_VERSION) == 0)
 			stat.execute(TABLE_VERSION_DATA);
 		stat.close();
 	}
 
+	@Override
+	protected void createIndexes() throws SQLException {
+		Statement stat = conn.createStatement();
+		stat.executeUpdate(INDEX_IMAGES);
+		stat.close();
+	}
+
 	@Override
 	protected void createTiles() throws InterruptedException, MapCreationException {
 
@@ -105,8 +105,7 @@ public class MBTiles extends RMapsSQLite {
 	@Override
 	protected void initializeDB() throws SQLException {
 		Statement stat = conn.createStatement();
-		stat.executeUpdate(TABLE_TILES);
-		stat.executeUpdate(INDEX_TILES);
+		createTileTables(stat);
 		stat.executeUpdate(TABLE_METADATA);
 		stat.executeUpdate(INDEX_METADATA);
 		stat.close();
@@ -116,6 +115,23 @@ public class MBTiles extends RMapsSQLite {
 		boundsLonMax = Double.MIN_VALUE;
 	}
 
+	/**
+	 * Creates the table(s) for the tile data. All tiles are accessible via the table or view <code>tiles</code>.
+	 * 
+	 * @param stat
+	 * @throws SQLException
+	 */
+	protected void createTileTables(Statement stat) throws SQLException {
+		stat.executeUpdate(TABLE_TILES);
+	}
+
+	@Override
+	protected void createIndexes() throws SQLException {
+		Statement stat = conn.createStatement();
+		stat.executeUpdate(INDEX_TILES);
+		stat.close();
+	}
+
 	@Override
 	protected void updateTileMetaInfo() throws SQLException {
 		MapSpace ms = map.getMapSource().getMapSpace();
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.atlascreators;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import mobac.exceptions.MapCreationException;
+import mobac.program.annotations.AtlasCreatorName;
+import mobac.program.atlascreators.impl.SQLiteTilePipeline;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * MBTiles using the deduplicated layout: each distinct tile image is stored once in the table <code>images</code>
+ * identified by the MD5 hash of its content, the table <code>map</code> assigns the images to the tile coordinates.
+ * The view <code>tiles</code> provides the standard MBTiles access to the tiles.
+ * 
+ * https://github.com/mapbox/mbtiles-spec/tree/master/1.1
+ */
+@AtlasCreatorName(value = "MBTiles SQLite (deduplicated)", type = "MBTilesDeduplicated")
+public class MBTilesDeduplicated extends MBTiles {
+
+	private static final String TABLE_MAP = "CREATE TABLE IF NOT EXISTS map (zoom_level integer, tile_column integer, tile_row integer, tile_id text);";
+	private static final String TABLE_IMAGES = "CREATE TABLE IF NOT EXISTS images (tile_data blob, tile_id text);";
+	private static final String INDEX_IMAGES = "CREATE UNIQUE INDEX IF NOT EXISTS images_id ON images (tile_id);";
+	private static final String VIEW_TILES = "CREATE VIEW IF NOT EXISTS tiles AS SELECT map.zoom_level AS zoom_level, "
+			+ "map.tile_column AS tile_column, map.tile_row AS tile_row, images.tile_data AS tile_data "
+			+ "FROM map JOIN images ON images.tile_id = map.tile_id;";
+	private static final String INDEX_MAP = "CREATE UNIQUE INDEX IF NOT EXISTS map_index ON map (zoom_level, tile_column, tile_row);";
+	private static final String INSERT_MAP_SQL = "INSERT or REPLACE INTO map (tile_column,tile_row,zoom_level,tile_id) VALUES (?,?,?,?)";
+	private static final String INSERT_IMAGE_SQL = "INSERT or IGNORE INTO images (tile_data,tile_id) VALUES (?,?)";
+
+	/**
+	 * Keeps the last inserted entry of tiles contained in more than one map of the atlas
+	 */
+	private static final String DELETE_MAP_DUPLICATES_SQL = "DELETE FROM map WHERE rowid NOT IN "
+			+ "(SELECT max(rowid) FROM map GROUP BY zoom_level, tile_column, tile_row);";
+	private static final String DELETE_UNUSED_IMAGES_SQL = "DELETE FROM images WHERE tile_id NOT IN "
+			+ "(SELECT tile_id FROM map);";
+
+	private static final String TILES_TYPE_SQL = "SELECT type FROM sqlite_master WHERE name = 'tiles';";
+
+	private PreparedStatement imageStmt = null;
+
+	@Override
+	protected void createTileTables(Statement stat) throws SQLException {
+		// An existing MBTiles database with the standard layout has a table "tiles" - the view can not be created and
+		// the tiles written to "map" and "images" would not be visible
+		ResultSet rs = stat.executeQuery(TILES_TYPE_SQL);
+		try {
+			if (rs.next() && !"view".equalsIgnoreCase(rs.getString(1)))
+				throw new SQLException("The existing database \"" + databaseFile
+						+ "\" does not use the deduplicated MBTiles layout");
+		} finally {
+			rs.close();
+		}
+		stat.executeUpdate(TABLE_MAP);
+		stat.executeUpdate(TABLE_IMAGES);
+		// Required while inserting for ignoring already stored images
+		stat.executeUpdate(INDEX_IMAGES);
+		stat.executeUpdate(VIEW_TILES);
+	}
+
+	@Override
+	protected void createIndexes() throws SQLException {
+		Statement stat = conn.createStatement();
+		stat.executeUpdate(DELETE_MAP_DUPLICATES_SQL);
+		// Images may also be unused because their tiles have been replaced in an existing database
+		stat.executeUpdate(DELETE_UNUSED_IMAGES_SQL);
+		stat.executeUpdate(INDEX_MAP);
+		stat.close();
+	}
+
+	@Override
+	protected SQLiteTilePipeline createTilePipeline() throws SQLException {
+		imageStmt = conn.prepareStatement(INSERT_IMAGE_SQL);
+		return new SQLiteTilePipeline(this, mapDlTileProvider, conn, "MD5", prepStmt, imageStmt);
+	}
+
+	@Override
+	protected void createTiles() throws InterruptedException, MapCreationException {
+		try {
+			super.createTiles();
+		} finally {
+			if (imageStmt != null) {
+				try {
+					imageStmt.close();
+				} catch (SQLException e) {
+					log.error("", e);
+				}
+				imageStmt = null;
+			}
+		}
+	}
+
+	@Override
+	protected String getTileInsertSQL() {
+		return INSERT_MAP_SQL;
+	}
+
+	@Override
+	protected void writeTile(int x, int y, int z, byte[] tileData, byte[] tileDigest) throws SQLException {
+		String tileId = Hex.encodeHexString(tileDigest);
+		y = (1 << z) - y - 1;
+		prepStmt.setInt(1, x);
+		prepStmt.setInt(2, y);
+		prepStmt.setInt(3, z);
+		prepStmt.setString(4, tileId);
+		prepStmt.addBatch();
+		imageStmt.setBytes(1, tileData);
+		imageStmt.setString(2, tileId);
+		imageStmt.addBatch();
+	}
+
+}
@@ -111,7 +111,7 @@ public class MagellanRmp extends AtlasCreator {
 			RmpLayer layer = createLayer(layerImage, layerNum);
 			String layerName = RmpTools.buildTileName(imageName, layerNum);
 			TLMEntry tlmEntry = layer.getTLMFile(layerName);
-			rmpWriter.prepareFileEntry(tlmEntry);
+			rmpWriter.prepareFileEntry(tlmEntry, tlmEntry.getContentLength());
 			rmpWriter.writeFileEntry(layer.getA00File(layerName));
 			tlmEntry.updateContent();
 			rmpWriter.writePreparedFileEntry(tlmEntry);
@@ -17,7 +17,6 @@
 package mobac.program.atlascreators;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
@@ -27,12 +26,12 @@ import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
 import mobac.program.atlascreators.impl.MapTileWriter;
+import mobac.program.atlascreators.impl.ParallelTileFileWriter;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.MapInterface;
 import mobac.program.interfaces.MapSource;
 import mobac.program.model.TileImageParameters.Name;
-import mobac.utilities.Utilities;
 
 /**
  * Creates maps identical to the atlas format used by OSMTracker.
@@ -52,6 +51,11 @@ public class OSMTracker extends AtlasCreator {
 
 	protected MapTileWriter mapTileWriter = null;
 
+	/**
+	 * Only available during {@link #createTiles()}
+	 */
+	protected ParallelTileFileWriter tileFileWriter = null;
+
 	@Override
 	public boolean testMapSource(MapSource mapSource) {
 		return MercatorPower2MapSpace.INSTANCE_256.equals(mapSource.getMapSpace());
@@ -79,18 +83,28 @@ public class OSMTracker extends AtlasCreator {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
 		ImageIO.setUseCache(false);
 
-		for (int x = xMin; x <= xMax; x++) {
-			for (int y = yMin; y <= yMax; y++) {
-				checkUserAbort();
-				atlasProgress.incMapCreationProgress();
-				try {
-					byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
-					if (sourceTileData != null)
-						mapTileWriter.writeTile(x, y, tileType, sourceTileData);
-				} catch (IOException e) {
-					throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+		tileFileWriter = new ParallelTileFileWriter();
+		try {
+			for (int x = xMin; x <= xMax; x++) {
+				for (int y = yMin; y <= yMax; y++) {
+					checkUserAbort();
+					atlasProgress.incMapCreationProgress();
+					try {
+						byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
+						if (sourceTileData != null)
+							mapTileWriter.writeTile(x, y, tileType, sourceTileData);
+					} catch (IOException e) {
+						throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+					}
 				}
 			}
+			// Wait until all tile files have been written
+			tileFileWriter.close();
+		} catch (IOException e) {
+			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+		} finally {
+			tileFileWriter.abort();
+			tileFileWriter = null;
 		}
 	}
 
@@ -98,17 +112,11 @@ public class OSMTracker extends AtlasCreator {
 
 		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
 			File file = new File(mapDir, String.format(tileFileNamePattern, zoom, tilex, tiley, tileType));
-			writeTile(file, tileData);
+			writeTile(file, tilex, tiley, tileData);
 		}
 
-		protected void writeTile(File file, byte[] tileData) throws IOException {
-			Utilities.mkDirs(file.getParentFile());
-			FileOutputStream out = new FileOutputStream(file);
-			try {
-				out.write(tileData);
-			} finally {
-				Utilities.closeStream(out);
-			}
+		protected void writeTile(File file, int tilex, int tiley, byte[] tileData) throws IOException {
+			tileFileWriter.writeTile(file, tileData, tilex, tiley);
 		}
 
 		public void finalizeMap() throws IOException {
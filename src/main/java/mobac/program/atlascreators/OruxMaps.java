@@ -31,6 +31,7 @@ import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
 import mobac.program.atlascreators.impl.MapTileBuilder;
 import mobac.program.atlascreators.impl.MapTileWriter;
+import mobac.program.atlascreators.impl.ParallelTileFileWriter;
 import mobac.program.atlascreators.tileprovider.CacheTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.LayerInterface;
@@ -170,13 +171,18 @@ public class OruxMaps extends AtlasCreator {
 	protected void createTiles() throws InterruptedException, MapCreationException {
 
 		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		OruxMapTileWriter tileWriter = new OruxMapTileWriter();
 		try {
 			mapDlTileProvider = ctp;
 
-			OruxMapTileBuilder mapTileBuilder = new OruxMapTileBuilder(this, new OruxMapTileWriter());
+			OruxMapTileBuilder mapTileBuilder = new OruxMapTileBuilder(this, tileWriter);
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
 			mapTileBuilder.createTiles();
+			tileWriter.finalizeMap();
+		} catch (IOException e) {
+			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
 		} finally {
+			tileWriter.tileFileWriter.abort();
 			ctp.cleanup();
 		}
 	}
@@ -299,18 +305,16 @@ public class OruxMaps extends AtlasCreator {
 
 	private class OruxMapTileWriter implements MapTileWriter {
 
+		final ParallelTileFileWriter tileFileWriter = new ParallelTileFileWriter();
+
 		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
 			String tileFileName = String.format("%s_%d_%d.omc2", mapName, tilex, tiley);
-			FileOutputStream out = new FileOutputStream(new File(oruxMapsImagesDir, tileFileName));
-			try {
-				out.write(tileData);
-			} finally {
-				Utilities.closeStream(out);
-			}
+			tileFileWriter.writeTile(new File(oruxMapsImagesDir, tileFileName), tileData, tilex, tiley);
 		}
 
-		public void finalizeMap() {
-			// Nothing to do
+		public void finalizeMap() throws IOException {
+			// Wait until all tile files have been written
+			tileFileWriter.close();
 		}
 
 	}
@@ -52,6 +52,11 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 
 	private String databaseFile;
 
+	/**
+	 * <code>true</code> if the database file of the current layer did not exist before the layer creation started
+	 */
+	private boolean newDatabase;
+
 	private Connection conn = null;
 	private PreparedStatement prepStmt;
 
@@ -87,6 +92,7 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 
 		super.initLayerCreation(layer);
 		databaseFile = new File(oruxMapsMainDir, DATABASE_FILENAME).getAbsolutePath();
+		newDatabase = !new File(databaseFile).exists();
 		log.debug("SQLite Database file: " + databaseFile);
 		otrk2MapsContent = new StringBuilder();
 		try {
@@ -100,6 +106,24 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 
 	}
 
+	/**
+	 * Creates the index after all maps of the layer have been written to the database.
+	 */
+	@Override
+	public void finishLayerCreation() throws IOException {
+		super.finishLayerCreation();
+		try {
+			conn = getConnection();
+			Statement stat = conn.createStatement();
+			stat.executeUpdate(INDEX_DDL);
+			stat.close();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeConnection();
+		}
+	}
+
 	@Override
 	public void finishAtlasCreation() throws IOException, InterruptedException {
 		super.finishAtlasCreation();
@@ -116,6 +140,7 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 	private Connection getConnection() throws SQLException {
 		String url = "jdbc:sqlite:/" + this.databaseFile;
 		Connection conn = DriverManager.getConnection(url);
+		SQLiteLoader.setBulkInsertPragmas(conn, newDatabase);
 		return conn;
 	}
 
@@ -134,7 +159,6 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 
 		Statement stat = conn.createStatement();
 		stat.executeUpdate(TABLE_TILES_DDL);
-		stat.executeUpdate(INDEX_DDL);
 		stat.executeUpdate(TABLE_ANDROID_METADATA_DDL);
 		stat.executeUpdate("INSERT INTO android_metadata VALUES ('" + Locale.getDefault().toString() + "')");
 		stat.close();
@@ -216,7 +240,6 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 			atlasProgress.incMapCreationProgress(tileCounter);
 			tileCounter = 0;
 			conn.commit();
-			System.gc();
 		}
 
 		public void finalizeMap() throws IOException {
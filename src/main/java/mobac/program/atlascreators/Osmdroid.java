@@ -29,8 +29,7 @@ import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.AtlasInterface;
 import mobac.program.interfaces.MapInterface;
 import mobac.program.model.Settings;
-import mobac.utilities.Utilities;
-import mobac.utilities.stream.ZipStoreOutputStream;
+import mobac.utilities.stream.ParallelZipWriter;
 
 /**
  * 
@@ -39,7 +38,7 @@ import mobac.utilities.stream.ZipStoreOutputStream;
 @AtlasCreatorName("Osmdroid ZIP")
 public class Osmdroid extends OSMTracker {
 
-	protected ZipStoreOutputStream zipStream = null;
+	protected ParallelZipWriter zipStream = null;
 	protected String currentMapStoreName = null;
 
 	public void createMap() throws MapCreationException, InterruptedException {
@@ -54,19 +53,21 @@ public class Osmdroid extends OSMTracker {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd_HHmmss");
 		String atlasDirName = atlas.getName() + "_" + sdf.format(new Date());
 		super.startAtlasCreation(atlas, customAtlasDir);
-		zipStream = new ZipStoreOutputStream(new File(atlasDir, atlasDirName + ".zip"));
+		zipStream = new ParallelZipWriter(new File(atlasDir, atlasDirName + ".zip"));
 		mapTileWriter = new OSMDroidTileWriter();
 	}
 
 	@Override
 	public void abortAtlasCreation() throws IOException {
-		Utilities.closeStream(zipStream);
+		if (zipStream != null)
+			zipStream.abort();
 		super.abortAtlasCreation();
 	}
 
 	@Override
 	public void finishAtlasCreation() throws IOException, InterruptedException {
-		Utilities.closeStream(zipStream);
+		if (zipStream != null)
+			zipStream.close();
 		super.finishAtlasCreation();
 	}
 
@@ -21,16 +21,26 @@ package mobac.program.atlascreators;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
 
+import mobac.exceptions.AtlasTestException;
+import mobac.exceptions.MapCreationException;
 import mobac.program.annotations.AtlasCreatorName;
+import mobac.program.atlascreators.impl.MapTileWriter;
 import mobac.program.atlascreators.impl.gemf.GEMFFileCreator;
+import mobac.program.atlascreators.impl.gemf.GEMFFileCreator.GEMFRange;
+import mobac.program.atlascreators.tileprovider.TileProvider;
+import mobac.program.interfaces.AtlasInterface;
+import mobac.program.interfaces.LayerInterface;
+import mobac.program.interfaces.MapInterface;
 
 /**
  * AtlasCreator implementation to create a GEMF archive file. For details about the format, please see the link in
  * {@link GEMFFileCreator}.
  * 
+ * The tile ranges of all maps are registered before the atlas creation starts, therefore the tiles can be written
+ * directly into the archive without using a temporary tile directory.
+ * 
  * @author M. Reiter
  * 
  */
@@ -39,16 +49,65 @@ public class OsmdroidGEMF extends OSMTracker {
 
 	private static final String GEMF_FILE_EXTENSION = ".gemf";
 
+	private GEMFFileCreator gemfCreator = null;
+
+	private HashMap<MapInterface, GEMFRange> mapRanges = null;
+
+	private GEMFRange currentRange = null;
+
 	@Override
-	public void finishAtlasCreation() throws IOException, InterruptedException {
-		List<File> tileFolders = new LinkedList<File>();
-		tileFolders.add(mapDir);
+	public void startAtlasCreation(AtlasInterface atlas, File customAtlasDir) throws AtlasTestException, IOException,
+			InterruptedException {
+		super.startAtlasCreation(atlas, customAtlasDir);
+		gemfCreator = new GEMFFileCreator(new File(atlasDir, atlas.getName() + GEMF_FILE_EXTENSION));
+		mapRanges = new HashMap<MapInterface, GEMFRange>();
+		for (LayerInterface layer : atlas) {
+			for (MapInterface map : layer) {
+				int tileSize = map.getMapSource().getMapSpace().getTileSize();
+				GEMFRange range = gemfCreator.addRange(map.getMapSource().getName(), map.getZoom(),
+						map.getMinTileCoordinate().x / tileSize, map.getMaxTileCoordinate().x / tileSize,
+						map.getMinTileCoordinate().y / tileSize, map.getMaxTileCoordinate().y / tileSize);
+				mapRanges.put(map, range);
+			}
+		}
+		gemfCreator.open();
+	}
 
-		String gemfLocation = new File(atlasDir, atlas.getName() + GEMF_FILE_EXTENSION).toString();
+	@Override
+	public void initializeMap(MapInterface map, TileProvider mapTileProvider) {
+		super.initializeMap(map, mapTileProvider);
+		currentRange = mapRanges.get(map);
+	}
 
-		new GEMFFileCreator(gemfLocation, tileFolders, log);
+	@Override
+	public void createMap() throws MapCreationException, InterruptedException {
+		if (mapTileWriter == null)
+			mapTileWriter = new GEMFTileWriter();
+		createTiles();
+	}
 
+	@Override
+	public void finishAtlasCreation() throws IOException, InterruptedException {
+		gemfCreator.close();
 		super.finishAtlasCreation();
 	}
 
-}
\ No newline at end of file
+	@Override
+	public void abortAtlasCreation() throws IOException {
+		if (gemfCreator != null)
+			gemfCreator.abort();
+		super.abortAtlasCreation();
+	}
+
+	protected class GEMFTileWriter implements MapTileWriter {
+
+		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
+			gemfCreator.writeTile(currentRange, tilex, tiley, tileData);
+		}
+
+		public void finalizeMap() throws IOException {
+			// Nothing to do
+		}
+
+	}
+}
@@ -30,6 +30,7 @@ import mobac.exceptions.AtlasTestException;
 import mobac.exceptions.MapCreationException;
 import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
+import mobac.program.atlascreators.impl.SQLiteTilePipeline;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.AtlasInterface;
@@ -70,7 +71,9 @@ public class OsmdroidSQLite extends AtlasCreator implements RequiresSQLite {
 			throw new AtlasTestException(SQLiteLoader.getMsgSqliteMissing());
 		}
 		try {
+			boolean newDatabase = !new File(databaseFile).exists();
 			conn = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+			SQLiteLoader.setBulkInsertPragmas(conn, newDatabase);
 			Statement stat = conn.createStatement();
 			stat.executeUpdate("CREATE TABLE IF NOT EXISTS tiles (key INTEGER PRIMARY KEY, provider TEXT, tile BLOB)");
 			stat.close();
@@ -90,51 +93,29 @@ public class OsmdroidSQLite extends AtlasCreator implements RequiresSQLite {
 	@Override
 	public void createMap() throws MapCreationException, InterruptedException {
 		try {
-			String provider = map.getMapSource().getName();
+			final String provider = map.getMapSource().getName();
 			int maxMapProgress = 2 * (xMax - xMin + 1) * (yMax - yMin + 1);
 			atlasProgress.initMapCreation(maxMapProgress);
-			conn.setAutoCommit(false);
-			int batchTileCount = 0;
 
 			ImageIO.setUseCache(false);
-			PreparedStatement prep = conn.prepareStatement("INSERT or REPLACE INTO tiles VALUES (?, ?, ?);");
-			Runtime r = Runtime.getRuntime();
-			long heapMaxSize = r.maxMemory();
-
-			for (long x = xMin; x <= xMax; x++)
-				for (long y = yMin; y <= yMax; y++) {
-					checkUserAbort();
-					atlasProgress.incMapCreationProgress();
-					byte[] sourceTileData = mapDlTileProvider.getTileData((int) x, (int) y);
-					if (sourceTileData != null) {
-						long z = zoom;
-						long index = (((z << z) + x) << z) + y;
-						prep.setLong(1, index);
-						prep.setString(2, provider);
-						prep.setBytes(3, sourceTileData);
-						prep.addBatch();
-
-						long heapAvailable = heapMaxSize - r.totalMemory() + r.freeMemory();
-
-						if ((heapAvailable < HEAP_MIN) || (batchTileCount >= MAX_BATCH_SIZE)) {
-							log.trace("Executing batch containing " + batchTileCount + " tiles");
-							prep.executeBatch();
-							prep.clearBatch();
-							System.gc();
-							conn.commit();
-							atlasProgress.incMapCreationProgress(batchTileCount);
-							batchTileCount = 0;
-						}
-
-					}
+			final PreparedStatement prep = conn.prepareStatement("INSERT or REPLACE INTO tiles VALUES (?, ?, ?);");
+			SQLiteTilePipeline pipeline = new SQLiteTilePipeline(this, mapDlTileProvider, conn, prep);
+			pipeline.writeTiles(new SQLiteTilePipeline.TileBinder() {
+
+				public void bindTile(int x, int y, byte[] tileData, byte[] tileDigest) throws SQLException {
+					long z = zoom;
+					long index = (((z << z) + x) << z) + y;
+					prep.setLong(1, index);
+					prep.setString(2, provider);
+					prep.setBytes(3, tileData);
+					prep.addBatch();
 				}
-			prep.executeBatch();
+			});
+			prep.close();
 			conn.setAutoCommit(true);
 			atlasProgress.setMapCreationProgress(maxMapProgress);
 		} catch (SQLException e) {
 			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
-		} catch (IOException e) {
-			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
 		}
 	}
 
@@ -197,7 +197,8 @@ public class Ozi extends AtlasCreator {
 
 	/**
 	 * Writes the large picture (tile) line by line. Each line has the full width of the map and the height of one tile
-	 * (256 pixels).
+	 * (256 pixels). The same line image is reused for all lines, therefore the required memory depends only on the
+	 * width of the map.
 	 */
 	protected void createTiles() throws InterruptedException, MapCreationException {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
@@ -213,8 +214,8 @@ public class Ozi extends AtlasCreator {
 			fileOs = new FileOutputStream(new File(layerDir, mapName + ".png"));
 			PngXxlWriter pngWriter = new PngXxlWriter(width, height, fileOs);
 
+			BufferedImage lineImage = new BufferedImage(width, tileLineHeight, BufferedImage.TYPE_INT_RGB);
 			for (int y = yMin; y <= yMax; y++) {
-				BufferedImage lineImage = new BufferedImage(width, tileLineHeight, BufferedImage.TYPE_INT_RGB);
 				Graphics2D graphics = lineImage.createGraphics();
 				try {
 					graphics.setColor(backgroundColor);
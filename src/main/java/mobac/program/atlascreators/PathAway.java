@@ -81,7 +81,7 @@ public class PathAway extends OSMTracker {
 		@Override
 		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
 			File file = new File(mapDir, String.format(tileFileNamePattern, 17 - zoom, tilex, tiley, tileType));
-			writeTile(file, tileData);
+			writeTile(file, tilex, tiley, tileData);
 		}
 
 	}
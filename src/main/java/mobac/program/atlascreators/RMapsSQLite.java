@@ -106,7 +106,6 @@ public class RMapsSQLite extends AbstractSQLite {
 	protected void initializeDB() throws SQLException {
 		Statement stat = conn.createStatement();
 		stat.executeUpdate(TABLE_DDL);
-		stat.executeUpdate(INDEX_DDL);
 		createInfoTable(stat);
 
 		stat.executeUpdate("CREATE TABLE IF NOT EXISTS android_metadata (locale TEXT)");
@@ -117,6 +116,13 @@ public class RMapsSQLite extends AbstractSQLite {
 		stat.close();
 	}
 
+	@Override
+	protected void createIndexes() throws SQLException {
+		Statement stat = conn.createStatement();
+		stat.executeUpdate(INDEX_DDL);
+		stat.close();
+	}
+
 	protected void createInfoTable(Statement stat) throws SQLException {
 		stat.executeUpdate(RMAPS_TABLE_INFO_DDL);
 	}
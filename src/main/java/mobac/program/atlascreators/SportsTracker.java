@@ -17,7 +17,6 @@
 package mobac.program.atlascreators;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
@@ -27,6 +26,7 @@ import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
 import mobac.program.atlascreators.impl.MapTileWriter;
+import mobac.program.atlascreators.impl.ParallelTileFileWriter;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.LayerInterface;
@@ -34,7 +34,6 @@ import mobac.program.interfaces.MapInterface;
 import mobac.program.interfaces.MapSource;
 import mobac.program.model.TileImageParameters;
 import mobac.program.model.TileImageParameters.Name;
-import mobac.utilities.Utilities;
 
 /**
  * [Nokia] Sports Tracker
@@ -51,6 +50,11 @@ public class SportsTracker extends AtlasCreator {
 
 	protected String tileType = null;
 
+	/**
+	 * Only available during {@link #createTiles()}
+	 */
+	protected ParallelTileFileWriter tileFileWriter = null;
+
 	@Override
 	public boolean testMapSource(MapSource mapSource) {
 		return MercatorPower2MapSpace.INSTANCE_256.equals(mapSource.getMapSpace());
@@ -83,18 +87,28 @@ public class SportsTracker extends AtlasCreator {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
 		ImageIO.setUseCache(false);
 
-		for (int x = xMin; x <= xMax; x++) {
-			for (int y = yMin; y <= yMax; y++) {
-				checkUserAbort();
-				atlasProgress.incMapCreationProgress();
-				try {
-					byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
-					if (sourceTileData != null)
-						writeTile(x, y, sourceTileData);
-				} catch (IOException e) {
-					throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+		tileFileWriter = new ParallelTileFileWriter();
+		try {
+			for (int x = xMin; x <= xMax; x++) {
+				for (int y = yMin; y <= yMax; y++) {
+					checkUserAbort();
+					atlasProgress.incMapCreationProgress();
+					try {
+						byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
+						if (sourceTileData != null)
+							writeTile(x, y, sourceTileData);
+					} catch (IOException e) {
+						throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+					}
 				}
 			}
+			// Wait until all tile files have been written
+			tileFileWriter.close();
+		} catch (IOException e) {
+			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+		} finally {
+			tileFileWriter.abort();
+			tileFileWriter = null;
 		}
 	}
 
@@ -114,17 +128,7 @@ public class SportsTracker extends AtlasCreator {
 		// see https://sourceforge.net/tracker/?func=detail&atid=1105497&aid=3066161&group_id=238075
 		String fileName = tileName + ".jpg";
 		File file = new File(tileDir, fileName);
-		writeTile(file, tileData);
-	}
-
-	protected void writeTile(File file, byte[] tileData) throws IOException {
-		Utilities.mkDirs(file.getParentFile());
-		FileOutputStream out = new FileOutputStream(file);
-		try {
-			out.write(tileData);
-		} finally {
-			Utilities.closeStream(out);
-		}
+		tileFileWriter.writeTile(file, tileData, tilex, tiley);
 	}
 
 	protected static final char[] NUM_CHAR = { 'q', 'r', 't', 's' };
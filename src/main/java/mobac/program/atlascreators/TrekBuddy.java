@@ -35,6 +35,7 @@ import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
 import mobac.program.atlascreators.impl.MapTileBuilder;
 import mobac.program.atlascreators.impl.MapTileWriter;
+import mobac.program.atlascreators.impl.ParallelTileFileWriter;
 import mobac.program.atlascreators.tileprovider.CacheTileProvider;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.AtlasInterface;
@@ -140,6 +141,9 @@ public class TrekBuddy extends AtlasCreator {
 			throw e;
 		} catch (Exception e) {
 			throw new MapCreationException(map, e);
+		} finally {
+			if (mapTileWriter instanceof FileTileWriter)
+				((FileTileWriter) mapTileWriter).abort();
 		}
 	}
 
@@ -207,6 +211,7 @@ public class TrekBuddy extends AtlasCreator {
 
 		File setFolder;
 		Writer setFileWriter;
+		ParallelTileFileWriter tileFileWriter = new ParallelTileFileWriter();
 
 		int tileHeight = 256;
 		int tileWidth = 256;
@@ -234,22 +239,28 @@ public class TrekBuddy extends AtlasCreator {
 					imageFormat);
 
 			File f = new File(setFolder, tileFileName);
-			FileOutputStream out = new FileOutputStream(f);
 			setFileWriter.write(tileFileName + "\r\n");
-			try {
-				out.write(tileData);
-			} finally {
-				Utilities.closeStream(out);
-			}
+			tileFileWriter.writeTile(f, tileData, tilex, tiley);
 		}
 
-		public void finalizeMap() {
+		public void finalizeMap() throws IOException {
 			try {
 				setFileWriter.flush();
 			} catch (IOException e) {
 				log.error("", e);
 			}
 			Utilities.closeWriter(setFileWriter);
+			// Wait until all tile files have been written
+			tileFileWriter.close();
+		}
+
+		/**
+		 * Closes the set file and discards the tile files not yet written. Has no effect after
+		 * {@link #finalizeMap()}.
+		 */
+		public void abort() {
+			Utilities.closeWriter(setFileWriter);
+			tileFileWriter.abort();
 		}
 	}
 
@@ -30,9 +30,9 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Locale;
@@ -44,6 +44,7 @@ import mobac.exceptions.MapCreationException;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.annotations.AtlasCreatorName;
 import mobac.program.annotations.SupportedParameters;
+import mobac.program.atlascreators.impl.OffsetTableFileWriter;
 import mobac.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import mobac.program.interfaces.LayerInterface;
 import mobac.program.interfaces.MapInterface;
@@ -86,39 +87,44 @@ public class TwoNavRMAP extends AtlasCreator {
 		private boolean dl = false;
 
 		private void writeHeader() throws IOException {
-			if (offset == 0) {
-				offset = rmapFile.getFilePointer();
-			} else {
-				rmapFile.seek(offset);
+			boolean append = (offset == 0);
+			if (append) {
+				offset = rmapFile.getPosition();
 			}
 			log.trace(String.format("Writing ZoomLevel %d (%dx%d pixels, %dx%d tiles) header at offset %d", index,
 					width, height, xTiles, yTiles, offset));
-			rmapFile.writeIntI(width);
-			rmapFile.writeIntI(-height);
-			rmapFile.writeIntI(xTiles);
-			rmapFile.writeIntI(yTiles);
+			ByteBuffer header = rmapFile.allocate(16 + xTiles * yTiles * 8);
+			header.putInt(width);
+			header.putInt(-height);
+			header.putInt(xTiles);
+			header.putInt(yTiles);
 			if (jpegOffsets == null) {
 				jpegOffsets = new long[xTiles][yTiles];
 			}
 			for (int y = 0; y < yTiles; y++) {
 				for (int x = 0; x < xTiles; x++) {
-					rmapFile.writeLongI(jpegOffsets[x][y]);
+					header.putLong(jpegOffsets[x][y]);
 				}
 			}
+			header.flip();
+			if (append) {
+				rmapFile.write(header);
+			} else {
+				rmapFile.writeAt(offset, header);
+			}
 		}
 
 		private BufferedImage loadJpegAtOffset(long offset) throws IOException {
 			if (offset == 0) {
 				throw new IOException("offset == 0");
 			}
-			rmapFile.seek(offset);
-			int TagId = rmapFile.readIntI();
+			ByteBuffer tag = ByteBuffer.wrap(rmapFile.read(offset, 8)).order(ByteOrder.LITTLE_ENDIAN);
+			int TagId = tag.getInt();
 			if (TagId != 7) {
 				throw new IOException("TagId != 7");
 			}
-			int TagLen = rmapFile.readIntI();
-			byte[] jpegImageBuf = new byte[TagLen];
-			rmapFile.readFully(jpegImageBuf);
+			int TagLen = tag.getInt();
+			byte[] jpegImageBuf = rmapFile.read(offset + 8, TagLen);
 			ByteArrayInputStream input = new ByteArrayInputStream(jpegImageBuf);
 			return ImageIO.read(input);
 		}
@@ -165,13 +171,12 @@ public class TwoNavRMAP extends AtlasCreator {
 					for (int y = 0; y < yTiles; y++) {
 						checkUserAbort();
 						atlasProgress.incMapCreationProgress();
-						jpegOffsets[x][y] = rmapFile.getFilePointer();
 						byte[] tileData = getTileData(writer, source, 2 * x, 2 * y);
-						rmapFile.seek(jpegOffsets[x][y]);
+						jpegOffsets[x][y] = rmapFile.getPosition();
 						log.trace(String.format("Writing shrunken jpeg (%d,%d,%d) at offset %d", index, x, y,
 								jpegOffsets[x][y]));
-						rmapFile.writeIntI(7);
-						rmapFile.writeIntI(tileData.length);
+						rmapFile.writeInt(7);
+						rmapFile.writeInt(tileData.length);
 						rmapFile.write(tileData);
 						tileData = null;
 					}
@@ -182,7 +187,7 @@ public class TwoNavRMAP extends AtlasCreator {
 		}
 	}
 
-	private class RmapFile extends RandomAccessFile {
+	private class RmapFile extends OffsetTableFileWriter {
 
 		private String name = "";
 		private int width = 0;
@@ -196,70 +201,44 @@ public class TwoNavRMAP extends AtlasCreator {
 		private long mapDataOffset = 0;
 		private ZoomLevel zoomLevels[] = null;
 
-		private RmapFile(File file) throws FileNotFoundException {
-			super(file, "rw");
+		private RmapFile(File file) throws IOException {
+			super(file, ByteOrder.LITTLE_ENDIAN);
 			this.name = file.getName();
 		}
 
-		private int readIntI() throws IOException {
-			int ch1 = this.read();
-			int ch2 = this.read();
-			int ch3 = this.read();
-			int ch4 = this.read();
-			if ((ch1 | ch2 | ch3 | ch4) < 0) {
-				throw new IOException();
-			}
-			return ((ch4 << 24) + (ch3 << 16) + (ch2 << 8) + (ch1 << 0));
-		}
-
-		private void writeIntI(int i) throws IOException {
-			write((i >>> 0) & 0xFF);
-			write((i >>> 8) & 0xFF);
-			write((i >>> 16) & 0xFF);
-			write((i >>> 24) & 0xFF);
-		}
-
-		private void writeLongI(long l) throws IOException {
-			write((int) (l >>> 0) & 0xFF);
-			write((int) (l >>> 8) & 0xFF);
-			write((int) (l >>> 16) & 0xFF);
-			write((int) (l >>> 24) & 0xFF);
-			write((int) (l >>> 32) & 0xFF);
-			write((int) (l >>> 40) & 0xFF);
-			write((int) (l >>> 48) & 0xFF);
-			write((int) (l >>> 56) & 0xFF);
-		}
-
 		private void writeHeader() throws IOException {
 			log.trace("Writing rmap header");
 			if (zoomLevels == null) {
 				throw new IOException("zoomLevels == null");
 			}
-			seek(0);
-			write("CompeGPSRasterImage".getBytes());
-			writeIntI(10);
-			writeIntI(7);
-			writeIntI(0);
-			writeIntI(width);
-			writeIntI(-height);
-			writeIntI(24);
-			writeIntI(1);
-			writeIntI(tileWidth);
-			writeIntI(tileHeight);
-			writeLongI(mapDataOffset);
-			writeIntI(0);
-			writeIntI(zoomLevels.length);
+			byte[] magic = "CompeGPSRasterImage".getBytes();
+			ByteBuffer header = allocate(magic.length + 11 * 4 + 8 + zoomLevels.length * 8);
+			header.put(magic);
+			header.putInt(10);
+			header.putInt(7);
+			header.putInt(0);
+			header.putInt(width);
+			header.putInt(-height);
+			header.putInt(24);
+			header.putInt(1);
+			header.putInt(tileWidth);
+			header.putInt(tileHeight);
+			header.putLong(mapDataOffset);
+			header.putInt(0);
+			header.putInt(zoomLevels.length);
 			for (int n = 0; n < zoomLevels.length; n++) {
-				writeLongI(zoomLevels[n].offset);
+				header.putLong(zoomLevels[n].offset);
+			}
+			header.flip();
+			if (getPosition() == 0) {
+				write(header);
+			} else {
+				writeAt(0, header);
 			}
 		}
 
 		private void writeMapInfo() throws IOException {
-			if (mapDataOffset == 0) {
-				mapDataOffset = getFilePointer();
-			} else {
-				seek(mapDataOffset);
-			}
+			mapDataOffset = getPosition();
 			log.trace("Writing MAP data at offset %d" + mapDataOffset);
 			StringBuffer sbMap = new StringBuffer();
 			sbMap.append("CompeGPS MAP File\r\n");
@@ -294,8 +273,8 @@ public class TwoNavRMAP extends AtlasCreator {
 			sbMap.append(String.format(polyLine, 2, width, height));
 			sbMap.append(String.format(polyLine, 3, 0, height));
 			sbMap.append("</MainPolygonBitmap>\r\n");
-			writeIntI(1);
-			writeIntI(sbMap.length());
+			writeInt(1);
+			writeInt(sbMap.length());
 			write(sbMap.toString().getBytes());
 		}
 	}
@@ -480,17 +459,17 @@ public class TwoNavRMAP extends AtlasCreator {
 					atlasProgress.incMapCreationProgress();
 					try {
 						// Remember offset to tile
-						rmapFile.zoomLevels[index].jpegOffsets[tilex][tiley] = rmapFile.getFilePointer();
+						rmapFile.zoomLevels[index].jpegOffsets[tilex][tiley] = rmapFile.getPosition();
 						byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
 						if (sourceTileData != null) {
-							rmapFile.writeIntI(7);
-							rmapFile.writeIntI(sourceTileData.length);
+							rmapFile.writeInt(7);
+							rmapFile.writeInt(sourceTileData.length);
 							rmapFile.write(sourceTileData);
 						} else {
 							log.trace(String.format("Tile x=%d y=%d not found in tile archive - creating default",
 									tilex, tiley));
-							rmapFile.writeIntI(7);
-							rmapFile.writeIntI(emptyTileData.length);
+							rmapFile.writeInt(7);
+							rmapFile.writeInt(emptyTileData.length);
 							rmapFile.write(emptyTileData);
 						}
 					} catch (IOException e) {
@@ -510,11 +489,9 @@ public class TwoNavRMAP extends AtlasCreator {
 
 	@Override
 	public void abortAtlasCreation() throws IOException {
-		try {
-			rmapFile.setLength(0);
-		} finally {
-			Utilities.closeFile(rmapFile);
-		}
+		if (rmapFile != null)
+			rmapFile.abort();
+		rmapFile = null;
 		super.abortAtlasCreation();
 	}
 
@@ -20,16 +20,28 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
 import mobac.exceptions.MapCreationException;
+import mobac.gui.AtlasProgress;
 import mobac.program.atlascreators.AtlasCreator;
 import mobac.program.atlascreators.tileprovider.TileProvider;
 import mobac.program.interfaces.MapInterface;
 import mobac.program.interfaces.MapSource;
 import mobac.program.interfaces.TileImageDataWriter;
+import mobac.program.model.Settings;
 import mobac.program.model.TileImageParameters;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
 import mobac.utilities.MyMath;
 
 import org.apache.log4j.Logger;
@@ -65,6 +77,8 @@ public class MapTileBuilder {
 
 	protected final MapTileWriter mapTileWriter;
 
+	private TileImageCache tileImageCache;
+
 	/**
 	 * @param atlasCreator
 	 * @param mapTileWriter
@@ -130,6 +144,14 @@ public class MapTileBuilder {
 		customTileCount = MyMath.divCeil(mergedWidth, realWidth) * MyMath.divCeil(mergedHeight, realHeight);
 	}
 
+	/**
+	 * Creates all custom tiles of the map. Composition and encoding of the custom tiles is performed in parallel by
+	 * one worker per available CPU core. The encoded tiles are passed to the {@link MapTileWriter} on the calling
+	 * thread in the original (row by row) order, therefore the {@link MapTileWriter} does not have to be thread-safe.
+	 * 
+	 * @throws MapCreationException
+	 * @throws InterruptedException
+	 */
 	public void createTiles() throws MapCreationException, InterruptedException {
 
 		// Absolute positions
@@ -143,8 +165,21 @@ public class MapTileBuilder {
 		// We don't work with large images, therefore we can disable the (file)
 		// cache of ImageIO. This will speed up the creation process a bit
 		ImageIO.setUseCache(false);
-		ByteArrayOutputStream buf = new ByteArrayOutputStream(32768);
-		tileImageDataWriter.initialize();
+		tileImageCache = new TileImageCache(mapDlTileProvider, tileSize,
+				Settings.getInstance().atlasTileImageCacheSize * 1024L * 1024L);
+
+		int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), customTileCount));
+		log.debug("Creating " + customTileCount + " custom tiles using " + threadCount + " threads");
+		final BlockingQueue<TileComposer> composers = new ArrayBlockingQueue<TileComposer>(threadCount);
+		composers.add(new TileComposer(tileImageDataWriter));
+		for (int i = 1; i < threadCount; i++)
+			composers.add(new TileComposer(tileImageDataWriter.newInstance()));
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+				DelayedInterruptThread.createThreadFactory());
+		// Encoded tiles waiting for being written in creation order
+		LinkedList<PendingTile> pendingTiles = new LinkedList<PendingTile>();
+		int maxPendingTiles = threadCount * 2;
+		int customTileIndex = 0;
 		int currentTileHeight = realHeight;
 		int currentTileWidth = realWidth;
 		try {
@@ -159,20 +194,26 @@ public class MapTileBuilder {
 					if (useRealTileSize)
 						currentTileWidth = Math.min(realWidth, xEnd - xAbsPos + 1);
 					atlasCreator.checkUserAbort();
-					atlasCreator.getAtlasProgress().incMapCreationProgress();
-					BufferedImage tileImage = new BufferedImage(currentTileWidth, currentTileHeight,
-							BufferedImage.TYPE_3BYTE_BGR);
-					buf.reset();
-					try {
-						Graphics2D graphics = tileImage.createGraphics();
-						prepareTile(graphics);
-						paintCustomTile(graphics, xAbsPos, yAbsPos);
-						graphics.dispose();
-						tileImageDataWriter.processImage(tileImage, buf);
-						mapTileWriter.writeTile(tilex, tiley, tileType, buf.toByteArray());
-					} catch (IOException e) {
-						throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
-					}
+					final int tileWidth = currentTileWidth;
+					final int tileHeight = currentTileHeight;
+					final int x = xAbsPos;
+					final int y = yAbsPos;
+					Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+
+						public byte[] call() throws Exception {
+							TileComposer composer = composers.take();
+							try {
+								return composer.createTile(tileWidth, tileHeight, x, y);
+							} finally {
+								composers.add(composer);
+							}
+						}
+					});
+					pendingTiles.add(new PendingTile(tilex, tiley, future));
+					// Load the original tiles required by the custom tile next to the end of the pending window
+					prefetchCustomTile(++customTileIndex + maxPendingTiles);
+					if (pendingTiles.size() >= maxPendingTiles)
+						writePendingTile(pendingTiles.removeFirst(), tileType);
 
 					tilex++;
 					xAbsPos += realWidth;
@@ -180,8 +221,48 @@ public class MapTileBuilder {
 				tiley++;
 				yAbsPos += realHeight;
 			}
+			while (!pendingTiles.isEmpty()) {
+				atlasCreator.checkUserAbort();
+				writePendingTile(pendingTiles.removeFirst(), tileType);
+			}
 		} finally {
-			tileImageDataWriter.dispose();
+			for (PendingTile pendingTile : pendingTiles)
+				pendingTile.future.cancel(true);
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				// Aborted - the cleanup below has to be performed anyway
+				Thread.currentThread().interrupt();
+			}
+			for (TileComposer composer : composers)
+				composer.dispose();
+			atlasCreator.getAtlasProgress().setTileImageCacheStatistics(tileImageCache.getHits(),
+					tileImageCache.getMisses());
+			tileImageCache.close();
+		}
+	}
+
+	private void writePendingTile(PendingTile pendingTile, String tileType) throws MapCreationException,
+			InterruptedException {
+		byte[] tileData;
+		try {
+			tileData = pendingTile.future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof MapCreationException)
+				throw (MapCreationException) cause;
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			throw new MapCreationException("Error writing tile image: " + cause.getMessage(), map, cause);
+		}
+		AtlasProgress atlasProgress = atlasCreator.getAtlasProgress();
+		atlasProgress.setTileImageCacheStatistics(tileImageCache.getHits(), tileImageCache.getMisses());
+		atlasProgress.incMapCreationProgress();
+		try {
+			mapTileWriter.writeTile(pendingTile.tilex, pendingTile.tiley, tileType, tileData);
+		} catch (IOException e) {
+			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
 		}
 	}
 
@@ -228,41 +309,70 @@ public class MapTileBuilder {
 		return customTileCount;
 	}
 
+	private BufferedImage loadOriginalMapTile(int xTile, int yTile) throws Exception {
+		return tileImageCache.getTileImage(xTile, yTile);
+	}
+
 	/**
-	 * A simple local cache holding the last 10 loaded original tiles. If the custom tile size is smaller than 256x256
-	 * the efficiency of this cache is very high (~ 75% hit rate).
+	 * Requests the original tiles required for the custom tile with the specified index (in creation order) to be
+	 * loaded in advance.
+	 * 
+	 * @param customTileIndex
 	 */
-	private CachedTile[] cache = new CachedTile[10];
-	private int cachePos = 0;
+	private void prefetchCustomTile(int customTileIndex) {
+		if (customTileIndex >= customTileCount)
+			return;
+		int customTileColumns = MyMath.divCeil(mergedWidth, realWidth);
+		int xAbsPos = xStart + (customTileIndex % customTileColumns) * realWidth;
+		int yAbsPos = yStart + (customTileIndex / customTileColumns) * realHeight;
+		int xTileMax = Math.min(xMax, (xAbsPos + realWidth - 1) / tileSize);
+		int yTileMax = Math.min(yMax, (yAbsPos + realHeight - 1) / tileSize);
+		for (int yTile = yAbsPos / tileSize; yTile <= yTileMax; yTile++)
+			for (int xTile = xAbsPos / tileSize; xTile <= xTileMax; xTile++)
+				tileImageCache.prefetch(xTile, yTile);
+	}
 
-	private BufferedImage loadOriginalMapTile(int xTile, int yTile) throws Exception {
-		for (CachedTile ct : cache) {
-			if (ct == null)
-				continue;
-			if (ct.xTile == xTile && ct.yTile == yTile) {
-				// log.trace("cache hit");
-				return ct.image;
+	/**
+	 * Worker state for creating custom tiles: each worker owns its own {@link TileImageDataWriter} and output buffer.
+	 */
+	private class TileComposer {
+
+		private final TileImageDataWriter writer;
+		private final ByteArrayOutputStream buf = new ByteArrayOutputStream(32768);
+
+		public TileComposer(TileImageDataWriter writer) {
+			this.writer = writer;
+			writer.initialize();
+		}
+
+		public byte[] createTile(int tileWidth, int tileHeight, int xAbsPos, int yAbsPos) throws IOException {
+			BufferedImage tileImage = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_3BYTE_BGR);
+			buf.reset();
+			Graphics2D graphics = tileImage.createGraphics();
+			try {
+				prepareTile(graphics);
+				paintCustomTile(graphics, xAbsPos, yAbsPos);
+			} finally {
+				graphics.dispose();
 			}
+			writer.processImage(tileImage, buf);
+			return buf.toByteArray();
+		}
+
+		public void dispose() {
+			writer.dispose();
 		}
-		// log.trace("cache miss");
-		BufferedImage image = mapDlTileProvider.getTileImage(xTile, yTile);
-		if (image == null)
-			return null;
-		cache[cachePos] = new CachedTile(image, xTile, yTile);
-		cachePos = (cachePos + 1) % cache.length;
-		return image;
 	}
 
-	private static class CachedTile {
-		BufferedImage image;
-		int xTile;
-		int yTile;
+	private static class PendingTile {
+		final int tilex;
+		final int tiley;
+		final Future<byte[]> future;
 
-		public CachedTile(BufferedImage image, int tile, int tile2) {
-			super();
-			this.image = image;
-			xTile = tile;
-			yTile = tile2;
+		public PendingTile(int tilex, int tiley, Future<byte[]> future) {
+			this.tilex = tilex;
+			this.tiley = tiley;
+			this.future = future;
 		}
 	}
 }
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.atlascreators.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import mobac.utilities.Utilities;
+
+/**
+ * Writer for file formats consisting of a header and an offset table (index) followed by the tile data area.
+ * 
+ * <p>
+ * The tile data is appended sequentially through a large buffer. Header and index are usually complete only after all
+ * tiles have been written. Therefore their region can be reserved via {@link #skip(long)} and written later in one
+ * positional write via {@link #writeAt(long, ByteBuffer)}. Positional writes do not affect the append position.
+ * </p>
+ * 
+ * All numbers are written in the byte order specified in the constructor.
+ */
+public class OffsetTableFileWriter {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteOrder byteOrder;
+	private final ByteBuffer buffer;
+
+	/**
+	 * File position of the first byte in {@link #buffer}
+	 */
+	private long bufferPosition = 0;
+
+	/**
+	 * Creates the file - existing content is deleted.
+	 */
+	public OffsetTableFileWriter(File file, ByteOrder byteOrder) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+		this.byteOrder = byteOrder;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(byteOrder);
+	}
+
+	/**
+	 * @return the file position the next appended byte will be written to
+	 */
+	public long getPosition() {
+		return bufferPosition + buffer.position();
+	}
+
+	/**
+	 * Advances the append position without writing anything. The skipped region can be filled later via
+	 * {@link #writeAt(long, ByteBuffer)}.
+	 */
+	public void skip(long length) throws IOException {
+		flush();
+		bufferPosition += length;
+	}
+
+	/**
+	 * @return a new heap buffer using the byte order of this writer, e.g. for assembling an index table
+	 */
+	public ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(byteOrder);
+	}
+
+	public void writeInt(int v) throws IOException {
+		ensureCapacity(4);
+		buffer.putInt(v);
+	}
+
+	public void writeLong(long v) throws IOException {
+		ensureCapacity(8);
+		buffer.putLong(v);
+	}
+
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > buffer.capacity()) {
+			flush();
+			writeFully(ByteBuffer.wrap(b, off, len), bufferPosition);
+			bufferPosition += len;
+			return;
+		}
+		ensureCapacity(len);
+		buffer.put(b, off, len);
+	}
+
+	/**
+	 * Appends the remaining bytes of <code>data</code>
+	 */
+	public void write(ByteBuffer data) throws IOException {
+		if (data.remaining() > buffer.capacity()) {
+			flush();
+			int len = data.remaining();
+			writeFully(data, bufferPosition);
+			bufferPosition += len;
+			return;
+		}
+		ensureCapacity(data.remaining());
+		buffer.put(data);
+	}
+
+	/**
+	 * Appends the content of the specified file
+	 */
+	public void write(File srcFile) throws IOException {
+		flush();
+		FileInputStream in = new FileInputStream(srcFile);
+		try {
+			FileChannel src = in.getChannel();
+			long size = src.size();
+			long transferred = 0;
+			while (transferred < size)
+				transferred += channel.transferFrom(src, bufferPosition + transferred, size - transferred);
+			bufferPosition += size;
+		} finally {
+			Utilities.closeStream(in);
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of <code>data</code> at the specified file position. The append position is not
+	 * changed.
+	 */
+	public void writeAt(long position, ByteBuffer data) throws IOException {
+		if (position + data.remaining() > bufferPosition)
+			flush();
+		writeFully(data, position);
+	}
+
+	/**
+	 * Reads data that has already been written
+	 */
+	public byte[] read(long position, int length) throws IOException {
+		if (position + length > bufferPosition)
+			flush();
+		ByteBuffer data = ByteBuffer.allocate(length);
+		while (data.hasRemaining()) {
+			if (channel.read(data, position + data.position()) < 0)
+				throw new EOFException();
+		}
+		return data.array();
+	}
+
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			bufferPosition += channel.write(buffer, bufferPosition);
+		buffer.clear();
+	}
+
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Discards all content and closes the file
+	 */
+	public void abort() {
+		try {
+			file.setLength(0);
+		} catch (IOException e) {
+		} finally {
+			Utilities.closeFile(file);
+		}
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+		if (buffer.remaining() < length)
+			flush();
+	}
+
+	private void writeFully(ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining())
+			position += channel.write(data, position);
+	}
+
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.atlascreators.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+import mobac.utilities.Utilities;
+
+/**
+ * Writes tile files asynchronously using a small pool of I/O threads. For atlas formats storing each tile in a separate
+ * file the creation of the files is usually limited by the latency of the file system (especially on network mounts),
+ * therefore writing several files concurrently overlaps the waiting time.
+ * 
+ * <p>
+ * The number of pending files is limited: If all threads are busy and the queue is full the tile is written by the
+ * calling thread. Directories are created by the calling thread, each directory only once.
+ * </p>
+ * 
+ * <p>
+ * Errors are reported by subsequent calls of {@link #writeTile(File, byte[], int, int)} or by {@link #close()}
+ * including the coordinates of the failed tile. {@link #close()} has to be called at the end of each map as it waits
+ * until all files have been written. An instance can not be reused after {@link #close()} or {@link #abort()}.
+ * </p>
+ */
+public class ParallelTileFileWriter {
+
+	private static final int THREAD_COUNT = 4;
+
+	private static final int QUEUE_SIZE = 16 * THREAD_COUNT;
+
+	private ThreadPoolExecutor executor = null;
+
+	private final LinkedList<Future<Void>> pendingWrites = new LinkedList<Future<Void>>();
+
+	private final HashSet<File> createdDirs = new HashSet<File>();
+
+	/**
+	 * 
+	 * @param file
+	 * @param tileData
+	 * @param tilex
+	 *            x tile number - only used for error messages
+	 * @param tiley
+	 *            y tile number - only used for error messages
+	 * @throws IOException
+	 *             if the directory could not be created or if writing a previous tile has failed
+	 */
+	public void writeTile(File file, byte[] tileData, int tilex, int tiley) throws IOException {
+		try {
+			// Report errors as early as possible
+			while (!pendingWrites.isEmpty() && pendingWrites.getFirst().isDone())
+				getResult(pendingWrites.removeFirst());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		File dir = file.getParentFile();
+		if (createdDirs.add(dir))
+			Utilities.mkDirs(dir);
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 10, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), DelayedInterruptThread.createThreadFactory(),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			// Make sure the threads do not survive an aborted map creation
+			executor.allowCoreThreadTimeOut(true);
+		}
+		pendingWrites.add(executor.submit(new TileFileWriteTask(file, tileData, tilex, tiley)));
+	}
+
+	/**
+	 * Waits until all tile files have been written
+	 * 
+	 * @throws IOException
+	 *             if writing a tile has failed
+	 */
+	public void close() throws IOException {
+		try {
+			while (!pendingWrites.isEmpty())
+				getResult(pendingWrites.removeFirst());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			abort();
+		}
+	}
+
+	/**
+	 * Discards all queued tile files and waits until the tile files currently being written are complete, so that no
+	 * files are created after this method has returned. Writing a file can not be interrupted, therefore an interrupt
+	 * of the calling thread is delayed until the wait is over.
+	 */
+	public void abort() {
+		pendingWrites.clear();
+		if (executor == null)
+			return;
+		executor.shutdownNow();
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				try {
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void getResult(Future<Void> future) throws IOException, InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private static class TileFileWriteTask implements Callable<Void> {
+
+		private final File file;
+		private final byte[] tileData;
+		private final int tilex;
+		private final int tiley;
+
+		public TileFileWriteTask(File file, byte[] tileData, int tilex, int tiley) {
+			this.file = file;
+			this.tileData = tileData;
+			this.tilex = tilex;
+			this.tiley = tiley;
+		}
+
+		public Void call() throws Exception {
+			FileOutputStream out = null;
+			try {
+				out = new FileOutputStream(file);
+				out.write(tileData);
+				out.close();
+				out = null;
+			} catch (IOException e) {
+				throw new IOException(String.format("Failed to write tile x=%d y=%d to \"%s\": %s", tilex, tiley,
+						file.getAbsolutePath(), e.getMessage()), e);
+			} finally {
+				Utilities.closeStream(out);
+			}
+			return null;
+		}
+	}
+}
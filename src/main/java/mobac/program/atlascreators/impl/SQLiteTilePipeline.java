@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.atlascreators.impl;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import mobac.exceptions.MapCreationException;
+import mobac.gui.AtlasProgress;
+import mobac.program.atlascreators.AtlasCreator;
+import mobac.program.atlascreators.tileprovider.TileProvider;
+import mobac.program.interfaces.MapInterface;
+import mobac.program.interfaces.RequiresSQLite;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Inserts all tiles of the current map into a SQLite database. The tile data is loaded (and converted) by one producer
+ * thread per available CPU core which optionally also compute a digest of the tile data. The calling thread is the only
+ * one using the database connection: it binds the tiles in the order they become available via the {@link TileBinder}
+ * and executes and commits them in batches.
+ */
+public class SQLiteTilePipeline {
+
+	private static final Logger log = Logger.getLogger(SQLiteTilePipeline.class);
+
+	public interface TileBinder {
+
+		/**
+		 * Sets the parameters of the insert statement for the specified tile and adds it to the batch.
+		 * 
+		 * @param x
+		 * @param y
+		 * @param tileData
+		 * @param tileDigest
+		 *            digest of the tile data or <code>null</code> if no digest algorithm has been specified
+		 * @throws SQLException
+		 * @throws IOException
+		 */
+		public void bindTile(int x, int y, byte[] tileData, byte[] tileDigest) throws SQLException, IOException;
+
+	}
+
+	private final AtlasCreator atlasCreator;
+	private final TileProvider tileProvider;
+	private final Connection conn;
+	private final String digestAlgorithm;
+	private final PreparedStatement[] insertStmts;
+
+	public SQLiteTilePipeline(AtlasCreator atlasCreator, TileProvider tileProvider, Connection conn,
+			PreparedStatement insertStmt) {
+		this(atlasCreator, tileProvider, conn, null, insertStmt);
+	}
+
+	/**
+	 * @param atlasCreator
+	 * @param tileProvider
+	 * @param conn
+	 * @param digestAlgorithm
+	 *            {@link MessageDigest} algorithm applied to each tile on the producer threads or <code>null</code>
+	 * @param insertStmts
+	 *            statements the {@link TileBinder} adds batches to
+	 */
+	public SQLiteTilePipeline(AtlasCreator atlasCreator, TileProvider tileProvider, Connection conn,
+			String digestAlgorithm, PreparedStatement... insertStmts) {
+		this.atlasCreator = atlasCreator;
+		this.tileProvider = tileProvider;
+		this.conn = conn;
+		this.digestAlgorithm = digestAlgorithm;
+		this.insertStmts = insertStmts;
+	}
+
+	/**
+	 * Loads and inserts all tiles of the map. Each tile advances the map creation progress by one, each executed batch
+	 * by the number of tiles it contained.
+	 * 
+	 * @param binder
+	 * @return number of tiles inserted
+	 * @throws InterruptedException
+	 * @throws MapCreationException
+	 */
+	public int writeTiles(TileBinder binder) throws InterruptedException, MapCreationException {
+		MapInterface map = atlasCreator.getMap();
+		AtlasProgress atlasProgress = atlasCreator.getAtlasProgress();
+		final int xMin = atlasCreator.getXMin();
+		final int yMin = atlasCreator.getYMin();
+		final int height = atlasCreator.getYMax() - yMin + 1;
+		long tileCount = (long) (atlasCreator.getXMax() - xMin + 1) * height;
+
+		int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+		int maxPendingTiles = threadCount * 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+				DelayedInterruptThread.createThreadFactory());
+		CompletionService<LoadedTile> loadedTiles = new ExecutorCompletionService<LoadedTile>(executor);
+		Runtime r = Runtime.getRuntime();
+		long heapMaxSize = r.maxMemory();
+		long submittedTiles = 0;
+		int pendingTiles = 0;
+		int batchTileCount = 0;
+		int tilesWritten = 0;
+		try {
+			conn.setAutoCommit(false);
+			while (submittedTiles < tileCount || pendingTiles > 0) {
+				// Column by column as the tiles are ordered in the tile archive
+				while (pendingTiles < maxPendingTiles && submittedTiles < tileCount) {
+					final int x = xMin + (int) (submittedTiles / height);
+					final int y = yMin + (int) (submittedTiles % height);
+					loadedTiles.submit(new Callable<LoadedTile>() {
+
+						public LoadedTile call() throws Exception {
+							byte[] data = tileProvider.getTileData(x, y);
+							byte[] digest = null;
+							if (data != null && digestAlgorithm != null)
+								digest = MessageDigest.getInstance(digestAlgorithm).digest(data);
+							return new LoadedTile(x, y, data, digest);
+						}
+					});
+					submittedTiles++;
+					pendingTiles++;
+				}
+				atlasCreator.checkUserAbort();
+				LoadedTile tile = getLoadedTile(loadedTiles, map);
+				pendingTiles--;
+				atlasProgress.incMapCreationProgress();
+				if (tile.data == null)
+					continue;
+				binder.bindTile(tile.x, tile.y, tile.data, tile.digest);
+				tilesWritten++;
+				batchTileCount++;
+				long heapAvailable = heapMaxSize - r.totalMemory() + r.freeMemory();
+				if ((heapAvailable < RequiresSQLite.HEAP_MIN) || (batchTileCount >= RequiresSQLite.MAX_BATCH_SIZE)) {
+					log.trace("Executing batch containing " + batchTileCount + " tiles");
+					executeBatch();
+					conn.commit();
+					atlasProgress.incMapCreationProgress(batchTileCount);
+					batchTileCount = 0;
+				}
+			}
+			log.trace("Executing final batch containing " + batchTileCount + " tiles");
+			executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			throw new MapCreationException(map, e);
+		} catch (IOException e) {
+			throw new MapCreationException(map, e);
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		return tilesWritten;
+	}
+
+	private void executeBatch() throws SQLException {
+		for (PreparedStatement insertStmt : insertStmts) {
+			insertStmt.executeBatch();
+			insertStmt.clearBatch();
+		}
+	}
+
+	private LoadedTile getLoadedTile(CompletionService<LoadedTile> loadedTiles, MapInterface map)
+			throws InterruptedException, MapCreationException {
+		try {
+			return loadedTiles.take().get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			throw new MapCreationException("Error loading tile: " + cause.getMessage(), map, cause);
+		}
+	}
+
+	private static class LoadedTile {
+		final int x;
+		final int y;
+		final byte[] data;
+		final byte[] digest;
+
+		public LoadedTile(int x, int y, byte[] data, byte[] digest) {
+			this.x = x;
+			this.y = y;
+			this.data = data;
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.atlascreators.impl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import mobac.program.atlascreators.tileprovider.TileProvider;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Memory bounded least recently used cache of decoded original map tiles used by {@link MapTileBuilder}. The cache is
+ * shared by all threads composing custom tiles and makes sure that each original tile is decoded only once as long as
+ * it is used by neighboring custom tiles.
+ * <p>
+ * The memory usage is calculated from the size of the image data of the decoded tiles. Tiles that will be required
+ * soon can be loaded in advance by a background thread via {@link #prefetch(int, int)}.
+ * </p>
+ */
+public class TileImageCache {
+
+	private static final Logger log = Logger.getLogger(TileImageCache.class);
+
+	/**
+	 * Memory accounted for tiles that do not exist
+	 */
+	private static final int EMPTY_ENTRY_SIZE = 64;
+
+	private final TileProvider tileProvider;
+
+	private final long maxSize;
+
+	/**
+	 * Memory reserved for a tile while it is loaded
+	 */
+	private final long estimatedTileSize;
+
+	/**
+	 * Entries in access order - the least recently used entry is the first one
+	 */
+	private final LinkedHashMap<Long, CacheEntry> cache = new LinkedHashMap<Long, CacheEntry>(256, 0.75f, true);
+
+	private final ExecutorService prefetchExecutor;
+
+	private long currentSize = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * 
+	 * @param tileProvider
+	 * @param tileSize
+	 *            width/height of the original map tiles in pixels
+	 * @param maxSize
+	 *            memory budget of the cache in bytes
+	 */
+	public TileImageCache(TileProvider tileProvider, int tileSize, long maxSize) {
+		this.tileProvider = tileProvider;
+		this.maxSize = maxSize;
+		estimatedTileSize = 4L * tileSize * tileSize;
+		prefetchExecutor = Executors.newSingleThreadExecutor(DelayedInterruptThread.createThreadFactory());
+	}
+
+	/**
+	 * Returns the decoded image of the specified tile. If the tile is currently loaded by another thread this method
+	 * waits until loading has been completed.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return the tile image or <code>null</code> if the tile does not exist
+	 * @throws Exception
+	 */
+	public BufferedImage getTileImage(int x, int y) throws Exception {
+		CacheEntry entry;
+		synchronized (this) {
+			Long key = getKey(x, y);
+			entry = cache.get(key);
+			if (entry != null) {
+				hits++;
+			} else {
+				misses++;
+				entry = new CacheEntry(x, y);
+				cache.put(key, entry);
+				currentSize += entry.size;
+			}
+		}
+		return entry.getImage();
+	}
+
+	/**
+	 * Loads the specified tile in background. The request is ignored if the tile is already present or if the cache is
+	 * almost full - prefetching must not evict tiles that are still in use.
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public void prefetch(int x, int y) {
+		CacheEntry entry;
+		synchronized (this) {
+			if (currentSize + estimatedTileSize > maxSize * 3 / 4)
+				return;
+			Long key = getKey(x, y);
+			if (cache.containsKey(key))
+				return;
+			entry = new CacheEntry(x, y);
+			cache.put(key, entry);
+			currentSize += entry.size;
+		}
+		try {
+			prefetchExecutor.execute(entry);
+		} catch (RejectedExecutionException e) {
+			// cache has been closed - the entry will be loaded on demand
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Stops prefetching and waits for the prefetch thread. A running prefetch can not be interrupted while the tile is
+	 * decoded and the tile provider must not be closed before it has finished.
+	 */
+	public void close() {
+		prefetchExecutor.shutdownNow();
+		try {
+			if (!prefetchExecutor.awaitTermination(1, TimeUnit.MINUTES))
+				log.warn("Prefetch thread did not terminate");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			log.debug("Tile image cache: " + hits + " hits, " + misses + " misses, " + cache.size()
+					+ " tiles cached (" + (currentSize >> 10) + " KiB)");
+			cache.clear();
+			currentSize = 0;
+		}
+	}
+
+	private synchronized void entryLoaded(CacheEntry entry, BufferedImage image, boolean failed) {
+		Long key = getKey(entry.x, entry.y);
+		if (cache.get(key) != entry) {
+			// already evicted or cache closed
+			return;
+		}
+		if (failed) {
+			// Do not cache the error - the next request will try again
+			cache.remove(key);
+			currentSize -= entry.size;
+			return;
+		}
+		long size = (image != null) ? getImageSize(image) : EMPTY_ENTRY_SIZE;
+		currentSize += size - entry.size;
+		entry.size = size;
+		Iterator<CacheEntry> it = cache.values().iterator();
+		while (currentSize > maxSize && it.hasNext()) {
+			CacheEntry e = it.next();
+			if (!e.isDone())
+				continue;
+			it.remove();
+			currentSize -= e.size;
+		}
+	}
+
+	private static Long getKey(int x, int y) {
+		return Long.valueOf((((long) x) << 32) | (y & 0xFFFFFFFFL));
+	}
+
+	private static long getImageSize(BufferedImage image) {
+		DataBuffer db = image.getRaster().getDataBuffer();
+		return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+	}
+
+	private class CacheEntry implements Runnable {
+
+		private static final int NEW = 0;
+		private static final int LOADING = 1;
+		private static final int DONE = 2;
+
+		final int x;
+		final int y;
+
+		/**
+		 * Accounted memory size - guarded by the cache
+		 */
+		long size = estimatedTileSize;
+
+		private int state = NEW;
+		private BufferedImage image = null;
+		private Exception error = null;
+
+		public CacheEntry(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		/**
+		 * Executed by the prefetch thread
+		 */
+		public void run() {
+			load();
+		}
+
+		public BufferedImage getImage() throws Exception {
+			// Load the tile ourselves if the prefetch thread has not started loading it yet
+			load();
+			synchronized (this) {
+				while (state != DONE)
+					wait();
+				if (error != null)
+					throw error;
+				return image;
+			}
+		}
+
+		public synchronized boolean isDone() {
+			return state == DONE;
+		}
+
+		private void load() {
+			synchronized (this) {
+				if (state != NEW)
+					return;
+				state = LOADING;
+			}
+			BufferedImage loadedImage = null;
+			Exception loadError = null;
+			try {
+				loadedImage = tileProvider.getTileImage(x, y);
+			} catch (Exception e) {
+				loadError = e;
+			}
+			synchronized (this) {
+				image = loadedImage;
+				error = loadError;
+				state = DONE;
+				notifyAll();
+			}
+			entryLoaded(this, loadedImage, loadError != null);
+		}
+	}
+}
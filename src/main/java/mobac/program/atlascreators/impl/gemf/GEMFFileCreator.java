@@ -19,16 +19,19 @@
  */
 package mobac.program.atlascreators.impl.gemf;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.TreeSet;
+
+import mobac.utilities.Utilities;
+import mobac.utilities.stream.RandomAccessFileOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -40,21 +43,31 @@ import org.apache.log4j.Logger;
  * @author A. S. Budden
  * @author Erik Burrows
  * 
- *         This class is a stripped-down version of the GEMFFile.java class at:
+ *         This class is originally based on the GEMFFile.java class at:
  *         http://code.google.com/p/osmdroid/source/
  *         browse/trunk/osmdroid-android/src/main/java/org/osmdroid/util/GEMFFile.java
  * 
  *         (Date: Wed, 11th of April 2012)
  * 
- *         The original GEMFFile.java from above has been reduced to the functionality of writing a GEMF archive, as
- *         reading the archive seems not to be necessary.
- * 
  * @author M. Reiter
  * 
+ *         The archive is written in a single pass: All ranges have to be added via
+ *         {@link #addRange(String, int, int, int, int, int)} before {@link #open()} is called. This allows to
+ *         calculate the size of the header and the tile index in advance. The tile data is then appended directly
+ *         behind the reserved index region in the order the tiles are written. The index itself is written by
+ *         {@link #close()} when all tile sizes are known.
  */
 public class GEMFFileCreator {
-	private static final long FILE_SIZE_LIMIT = 1 * 1024 * 1024 * 1024; // 1GB
-	private static final int FILE_COPY_BUFFER_SIZE = 1024;
+
+	private static final Logger log = Logger.getLogger(GEMFFileCreator.class);
+
+	/**
+	 * Maximum size of each archive file (2 GB). Additional files will be created with numerical suffixes, e.g.
+	 * test.gemf-1, test.gemf-2.
+	 */
+	private static final long FILE_SIZE_LIMIT = Integer.MAX_VALUE;
+
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
 
 	private static final int VERSION = 4;
 	private static final int TILE_SIZE = 256;
@@ -62,330 +75,244 @@ public class GEMFFileCreator {
 	private static final int U32_SIZE = 4;
 	private static final int U64_SIZE = 8;
 
-	/*
-	 * Constructor to create new GEMF file from directory of sources/tiles.
-	 * 
-	 * @param pLocation String object representing path to first GEMF archive file. Additional files (if archive size
-	 * exceeds FILE_SIZE_LIMIT will be created with numerical suffixes, eg: test.gemf-1, test.gemf-2.
-	 * 
-	 * @param pSourceFolders Each specified folder will be imported into the GEMF archive as a seperate source. The name
-	 * of the folder will be the name of the source in the archive.
+	private static final String SOURCE_NAME_CHARSET = "UTF-8";
+
+	private final File gemfFile;
+
+	private final LinkedHashMap<String, Integer> sourceIndex = new LinkedHashMap<String, Integer>();
+
+	private final List<GEMFRange> ranges = new ArrayList<GEMFRange>();
+
+	private long headerSize = 0;
+
+	private RandomAccessFile firstFile = null;
+
+	private OutputStream dataOut = null;
+
+	private int fileIndex = 0;
+
+	/**
+	 * Offset over all archive files
 	 */
-	public GEMFFileCreator(final String pLocation, final List<File> pSourceFolders, Logger log) throws FileNotFoundException,
-			IOException {
-		
-		/**
-		 * <pre>
-		 * 1. For each source folder
-		 *   1. Create array of zoom levels, X rows, Y rows
-		 * 2. Build index data structure index[source][zoom][range]
-		 *   1. For each S-Z-X find list of Ys values
-		 *   2. For each S-Z-X-Ys set, find complete X ranges
-		 *   3. For each S-Z-Xr-Ys set, find complete Y ranges, create Range record
-		 * 3. Write out index
-		 *   1. Header
-		 *   2. Sources
-		 *   3. For each Range
-		 *     1. Write Range record
-		 * 4. For each Range record
-		 *   1. For each Range entry
-		 *     1. If over file size limit, start new data file
-		 *   2. Write tile data
-		 * </pre>
-		 */
-
-		// this.mLocation = pLocation;
-
-		// Create in-memory array of sources, X and Y values.
-		final LinkedHashMap<String, LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, File>>>> dirIndex = new LinkedHashMap<String, LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, File>>>>();
-
-		for (final File sourceDir : pSourceFolders) {
-
-			final LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, File>>> zList = new LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, File>>>();
-
-			for (final File zDir : sourceDir.listFiles()) {
-				// Make sure the directory name is just a number
-				try {
-					Integer.parseInt(zDir.getName());
-				} catch (final NumberFormatException e) {
-					continue;
-				}
-
-				final LinkedHashMap<Integer, LinkedHashMap<Integer, File>> xList = new LinkedHashMap<Integer, LinkedHashMap<Integer, File>>();
-
-				for (final File xDir : zDir.listFiles()) {
-
-					// Make sure the directory name is just a number
-					try {
-						Integer.parseInt(xDir.getName());
-					} catch (final NumberFormatException e) {
-						continue;
-					}
-
-					final LinkedHashMap<Integer, File> yList = new LinkedHashMap<Integer, File>();
-					for (final File yFile : xDir.listFiles()) {
-
-						try {
-							Integer.parseInt(yFile.getName().substring(0, yFile.getName().indexOf('.')));
-						} catch (final NumberFormatException e) {
-							continue;
-						}
-
-						yList.put(Integer.parseInt(yFile.getName().substring(0, yFile.getName().indexOf('.'))), yFile);
-					}
-
-					xList.put(new Integer(xDir.getName()), yList);
-				}
-
-				zList.put(Integer.parseInt(zDir.getName()), xList);
-			}
+	private long offset = 0;
 
-			dirIndex.put(sourceDir.getName(), zList);
-		}
+	/**
+	 * Number of bytes written to the current archive file
+	 */
+	private long currentFileSize = 0;
 
-		// Create a source index list
-		final LinkedHashMap<String, Integer> sourceIndex = new LinkedHashMap<String, Integer>();
-		final LinkedHashMap<Integer, String> indexSource = new LinkedHashMap<Integer, String>();
-		int si = 0;
-		for (final String source : dirIndex.keySet()) {
-			sourceIndex.put(source, new Integer(si));
-			indexSource.put(new Integer(si), source);
-			++si;
-		}
+	/**
+	 * @param gemfFile
+	 *            first GEMF archive file
+	 */
+	public GEMFFileCreator(File gemfFile) {
+		this.gemfFile = gemfFile;
+	}
 
-		// Create the range objects
-		final List<GEMFRange> ranges = new ArrayList<GEMFRange>();
-
-		for (final String source : dirIndex.keySet()) {
-			for (final Integer zoom : dirIndex.get(source).keySet()) {
-
-				// Get non-contiguous Y sets for each Z/X
-				final LinkedHashMap<List<Integer>, List<Integer>> ySets = new LinkedHashMap<List<Integer>, List<Integer>>();
-
-				for (final Integer x : new TreeSet<Integer>(dirIndex.get(source).get(zoom).keySet())) {
-
-					final List<Integer> ySet = new ArrayList<Integer>();
-					for (final Integer y : dirIndex.get(source).get(zoom).get(x).keySet()) {
-						ySet.add(y);
-					}
-
-					if (ySet.size() == 0) {
-						continue;
-					}
-
-					Collections.sort(ySet);
-
-					if (!ySets.containsKey(ySet)) {
-						ySets.put(ySet, new ArrayList<Integer>());
-					}
-
-					ySets.get(ySet).add(x);
-				}
-
-				// For each Y set find contiguous X sets
-				final LinkedHashMap<List<Integer>, List<Integer>> xSets = new LinkedHashMap<List<Integer>, List<Integer>>();
-
-				for (final List<Integer> ySet : ySets.keySet()) {
-
-					final TreeSet<Integer> xList = new TreeSet<Integer>(ySets.get(ySet));
-
-					List<Integer> xSet = new ArrayList<Integer>();
-					for (int i = xList.first(); i < xList.last() + 1; ++i) {
-						if (xList.contains(new Integer(i))) {
-							xSet.add(new Integer(i));
-						} else {
-							if (xSet.size() > 0) {
-								xSets.put(ySet, xSet);
-								xSet = new ArrayList<Integer>();
-							}
-						}
-					}
-
-					if (xSet.size() > 0) {
-						xSets.put(ySet, xSet);
-					}
-				}
-
-				// For each contiguous X set, find contiguous Y sets and create GEMFRange object
-				for (final List<Integer> xSet : xSets.keySet()) {
-
-					final TreeSet<Integer> yList = new TreeSet<Integer>(xSet);
-					final TreeSet<Integer> xList = new TreeSet<Integer>(ySets.get(xSet));
-
-					GEMFRange range = new GEMFRange();
-					range.zoom = zoom;
-					range.sourceIndex = sourceIndex.get(source);
-					range.xMin = xList.first();
-					range.xMax = xList.last();
-
-					for (int i = yList.first(); i < yList.last() + 1; ++i) {
-						if (yList.contains(new Integer(i))) {
-							if (range.yMin == null) {
-								range.yMin = i;
-							}
-							range.yMax = i;
-						} else {
-
-							if (range.yMin != null) {
-								ranges.add(range);
-
-								range = new GEMFRange();
-								range.zoom = zoom;
-								range.sourceIndex = sourceIndex.get(source);
-								range.xMin = xList.first();
-								range.xMax = xList.last();
-							}
-						}
-					}
-
-					if (range.yMin != null) {
-						ranges.add(range);
-					}
-				}
-			}
+	/**
+	 * Adds a range of tiles to the archive. Tiles within the range that are never written are stored with a size of
+	 * zero.
+	 * 
+	 * @param source
+	 *            name of the source - each distinct name is stored as separate source in the archive
+	 * @return the range to be used for {@link #writeTile(GEMFRange, int, int, byte[])}
+	 */
+	public GEMFRange addRange(String source, int zoom, int xMin, int xMax, int yMin, int yMax) {
+		if (firstFile != null)
+			throw new IllegalStateException("Ranges can only be added before the archive has been opened");
+		Integer si = sourceIndex.get(source);
+		if (si == null) {
+			si = sourceIndex.size();
+			sourceIndex.put(source, si);
 		}
+		GEMFRange range = new GEMFRange(si, zoom, xMin, xMax, yMin, yMax);
+		ranges.add(range);
+		return range;
+	}
 
-		// Calculate size of header for computation of data offsets
-		int source_list_size = 0;
-		for (final String source : sourceIndex.keySet()) {
-			source_list_size += (U32_SIZE + U32_SIZE + source.length());
-		}
+	/**
+	 * Creates the archive file and reserves the space for the header and the tile index.
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		int sourceListSize = 0;
+		for (String source : sourceIndex.keySet())
+			sourceListSize += U32_SIZE + U32_SIZE + source.getBytes(SOURCE_NAME_CHARSET).length;
+
+		long indexSize = 0;
+		for (GEMFRange range : ranges)
+			indexSize += (long) range.getTileCount() * (U64_SIZE + U32_SIZE);
 
-		long offset = U32_SIZE + // GEMF Version
+		headerSize = U32_SIZE + // GEMF Version
 				U32_SIZE + // Tile size
 				U32_SIZE + // Number of sources
-				source_list_size + ranges.size() * ((U32_SIZE * 6) + U64_SIZE) + U32_SIZE; // Number of ranges
+				sourceListSize + //
+				U32_SIZE + // Number of ranges
+				ranges.size() * ((U32_SIZE * 6) + U64_SIZE) + //
+				indexSize;
+
+		firstFile = new RandomAccessFile(gemfFile, "rw");
+		firstFile.setLength(headerSize);
+		firstFile.seek(headerSize);
+		dataOut = new BufferedOutputStream(new RandomAccessFileOutputStream(firstFile), OUTPUT_BUFFER_SIZE);
+		offset = headerSize;
+		currentFileSize = headerSize;
+	}
 
-		// Calculate offset for each range in the data set
-		for (final GEMFRange range : ranges) {
-			range.offset = offset;
+	/**
+	 * Appends the tile data to the archive. If the current archive file would exceed {@link #FILE_SIZE_LIMIT} a new
+	 * archive file is started.
+	 * 
+	 * @param range
+	 *            the range the tile belongs to
+	 * @param tileData
+	 *            may be <code>null</code> for a missing tile
+	 * @throws IOException
+	 */
+	public void writeTile(GEMFRange range, int x, int y, byte[] tileData) throws IOException {
+		if (tileData == null || tileData.length == 0)
+			return;
+		if (currentFileSize + tileData.length > FILE_SIZE_LIMIT)
+			startNextFile();
+		range.setTile(x, y, offset, tileData.length);
+		dataOut.write(tileData);
+		offset += tileData.length;
+		currentFileSize += tileData.length;
+	}
 
-			for (int x = range.xMin; x < range.xMax + 1; ++x) {
-				for (int y = range.yMin; y < range.yMax + 1; ++y) {
-					offset += (U32_SIZE + U64_SIZE);
-				}
-			}
-		}
+	private void startNextFile() throws IOException {
+		dataOut.flush();
+		if (fileIndex > 0)
+			dataOut.close();
+		fileIndex++;
+		File nextFile = new File(gemfFile.getPath() + "-" + fileIndex);
+		log.debug("Starting next GEMF archive file: " + nextFile);
+		dataOut = new BufferedOutputStream(new FileOutputStream(nextFile), OUTPUT_BUFFER_SIZE);
+		currentFileSize = 0;
+	}
 
-		final long headerSize = offset;
+	/**
+	 * Writes the header and the tile index and closes all archive files.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			dataOut.flush();
+			if (fileIndex > 0)
+				dataOut.close();
+			dataOut = null;
+			firstFile.seek(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new RandomAccessFileOutputStream(
+					firstFile), OUTPUT_BUFFER_SIZE));
+			writeHeader(out);
+			out.flush();
+			if (out.size() != headerSize)
+				throw new IOException("Invalid GEMF header size: " + out.size() + " - expected " + headerSize);
+		} finally {
+			Utilities.closeFile(firstFile);
+			firstFile = null;
+		}
+	}
 
-		RandomAccessFile gemfFile = new RandomAccessFile(pLocation, "rw");
+	/**
+	 * Closes all archive files without writing the header and the index.
+	 */
+	public void abort() {
+		if (fileIndex > 0)
+			Utilities.closeStream(dataOut);
+		dataOut = null;
+		Utilities.closeFile(firstFile);
+		firstFile = null;
+	}
 
+	private void writeHeader(DataOutputStream out) throws IOException {
 		// Write version header
-		gemfFile.writeInt(VERSION);
+		out.writeInt(VERSION);
 
 		// Write file size header
-		gemfFile.writeInt(TILE_SIZE);
+		out.writeInt(TILE_SIZE);
 
 		// Write number of sources
-		gemfFile.writeInt(sourceIndex.size());
+		out.writeInt(sourceIndex.size());
 
 		// Write source list
-		for (final String source : sourceIndex.keySet()) {
-			gemfFile.writeInt(sourceIndex.get(source));
-			gemfFile.writeInt(source.length());
-			gemfFile.write(source.getBytes());
+		for (String source : sourceIndex.keySet()) {
+			byte[] name = source.getBytes(SOURCE_NAME_CHARSET);
+			out.writeInt(sourceIndex.get(source));
+			out.writeInt(name.length);
+			out.write(name);
 		}
 
 		// Write number of ranges
-		gemfFile.writeInt(ranges.size());
+		out.writeInt(ranges.size());
+
+		// Calculate the offset of the index entries of each range
+		long indexOffset = out.size() + ranges.size() * ((U32_SIZE * 6) + U64_SIZE);
 
 		// Write range objects
-		for (final GEMFRange range : ranges) {
-			gemfFile.writeInt(range.zoom);
-			gemfFile.writeInt(range.xMin);
-			gemfFile.writeInt(range.xMax);
-			gemfFile.writeInt(range.yMin);
-			gemfFile.writeInt(range.yMax);
-			gemfFile.writeInt(range.sourceIndex);
-			gemfFile.writeLong(range.offset);
+		for (GEMFRange range : ranges) {
+			out.writeInt(range.zoom);
+			out.writeInt(range.xMin);
+			out.writeInt(range.xMax);
+			out.writeInt(range.yMin);
+			out.writeInt(range.yMax);
+			out.writeInt(range.sourceIndex);
+			out.writeLong(indexOffset);
+			indexOffset += (long) range.getTileCount() * (U64_SIZE + U32_SIZE);
 		}
 
 		// Write file offset list
-		for (final GEMFRange range : ranges) {
-			for (int x = range.xMin; x < range.xMax + 1; ++x) {
-				for (int y = range.yMin; y < range.yMax + 1; ++y) {
-					gemfFile.writeLong(offset);
-					
-					long fileSize = 0;
-					try {
-						fileSize = dirIndex.get(indexSource.get(range.sourceIndex)).get(range.zoom).get(x).get(y).length();
-					} catch (NullPointerException e) {
-						//dont' do anything here. Error will be logged later.
-					}
-					gemfFile.writeInt((int) fileSize);
-					offset += fileSize;
-				}
+		for (GEMFRange range : ranges) {
+			for (int i = 0; i < range.tileOffsets.length; i++) {
+				out.writeLong(range.tileOffsets[i]);
+				out.writeInt(range.tileSizes[i]);
 			}
 		}
+	}
 
-		//
-		// Write tiles
-		//
-
-		final byte[] buf = new byte[FILE_COPY_BUFFER_SIZE];
-
-		long currentOffset = headerSize;
-		int fileIndex = 0;
-
-		for (final GEMFRange range : ranges) {
-			for (int x = range.xMin; x < range.xMax + 1; ++x) {
-				for (int y = range.yMin; y < range.yMax + 1; ++y) {
-					
-					long fileSize = 0;
-					try {
-						fileSize = dirIndex.get(indexSource.get(range.sourceIndex)).get(range.zoom).get(x).get(y).length();
-					} catch (NullPointerException e) {
-						//don't do anything here. Error will be logged later.
-					}
-					
-					if (currentOffset + fileSize > FILE_SIZE_LIMIT) {
-						gemfFile.close();
-						++fileIndex;
-						gemfFile = new RandomAccessFile(pLocation + "-" + fileIndex, "rw");
-						currentOffset = 0;
-					} else {
-						currentOffset += fileSize;
-					}
-
-					try {
-						final FileInputStream tile = new FileInputStream(dirIndex.get(indexSource.get(range.sourceIndex)).get(range.zoom).get(x).get(y));
-	
-						int read = tile.read(buf, 0, FILE_COPY_BUFFER_SIZE);
-						while (read != -1) {
-							gemfFile.write(buf, 0, read);
-							read = tile.read(buf, 0, FILE_COPY_BUFFER_SIZE);
-						}
-	
-						tile.close(); 
-					} catch (Exception e) {
-						log.warn("Please check that all required Tiles have been downloaded correctly. I am missing tile for x=" + x + ", y=" + y + ", z=" + range.zoom);
-					}
-				}
-			}
+	/**
+	 * Represents a range of stored tiles within the archive. The index entries are ordered by x and then by y.
+	 */
+	public static class GEMFRange {
+		private final int sourceIndex;
+		private final int zoom;
+		private final int xMin;
+		private final int xMax;
+		private final int yMin;
+		private final int yMax;
+		private final long[] tileOffsets;
+		private final int[] tileSizes;
+
+		private GEMFRange(int sourceIndex, int zoom, int xMin, int xMax, int yMin, int yMax) {
+			this.sourceIndex = sourceIndex;
+			this.zoom = zoom;
+			this.xMin = xMin;
+			this.xMax = xMax;
+			this.yMin = yMin;
+			this.yMax = yMax;
+			int tileCount = (xMax - xMin + 1) * (yMax - yMin + 1);
+			tileOffsets = new long[tileCount];
+			tileSizes = new int[tileCount];
 		}
 
-		gemfFile.close();
-
-		// Complete construction of GEMFFile object
-		// openFiles();
-		// readHeader();
-	}
+		private int getTileCount() {
+			return tileOffsets.length;
+		}
 
-	// Class to represent a range of stored tiles within the archive.
-	private class GEMFRange {
-		Integer zoom;
-		Integer xMin;
-		Integer xMax;
-		Integer yMin;
-		Integer yMax;
-		Integer sourceIndex;
-		Long offset;
+		private void setTile(int x, int y, long offset, int size) {
+			if (x < xMin || x > xMax || y < yMin || y > yMax)
+				throw new IllegalArgumentException("Tile " + x + "/" + y + " is outside of " + this);
+			int i = (x - xMin) * (yMax - yMin + 1) + (y - yMin);
+			tileOffsets[i] = offset;
+			tileSizes[i] = size;
+		}
 
 		@Override
 		public String toString() {
-			return String.format("GEMF Range: source=%d, zoom=%d, x=%d-%d, y=%d-%d, offset=0x%08X", sourceIndex, zoom,
-					xMin, xMax, yMin, yMax, offset);
+			return String.format("GEMF Range: source=%d, zoom=%d, x=%d-%d, y=%d-%d", sourceIndex, zoom, xMin, xMax,
+					yMin, yMax);
 		}
-	};
+	}
 }
@@ -19,7 +19,7 @@ package mobac.program.atlascreators.impl.rmp;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 
 import mobac.program.atlascreators.tileprovider.TileProvider;
@@ -35,6 +35,7 @@ public class MobacTile {
 	private final int tilex;
 	private final int tiley;
 	private BufferedImage image;
+	private int[] pixels = null;
 
 	private BoundingRect boundingRect;
 
@@ -91,80 +92,35 @@ public class MobacTile {
 		return img;
 	}
 
-	public void drawSubImage(BoundingRect dest_area, BufferedImage dest_image) {
-		BufferedImage src_image;
-		WritableRaster src_graph, dst_graph;
-		BoundingRect src_area;
-		int maxx, maxy;
-		double src_c_x, src_c_y;
-		int pix_x, pix_y;
-		BufferedImage imageBuffer;
-		Graphics graphics;
-		int[] pixel = new int[3];
-
-		/* --- Get the coordination rectangle of the source image --- */
-		src_area = boundingRect;
-
-		/* --- Get Graphics context --- */
-		src_image = getImage();
-
+	/**
+	 * Returns the pixels of the tile image converted to RGB. The conversion is performed only once, the result is
+	 * kept as long as this tile exists.
+	 * 
+	 * @return 256 x 256 RGB pixels (row by row) or <code>null</code> if the tile is not available
+	 */
+	public synchronized int[] getPixels() {
+		if (pixels != null)
+			return pixels;
+		BufferedImage src_image = getImage();
 		if (src_image == null)
-			return;
+			return null;
 
 		/* --- Convert it to RGB color space --- */
-		imageBuffer = new BufferedImage(src_image.getWidth(), src_image.getHeight(),
-				BufferedImage.TYPE_INT_RGB);
-		graphics = imageBuffer.createGraphics();
+		BufferedImage imageBuffer = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+		Graphics graphics = imageBuffer.createGraphics();
 		try {
 			graphics.drawImage(src_image, 0, 0, null);
 		} finally {
 			graphics.dispose();
 		}
-		src_graph = imageBuffer.getRaster();
-		dst_graph = dest_image.getRaster();
-
-		/*
-		 * --- Iterate over all pixels of the destination image. Unfortunately
-		 * we need this technique because source and dest do not have exactly
-		 * the same zoom level, so the source image has to be compressed or
-		 * expanded to match the destination image ---
-		 */
-		maxx = dest_image.getWidth();
-		maxy = dest_image.getHeight();
-		for (int y = 0; y < maxy; y++) {
-
-			/* --- Calculate the y-coordinate of the current line --- */
-			src_c_y = dest_area.getNorth() + (dest_area.getSouth() - dest_area.getNorth()) * y
-					/ maxy;
-
-			/* --- Calculate the pixel line of the source image --- */
-			pix_y = (int) ((src_c_y - src_area.getNorth()) * 256
-					/ (src_area.getSouth() - src_area.getNorth()) + 0.5);
-
-			/* --- Ignore line that are out of the source area --- */
-			if (pix_y < 0 || pix_y > 255)
-				continue;
-
-			// log.trace("scale factor y: " + (pix_y / (double) y));
-
-			for (int x = 0; x < maxx; x++) {
-				/* --- Calculate the x-coordinate of the current row --- */
-				src_c_x = dest_area.getWest() + (dest_area.getEast() - dest_area.getWest()) * x
-						/ maxx;
-
-				/* --- Calculate the pixel row of the source image --- */
-				pix_x = (int) ((src_c_x - src_area.getWest()) * 256
-						/ (src_area.getEast() - src_area.getWest()) + 0.5);
-
-				/* --- Ignore the row if it is outside the source area --- */
-				if (pix_x < 0 || pix_x > 255)
-					continue;
-
-				/* --- Transfer the pixel --- */
-				src_graph.getPixel(pix_x, pix_y, pixel);
-				dst_graph.setPixel(x, y, pixel);
-			}
-		}
+		pixels = ((DataBufferInt) imageBuffer.getRaster().getDataBuffer()).getData();
+		// The source image is not needed anymore
+		image = null;
+		return pixels;
+	}
+
+	public BoundingRect getBoundingRect() {
+		return boundingRect;
 	}
 
 	public int getImageHeight() {
@@ -177,12 +133,6 @@ public class MobacTile {
 		return 256;
 	}
 
-	public BufferedImage getSubImage(BoundingRect area, int width, int height) {
-		BufferedImage result = createBlack(width, height);
-		drawSubImage(area, result);
-		return result;
-	}
-
 	@Override
 	public String toString() {
 		return String.format("MobacTile x/y [%d/%d] = %s", tilex, tiley, boundingRect);
@@ -16,9 +16,9 @@
  ******************************************************************************/
 package mobac.program.atlascreators.impl.rmp;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 import mobac.exceptions.MapCreationException;
 import mobac.program.atlascreators.tileprovider.TileProvider;
@@ -51,6 +51,17 @@ public class MultiImage {
 		cache = new SoftHashMap<TileKey, MobacTile>(400);
 	}
 
+	/**
+	 * Reprojects the area from the source tiles to a new image. For each destination column and row the source tile
+	 * and pixel are determined once via lookup tables, the pixels are copied directly between the int[] buffers. If
+	 * source tiles overlap, the one with the higher tile number wins. May be called concurrently.
+	 * 
+	 * @param area
+	 * @param width
+	 * @param height
+	 * @return
+	 * @throws MapCreationException
+	 */
 	public BufferedImage getSubImage(BoundingRect area, int width, int height) throws MapCreationException {
 		if (log.isTraceEnabled())
 			log.trace(String.format("getSubImage %d %d %s", width, height, area));
@@ -64,31 +75,86 @@ public class MultiImage {
 		int yMin = mapSource.getMapSpace().cLatToY(-area.getNorth(), zoom) / tilesize;
 
 		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		Arrays.fill(dst, 0xFFFFFF);
 
-		Graphics2D graph = result.createGraphics();
 		try {
-			graph.setColor(Color.WHITE);
-			graph.fillRect(0, 0, width, height);
-
-			for (int x = xMin; x <= xMax; x++) {
-				for (int y = yMin; y <= yMax; y++) {
-					TileKey key = new TileKey(x, y);
-					MobacTile image = cache.get(key);
-					if (image == null) {
-						image = new MobacTile(tileProvider, mapSpace, x, y, zoom);
-						cache.put(key, image);
+			int tileColumns = xMax - xMin + 1;
+			MobacTile[] tiles = new MobacTile[tileColumns * (yMax - yMin + 1)];
+			for (int y = yMin; y <= yMax; y++)
+				for (int x = xMin; x <= xMax; x++)
+					tiles[(y - yMin) * tileColumns + x - xMin] = getTile(mapSpace, x, y);
+
+			/* --- Source tile column and pixel column for each destination column --- */
+			int[] srcTileX = new int[width];
+			int[] srcPixX = new int[width];
+			Arrays.fill(srcTileX, -1);
+			for (int x = 0; x < width; x++) {
+				double src_c_x = area.getWest() + (area.getEast() - area.getWest()) * x / width;
+				for (int tx = 0; tx < tileColumns; tx++) {
+					BoundingRect src_area = tiles[tx].getBoundingRect();
+					int pix_x = (int) ((src_c_x - src_area.getWest()) * 256
+							/ (src_area.getEast() - src_area.getWest()) + 0.5);
+					if (pix_x >= 0 && pix_x <= 255) {
+						srcTileX[x] = tx;
+						srcPixX[x] = pix_x;
 					}
-					image.drawSubImage(area, result);
+				}
+			}
+
+			/* --- Source tile row and pixel line for each destination line --- */
+			int[] srcTileY = new int[height];
+			int[] srcPixY = new int[height];
+			Arrays.fill(srcTileY, -1);
+			for (int y = 0; y < height; y++) {
+				double src_c_y = area.getNorth() + (area.getSouth() - area.getNorth()) * y / height;
+				for (int ty = 0; ty <= yMax - yMin; ty++) {
+					BoundingRect src_area = tiles[ty * tileColumns].getBoundingRect();
+					int pix_y = (int) ((src_c_y - src_area.getNorth()) * 256
+							/ (src_area.getSouth() - src_area.getNorth()) + 0.5);
+					if (pix_y >= 0 && pix_y <= 255) {
+						srcTileY[y] = ty;
+						srcPixY[y] = pix_y;
+					}
+				}
+			}
+
+			int[][] srcPixels = new int[tiles.length][];
+			for (int i = 0; i < tiles.length; i++)
+				srcPixels[i] = tiles[i].getPixels();
+
+			for (int y = 0; y < height; y++) {
+				if (srcTileY[y] < 0)
+					continue;
+				int tileRow = srcTileY[y] * tileColumns;
+				int srcLine = srcPixY[y] * 256;
+				int dstLine = y * width;
+				for (int x = 0; x < width; x++) {
+					if (srcTileX[x] < 0)
+						continue;
+					int[] src = srcPixels[tileRow + srcTileX[x]];
+					if (src != null)
+						dst[dstLine + x] = src[srcLine + srcPixX[x]];
 				}
 			}
 		} catch (Throwable t) {
 			throw new MapCreationException(map, t);
-		} finally {
-			graph.dispose();
 		}
 		return result;
 	}
 
+	private MobacTile getTile(MapSpace mapSpace, int x, int y) {
+		TileKey key = new TileKey(x, y);
+		synchronized (cache) {
+			MobacTile image = cache.get(key);
+			if (image == null) {
+				image = new MobacTile(tileProvider, mapSpace, x, y, zoom);
+				cache.put(key, image);
+			}
+			return image;
+		}
+	}
+
 	protected static class TileKey {
 		int x;
 		int y;
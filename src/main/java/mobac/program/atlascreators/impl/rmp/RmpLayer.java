@@ -26,12 +26,23 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import mobac.gui.AtlasProgress;
 import mobac.program.atlascreators.AtlasCreator;
 import mobac.program.atlascreators.impl.rmp.interfaces.RmpFileEntry;
+import mobac.program.interfaces.TileImageDataWriter;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 import org.apache.log4j.Logger;
 
@@ -43,7 +54,7 @@ import org.apache.log4j.Logger;
 public class RmpLayer {
 	private static final Logger log = Logger.getLogger(RmpLayer.class);
 
-	private List<Tiledata> tiles;
+	private final List<Tiledata> tiles;
 	private TLMEntry tlmFile = null;
 
 	private final AtlasCreator atlasCreator;
@@ -52,7 +63,7 @@ public class RmpLayer {
 	 * Constructor
 	 */
 	public RmpLayer(AtlasCreator atlasCreator) {
-		tiles = new LinkedList<Tiledata>();
+		tiles = new ArrayList<Tiledata>();
 		this.atlasCreator = atlasCreator;
 	}
 
@@ -77,22 +88,38 @@ public class RmpLayer {
 		tiles.add(tileData);
 	}
 
+	/**
+	 * Calculate the number of containers for the tiles. 99 tiles per container would be possible but we limit
+	 * ourselves to 80 - That's enough
+	 */
+	private int getContainerCount() {
+		int count = tiles.size();
+		int containerCount = count / 80;
+		if (count % 80 != 0)
+			containerCount++;
+		return containerCount;
+	}
+
+	/**
+	 * Size of the TLM file with the specified number of tile containers
+	 */
+	private static int getTLMFileSize(int containerCount) {
+		int size = 256 + 1940 + 3 * 1992;
+		size += containerCount * 1992;
+		if (containerCount != 1)
+			size += 1992;
+		return size;
+	}
+
 	/**
 	 * distribute the tiles over containers of max 256 tiles
 	 */
 	private TileContainer buildTileTree() {
 		TileContainer[] container;
 		TileContainer indexContainer = null;
-		int containerCount;
 
-		/*
-		 * --- Calculate the number of tiles and tiles per container. 99 would
-		 * be possible but we limit ourselves to 80 - That's enough ---
-		 */
 		int count = tiles.size();
-		containerCount = count / 80;
-		if (count % 80 != 0)
-			containerCount++;
+		int containerCount = getContainerCount();
 
 		int tilesPerContainer = count / containerCount;
 
@@ -150,14 +177,12 @@ public class RmpLayer {
 	}
 
 	/**
-	 * Create the TLM file from the TileContainer infos
-	 * 
-	 * @throws IOException
+	 * Create the TLM file. The content is created via {@link TLMEntry#updateContent()} after the tiles have been
+	 * written.
 	 */
 	public void buildTLMFile(double tile_width, double tile_height, double left, double right,
-			double top, double bottom) throws IOException {
+			double top, double bottom) {
 		tlmFile = new TLMEntry(tile_width, tile_height, left, right, top, bottom);
-		tlmFile.updateContent();
 	}
 
 	public class TLMEntry implements RmpFileEntry {
@@ -182,6 +207,17 @@ public class RmpLayer {
 			this.bottom = bottom;
 		}
 
+		/**
+		 * The size of the TLM file depends only on the number of tiles, therefore it is known before the tiles are
+		 * written.
+		 */
+		public long getContentLength() {
+			return getTLMFileSize(getContainerCount());
+		}
+
+		/**
+		 * Creates the TLM content from the tile sizes recorded while writing the A00 file
+		 */
 		public void updateContent() throws IOException {
 			// calculate offset of each tile in A00 file
 			int totaloffset = 4;
@@ -216,10 +252,7 @@ public class RmpLayer {
 			RmpTools.writeValue(bos, 256, 2); // Tile size ????
 			RmpTools.writeValue(bos, 0, 2); // Filler
 
-			int size = 256 + 1940 + 3 * 1992;
-			size += container.getContainerCount() * 1992;
-			if (container.getContainerCount() != 1)
-				size += 1992;
+			int size = getTLMFileSize(container.getContainerCount());
 			RmpTools.writeValue(bos, size, 4); // File size
 
 			RmpTools.writeValue(bos, 0, 96); // Filler
@@ -275,24 +308,91 @@ public class RmpLayer {
 			return name;
 		}
 
+		/**
+		 * Writes all tiles. The tile images are rendered and encoded in parallel by one worker per available CPU
+		 * core, the tiles are written in their original order.
+		 */
 		public void writeFileContent(OutputStream os) throws IOException, InterruptedException {
 			BufferedOutputStream bos = new BufferedOutputStream(os, 32768);
 			/* --- Number of tiles --- */
 			RmpTools.writeValue(bos, tiles.size(), 4);
+			if (tiles.isEmpty()) {
+				bos.flush();
+				return;
+			}
+
+			int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tiles.size()));
+			TileImageDataWriter prototype = tiles.get(0).getWriter();
+			final BlockingQueue<TileImageDataWriter> writers = new ArrayBlockingQueue<TileImageDataWriter>(
+					threadCount);
+			writers.add(prototype);
+			for (int i = 1; i < threadCount; i++) {
+				TileImageDataWriter w = prototype.newInstance();
+				w.initialize();
+				writers.add(w);
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+					DelayedInterruptThread.createThreadFactory());
+			LinkedList<Future<byte[]>> pendingTiles = new LinkedList<Future<byte[]>>();
+			int maxPendingTiles = threadCount * 2;
 
 			AtlasProgress atlasProgress = atlasCreator.getAtlasProgress();
 			/* --- The tiles --- */
 			int x = 0;
 			int xMax = tiles.size();
-			for (Tiledata tile : tiles) {
-				tile.writeTileData(bos);
-				atlasCreator.checkUserAbort();
-
-				atlasProgress.setMapCreationProgress((1000 * x++ / xMax));
+			try {
+				int submitted = 0;
+				for (Tiledata tile : tiles) {
+					// Keep the workers busy: create the tiles ahead of the one written next
+					while (submitted < xMax && pendingTiles.size() < maxPendingTiles) {
+						final Tiledata td = tiles.get(submitted++);
+						pendingTiles.add(executor.submit(new Callable<byte[]>() {
+
+							public byte[] call() throws Exception {
+								TileImageDataWriter w = writers.take();
+								try {
+									return td.createTileData(w);
+								} finally {
+									writers.add(w);
+								}
+							}
+						}));
+					}
+					tile.writeTileData(bos, getTileData(pendingTiles.removeFirst()));
+					atlasCreator.checkUserAbort();
+
+					atlasProgress.setMapCreationProgress((1000 * x++ / xMax));
+				}
+			} finally {
+				for (Future<byte[]> future : pendingTiles)
+					future.cancel(true);
+				executor.shutdownNow();
+				try {
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+				} catch (InterruptedException e) {
+					// Aborted - the cleanup below has to be performed anyway
+					Thread.currentThread().interrupt();
+				}
+				for (TileImageDataWriter w : writers)
+					if (w != prototype)
+						w.dispose();
 			}
 			bos.flush();
 		}
 
+		private byte[] getTileData(Future<byte[]> future) throws IOException, InterruptedException {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof InterruptedException)
+					throw (InterruptedException) cause;
+				throw new IOException(cause);
+			}
+		}
+
 		@Override
 		public String toString() {
 			return "A00Entry";
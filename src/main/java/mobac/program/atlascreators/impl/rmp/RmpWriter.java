@@ -31,10 +31,8 @@ import java.util.ArrayList;
 import mobac.program.atlascreators.impl.rmp.interfaces.RmpFileEntry;
 import mobac.program.atlascreators.impl.rmp.rmpfile.RmpIni;
 import mobac.utilities.Utilities;
-import mobac.utilities.stream.CountingOutputStream;
 import mobac.utilities.stream.RandomAccessFileOutputStream;
 
-import org.apache.commons.io.output.NullOutputStream;
 import org.apache.log4j.Logger;
 
 /**
@@ -103,15 +101,21 @@ public class RmpWriter {
 		log.debug("Written data of entry " + entry + " bytes=" + info.length);
 	}
 
-	public void prepareFileEntry(RmpFileEntry entry) throws IOException, InterruptedException {
+	/**
+	 * Reserves the space for an entry whose content is written later via {@link #writePreparedFileEntry(RmpFileEntry)}
+	 * 
+	 * @param entry
+	 * @param length
+	 *            length of the entry content - has to be known in advance
+	 * @throws IOException
+	 */
+	public void prepareFileEntry(RmpFileEntry entry, long length) throws IOException {
 		EntryInfo info = new EntryInfo();
 		info.name = entry.getFileName();
 		info.extendsion = entry.getFileExtension();
 		long pos = rmpOutputFile.getFilePointer();
 		info.offset = pos;
-		CountingOutputStream cout = new CountingOutputStream(new NullOutputStream());
-		entry.writeFileContent(cout);
-		info.length = cout.getBytesWritten();
+		info.length = length;
 		long newPos = pos + info.length;
 		if ((info.length % 2) != 0)
 			newPos++;
@@ -55,19 +55,34 @@ public class Tiledata {
 		return dataSize;
 	}
 
-	public void writeTileData(OutputStream out) throws IOException {
+	public TileImageDataWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Renders and encodes the tile image. Different tiles may be created concurrently if each thread uses its own
+	 * writer.
+	 * 
+	 * @param writer
+	 * @return encoded tile image
+	 * @throws IOException
+	 */
+	public byte[] createTileData(TileImageDataWriter writer) throws IOException {
 		try {
 			BufferedImage image = si.getSubImage(rect, 256, 256);
 			ByteArrayOutputStream bout = new ByteArrayOutputStream(16384);
 			writer.processImage(image, bout);
-			byte[] data = bout.toByteArray();
-			dataSize = data.length;
-			// Utilities.saveBytes(String.format("D:/jpg/mobac-%04d-%04d.jpg", posx, posy), data);
-			RmpTools.writeValue(out, dataSize, 4);
-			out.write(data);
+			return bout.toByteArray();
 		} catch (MapCreationException e) {
 			throw new IOException(e.getCause());
 		}
 	}
 
+	public void writeTileData(OutputStream out, byte[] data) throws IOException {
+		dataSize = data.length;
+		// Utilities.saveBytes(String.format("D:/jpg/mobac-%04d-%04d.jpg", posx, posy), data);
+		RmpTools.writeValue(out, dataSize, 4);
+		out.write(data);
+	}
+
 }
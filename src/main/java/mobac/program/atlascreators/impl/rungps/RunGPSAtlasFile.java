@@ -18,14 +18,16 @@ package mobac.program.atlascreators.impl.rungps;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import mobac.program.atlascreators.impl.OffsetTableFileWriter;
 import mobac.utilities.Charsets;
 import mobac.utilities.Utilities;
 
@@ -36,6 +38,8 @@ import mobac.utilities.Utilities;
 public class RunGPSAtlasFile {
 
 	public final static String SUFFIX = ".ratlas";
+	private final static int NODE_SIZE = 20; // bytes
+	File atlasFile;
 	RandomAccessFile raf;
 	RunGPSAtlasHeader rah = new RunGPSAtlasHeader();
 	File cacheFile;
@@ -44,6 +48,15 @@ public class RunGPSAtlasFile {
 	int offset = 0;
 	int indexLength = 0;
 
+	/*
+	 * In write mode the index nodes are kept in memory and written in one pass by finishArchive(). The node at
+	 * position i is located at offset + i * NODE_SIZE in the atlas file.
+	 */
+	int[] nodeKeys;
+	long[] nodeValues;
+	int[] nodeNext;
+	int[] nodeChild;
+
 	public class RAINode {
 
 		RAINode() {
@@ -62,6 +75,14 @@ public class RunGPSAtlasFile {
 
 		void readFrom(int index) throws IOException {
 			this.index = index;
+			if (nodeKeys != null) {
+				int i = (index - offset) / NODE_SIZE;
+				key = nodeKeys[i];
+				value = nodeValues[i];
+				next = nodeNext[i];
+				child = nodeChild[i];
+				return;
+			}
 			raf.seek(index);
 			key = raf.readInt();
 			value = raf.readLong();
@@ -70,20 +91,25 @@ public class RunGPSAtlasFile {
 		}
 
 		void writeNew() throws IOException {
-			raf.seek(indexLength); // go to end
-			raf.writeInt(key);
-			raf.writeLong(value);
-			raf.writeInt(next);
-			raf.writeInt(child);
+			int i = (indexLength - offset) / NODE_SIZE;
+			if (i == nodeKeys.length) {
+				int capacity = 2 * i;
+				nodeKeys = Arrays.copyOf(nodeKeys, capacity);
+				nodeValues = Arrays.copyOf(nodeValues, capacity);
+				nodeNext = Arrays.copyOf(nodeNext, capacity);
+				nodeChild = Arrays.copyOf(nodeChild, capacity);
+			}
+			nodeKeys[i] = key;
 			this.index = indexLength;
-			indexLength += 20;
+			indexLength += NODE_SIZE;
+			write();
 		}
 
 		void write() throws IOException {
-			raf.seek(index + 4);
-			raf.writeLong(value);
-			raf.writeInt(next);
-			raf.writeInt(child);
+			int i = (index - offset) / NODE_SIZE;
+			nodeValues[i] = value;
+			nodeNext[i] = next;
+			nodeChild[i] = child;
 		}
 
 		String listAll() throws IOException {
@@ -208,11 +234,11 @@ public class RunGPSAtlasFile {
 		public final static int FILE_VERSION = 3;
 		int indexSize; // bytes
 
-		public void writeHeader() throws IOException {
-			raf.seek(0);
-			raf.writeLong(FILETYPE_KEY);
-			raf.writeInt(FILE_VERSION);
-			raf.writeInt(indexSize);
+		public void writeHeader(OffsetTableFileWriter out) throws IOException {
+			out.writeLong(FILETYPE_KEY);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(indexSize);
+			out.write(new byte[HEADER_SIZE - 16]);
 		}
 
 		public boolean readHeader() throws IOException {
@@ -239,11 +265,15 @@ public class RunGPSAtlasFile {
 		this.offset = RunGPSAtlasHeader.HEADER_SIZE;
 
 		if (write) {
+			atlasFile = new File(filePath);
 			cacheFile = new File(filePath + ".cac");
 			cacheOutStream = new BufferedOutputStream(new FileOutputStream(cacheFile), 8216);
 
-			raf = new RandomAccessFile(filePath, "rw");
-			raf.setLength(0); // delete existing content
+			int capacity = 1024;
+			nodeKeys = new int[capacity];
+			nodeValues = new long[capacity];
+			nodeNext = new int[capacity];
+			nodeChild = new int[capacity];
 
 			indexLength = offset;
 			RAINode root = new RAINode();
@@ -277,24 +307,23 @@ public class RunGPSAtlasFile {
 		cacheOutStream.close();
 		cacheOutStream = null;
 
-		FileInputStream fis = new FileInputStream(cacheFile);
-
-		rah.indexSize = indexLength - RunGPSAtlasHeader.HEADER_SIZE;
-		rah.writeHeader();
-
-		byte[] buf = new byte[4096];
-
-		raf.seek(indexLength);
-		for (;;) {
-			int l = fis.read(buf);
-			if (l <= 0) {
-				break;
-
+		OffsetTableFileWriter out = new OffsetTableFileWriter(atlasFile, ByteOrder.BIG_ENDIAN);
+		try {
+			rah.indexSize = indexLength - RunGPSAtlasHeader.HEADER_SIZE;
+			rah.writeHeader(out);
+
+			int nodeCount = (indexLength - offset) / NODE_SIZE;
+			for (int i = 0; i < nodeCount; i++) {
+				out.writeInt(nodeKeys[i]);
+				out.writeLong(nodeValues[i]);
+				out.writeInt(nodeNext[i]);
+				out.writeInt(nodeChild[i]);
 			}
-			raf.write(buf, 0, l);
-		}
 
-		fis.close();
+			out.write(cacheFile);
+		} finally {
+			out.close();
+		}
 
 		Utilities.deleteFile(cacheFile);
 		close();
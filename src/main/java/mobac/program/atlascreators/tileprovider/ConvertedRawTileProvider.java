@@ -19,6 +19,7 @@ package mobac.program.atlascreators.tileprovider;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.imageio.ImageIO;
 
@@ -28,15 +29,25 @@ import mobac.program.model.TileImageFormat;
 /**
  * Loads a tile from the underlying {@link TileProvider}, loads the tile to memory, converts it to the desired
  * {@link TileImageFormat} and returns the binary representation of the image in the specified format.
+ * <p>
+ * Tiles may be requested by multiple threads concurrently, each conversion uses its own
+ * {@link TileImageDataWriter}.
+ * </p>
  */
 public class ConvertedRawTileProvider extends FilterTileProvider {
 
-	private TileImageDataWriter writer;
+	private final TileImageDataWriter writer;
+
+	/**
+	 * Initialized writers currently not in use
+	 */
+	private final ConcurrentLinkedQueue<TileImageDataWriter> idleWriters = new ConcurrentLinkedQueue<TileImageDataWriter>();
 
 	public ConvertedRawTileProvider(TileProvider tileProvider, TileImageFormat tileImageFormat) {
 		super(tileProvider);
 		writer = tileImageFormat.getDataWriter();
 		writer.initialize();
+		idleWriters.add(writer);
 		ImageIO.setUseCache(false);
 	}
 
@@ -44,9 +55,18 @@ public class ConvertedRawTileProvider extends FilterTileProvider {
 		BufferedImage image = getTileImage(x, y);
 		if (image == null)
 			return null;
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream(32000);
-		writer.processImage(image, buffer);
-		return buffer.toByteArray();
+		TileImageDataWriter w = idleWriters.poll();
+		if (w == null) {
+			w = writer.newInstance();
+			w.initialize();
+		}
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(32000);
+			w.processImage(image, buffer);
+			return buffer.toByteArray();
+		} finally {
+			idleWriters.add(w);
+		}
 	}
 
 	public boolean preferTileImageUsage() {
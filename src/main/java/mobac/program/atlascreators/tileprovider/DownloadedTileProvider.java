@@ -17,14 +17,15 @@
 package mobac.program.atlascreators.tileprovider;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
 import mobac.program.interfaces.MapInterface;
 import mobac.program.interfaces.MapSource;
 import mobac.program.model.TileImageType;
+import mobac.utilities.stream.ByteBufferInputStream;
 import mobac.utilities.tar.TarIndex;
 
 import org.apache.log4j.Logger;
@@ -33,8 +34,6 @@ public class DownloadedTileProvider implements TileProvider {
 
 	private static final Logger log = Logger.getLogger(DownloadedTileProvider.class);
 
-	public static final String TILE_FILENAME_PATTERN = "x%dy%d";
-
 	protected final TarIndex tarIndex;
 	protected final MapInterface map;
 	protected final TileImageType mapTileType;
@@ -46,18 +45,25 @@ public class DownloadedTileProvider implements TileProvider {
 	}
 
 	public byte[] getTileData(int x, int y) throws IOException {
-		log.trace("Reading tile x=" + x + " y=" + y);
-		return tarIndex.getEntryContent(String.format(TILE_FILENAME_PATTERN, x, y));
+		if (log.isTraceEnabled())
+			log.trace("Reading tile x=" + x + " y=" + y);
+		return tarIndex.getEntryContent(x, y);
 	}
 
 	public BufferedImage getTileImage(int x, int y) throws IOException {
-		byte[] unconvertedTileData = getTileData(x, y);
-		if (unconvertedTileData == null)
-			return null;
+		// The tile is decoded directly from the mapped tile archive
+		tarIndex.beginRead();
 		try {
-			return ImageIO.read(new ByteArrayInputStream(unconvertedTileData));
-		} catch (Exception e) {
-			throw new IOException("Unable to load image x=" + x + " y=" + y + " - error: " + e);
+			ByteBuffer unconvertedTileData = tarIndex.getEntryBuffer(x, y);
+			if (unconvertedTileData == null)
+				return null;
+			try {
+				return ImageIO.read(new ByteBufferInputStream(unconvertedTileData));
+			} catch (Exception e) {
+				throw new IOException("Unable to load image x=" + x + " y=" + y + " - error: " + e);
+			}
+		} finally {
+			tarIndex.endRead();
 		}
 	}
 
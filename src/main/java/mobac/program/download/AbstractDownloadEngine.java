@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.download;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mobac.exceptions.StopAllDownloadsException;
+import mobac.program.JobDispatcher;
+import mobac.program.JobDispatcher.JobGroup;
+import mobac.program.PauseResumeHandler;
+import mobac.program.interfaces.MapSourceListener;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Base class of the download engines that execute the {@link DownloadJob}s outside of the {@link JobDispatcher} worker
+ * threads. A worker thread only hands over the job via {@link #submit(DownloadJob)} and continues with the next one.
+ * Implementations decide on which thread the job is executed and how the number of parallel requests is limited.
+ * <p>
+ * The job stays outstanding in its {@link JobGroup} until the download has been completed. Statistics are forwarded to
+ * the {@link MapSourceListener} of the dispatcher via {@link DownloadContext}.
+ * </p>
+ */
+public abstract class AbstractDownloadEngine {
+
+	protected static final Logger log = Logger.getLogger(AbstractDownloadEngine.class);
+
+	/**
+	 * Time span in seconds an idle engine thread waits for new requests before it terminates itself.
+	 */
+	protected static final int IDLE_THREAD_TIMEOUT = 30;
+
+	protected final JobDispatcher dispatcher;
+	protected final PauseResumeHandler pauseResumeHandler;
+	protected final MapSourceListener mapSourceListener;
+
+	private final AtomicInteger pendingRequests = new AtomicInteger(0);
+
+	protected volatile boolean shutdown = false;
+
+	public AbstractDownloadEngine(JobDispatcher dispatcher, PauseResumeHandler pauseResumeHandler,
+			MapSourceListener mapSourceListener) {
+		this.dispatcher = dispatcher;
+		this.pauseResumeHandler = pauseResumeHandler;
+		this.mapSourceListener = mapSourceListener;
+	}
+
+	/**
+	 * Schedules the execution of the specified job. Blocks until the request limit of the engine allows another request.
+	 * 
+	 * @param job
+	 * @throws InterruptedException
+	 */
+	public void submit(DownloadJob job) throws InterruptedException {
+		if (shutdown)
+			throw new InterruptedException("Download engine has been shut down");
+		acquirePermit(job);
+		pendingRequests.incrementAndGet();
+		JobGroup jobGroup = dispatcher.getCurrentJobGroup();
+		if (jobGroup != null)
+			jobGroup.jobAdded();
+		RequestTask task = new RequestTask(job, jobGroup);
+		try {
+			getExecutor(job).execute(task);
+		} catch (RejectedExecutionException e) {
+			task.finished();
+			throw new InterruptedException("Download engine has been shut down");
+		}
+	}
+
+	/**
+	 * Blocks until the specified job is allowed to be executed.
+	 */
+	protected abstract void acquirePermit(DownloadJob job) throws InterruptedException;
+
+	protected abstract void releasePermit(DownloadJob job);
+
+	/**
+	 * @return the executor performing the download of the specified job
+	 */
+	protected abstract Executor getExecutor(DownloadJob job);
+
+	/**
+	 * @return number of requests that have been submitted but are not yet completed
+	 */
+	public int getPendingRequestCount() {
+		return pendingRequests.get();
+	}
+
+	/**
+	 * Interrupts all running requests and discards all waiting ones.
+	 */
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/**
+	 * Performs the bookkeeping for requests that have been discarded without execution.
+	 * 
+	 * @param droppedRequests
+	 *            as returned by {@link java.util.concurrent.ExecutorService#shutdownNow()}
+	 */
+	protected void requestsDropped(List<Runnable> droppedRequests) {
+		for (Runnable r : droppedRequests)
+			((RequestTask) r).finished();
+	}
+
+	protected class RequestTask implements Runnable {
+
+		private final DownloadJob job;
+		private final JobGroup jobGroup;
+
+		public RequestTask(DownloadJob job, JobGroup jobGroup) {
+			this.job = job;
+			this.jobGroup = jobGroup;
+		}
+
+		public void run() {
+			dispatcher.setCurrentJobGroup(jobGroup);
+			DownloadContext.setMapSourceListener(mapSourceListener);
+			try {
+				pauseResumeHandler.pauseWait();
+				job.runDownload(dispatcher);
+			} catch (InterruptedException e) {
+				log.trace("Request interrupted: " + job);
+			} catch (StopAllDownloadsException e) {
+				log.warn("All downloads has been stoppened: " + e.getMessage());
+				dispatcher.terminateAllWorkerThreads();
+			} catch (Exception e) {
+				log.error("Unknown error occured while executing the job: ", e);
+			} finally {
+				DownloadContext.setMapSourceListener(null);
+				dispatcher.setCurrentJobGroup(null);
+				finished();
+			}
+		}
+
+		/**
+		 * Releases the request permit - called after execution or if the request has been dropped.
+		 */
+		protected void finished() {
+			if (jobGroup != null)
+				jobGroup.jobFinished();
+			pendingRequests.decrementAndGet();
+			releasePermit(job);
+		}
+	}
+
+	/**
+	 * Engine threads are {@link DelayedInterruptThread}s as the tile store relies on
+	 * {@link DelayedInterruptThread#pauseInterrupt()} while writing tiles.
+	 */
+	protected static class EngineThread extends DelayedInterruptThread {
+
+		public EngineThread(Runnable target, String name) {
+			super(target, name);
+			setDaemon(true);
+		}
+	}
+}
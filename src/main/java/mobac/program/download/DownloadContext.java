@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.download;
+
+import mobac.program.interfaces.MapSourceListener;
+
+/**
+ * Provides the {@link MapSourceListener} that has to be informed about downloaded and cached tiles by the code
+ * executed on the current thread. Threads that always work for the same listener (e.g. the atlas worker threads)
+ * implement {@link MapSourceListener} themselves. Pooled threads that execute jobs for different listeners register the
+ * listener for the time of the job execution via {@link #setMapSourceListener(MapSourceListener)}.
+ */
+public class DownloadContext {
+
+	private static final ThreadLocal<MapSourceListener> MAP_SOURCE_LISTENER = new ThreadLocal<MapSourceListener>();
+
+	/**
+	 * @return the listener registered for the current thread, the current thread itself if it is a
+	 *         {@link MapSourceListener} or <code>null</code> otherwise (e.g. map preview threads)
+	 */
+	public static MapSourceListener getMapSourceListener() {
+		MapSourceListener listener = MAP_SOURCE_LISTENER.get();
+		if (listener != null)
+			return listener;
+		Thread t = Thread.currentThread();
+		if (t instanceof MapSourceListener)
+			return (MapSourceListener) t;
+		return null;
+	}
+
+	/**
+	 * @param listener
+	 *            listener for the current thread or <code>null</code> for removing the registered listener
+	 */
+	public static void setMapSourceListener(MapSourceListener listener) {
+		if (listener != null)
+			MAP_SOURCE_LISTENER.set(listener);
+		else
+			MAP_SOURCE_LISTENER.remove();
+	}
+
+}
@@ -24,8 +24,8 @@ import mobac.exceptions.StopAllDownloadsException;
 import mobac.exceptions.UnrecoverableDownloadException;
 import mobac.program.JobDispatcher;
 import mobac.program.JobDispatcher.Job;
-import mobac.program.atlascreators.tileprovider.DownloadedTileProvider;
 import mobac.program.interfaces.DownloadJobListener;
+import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSource;
 import mobac.program.interfaces.MapSource.LoadMethod;
 import mobac.utilities.tar.TarIndexedArchive;
@@ -56,16 +56,24 @@ public class DownloadJob implements Job {
 	}
 
 	public void run(JobDispatcher dispatcher) throws Exception {
+		AbstractDownloadEngine downloadEngine = dispatcher.getDownloadEngine();
+		if (downloadEngine != null && mapSource instanceof HttpMapSource)
+			downloadEngine.submit(this);
+		else
+			runDownload(dispatcher);
+	}
+
+	/**
+	 * Performs the actual tile download - either directly on the worker thread or on a connection thread of the
+	 * {@link AbstractDownloadEngine}.
+	 */
+	void runDownload(JobDispatcher dispatcher) throws Exception {
 		try {
 			// Thread.sleep(1500);
 			listener.jobStarted();
 			byte[] tileData = mapSource.getTileData(zoomValue, xValue, yValue, LoadMethod.DEFAULT);
-			String tileFileName = String.format(DownloadedTileProvider.TILE_FILENAME_PATTERN, xValue, yValue);
-			if (tileArchive != null) {
-				synchronized (tileArchive) {
-					tileArchive.writeFileFromData(tileFileName, tileData);
-				}
-			}
+			if (tileArchive != null)
+				tileArchive.writeTile(xValue, yValue, tileData);
 			listener.jobFinishedSuccessfully(tileData.length);
 		} catch (UnrecoverableDownloadException e) {
 			listener.jobFinishedWithError(false);
@@ -94,7 +102,7 @@ public class DownloadJob implements Job {
 			listener.jobFinishedWithError(true);
 			log.warn("Download of tile z" + zoomValue + "_x" + xValue + "_y" + yValue + " failed: \"" + e.getMessage()
 					+ "\" (tries: " + errorCounter + ") - rescheduling download job");
-			dispatcher.addErrorJob(this);
+			dispatcher.addErrorJob(this, errorCounter);
 		} else {
 			listener.jobFinishedWithError(false);
 			log.error("Download of tile z" + zoomValue + "_x" + xValue + "_y" + yValue + " failed again: \""
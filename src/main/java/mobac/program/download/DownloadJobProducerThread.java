@@ -21,7 +21,9 @@ import java.util.Enumeration;
 import mobac.program.AtlasThread;
 import mobac.program.JobDispatcher;
 import mobac.program.JobDispatcher.Job;
+import mobac.program.JobDispatcher.JobGroup;
 import mobac.program.interfaces.DownloadableElement;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
 import mobac.utilities.tar.TarIndexedArchive;
 
 import org.apache.log4j.Logger;
@@ -29,35 +31,48 @@ import org.apache.log4j.Logger;
 
 /**
  * Creates the jobs for downloading tiles. If the job queue is full it will
- * block on {@link JobDispatcher#addJob(Job)}
+ * block on {@link JobDispatcher#addJob(Job, JobGroup)}. The job enumerator may
+ * read tiles from the tile store, therefore this is a
+ * {@link DelayedInterruptThread}.
  */
-public class DownloadJobProducerThread extends Thread {
+public class DownloadJobProducerThread extends DelayedInterruptThread {
 
 	private Logger log = Logger.getLogger(DownloadJobProducerThread.class);
 
 	final JobDispatcher downloadJobDispatcher;
 
+	final JobGroup jobGroup;
+
 	final Enumeration<Job> jobEnumerator;
 
+	final AtlasThread atlasThread;
+
 	public DownloadJobProducerThread(AtlasThread atlasThread, JobDispatcher downloadJobDispatcher,
-			TarIndexedArchive tileArchive, DownloadableElement de) {
+			JobGroup jobGroup, TarIndexedArchive tileArchive, DownloadableElement de) {
+		super("DownloadJobProducer");
+		this.atlasThread = atlasThread;
 		this.downloadJobDispatcher = downloadJobDispatcher;
+		this.jobGroup = jobGroup;
 		jobEnumerator = de.getDownloadJobs(tileArchive, atlasThread);
 		start();
 	}
 
 	@Override
 	public void run() {
+		// Tiles taken from the tile store by the job enumerator are reported to the atlas progress
+		DownloadContext.setMapSourceListener(atlasThread.getAtlasProgress());
 		try {
 			while (jobEnumerator.hasMoreElements()) {
 				Job job = jobEnumerator.nextElement();
-				downloadJobDispatcher.addJob(job);
+				downloadJobDispatcher.addJob(job, jobGroup);
 				log.trace("Job added: " + job);
 			}
 			log.debug("All download jobs has been generated");
 		} catch (InterruptedException e) {
 			downloadJobDispatcher.cancelOutstandingJobs();
 			log.error("Download job generation interrupted");
+		} finally {
+			jobGroup.allJobsAdded();
 		}
 	}
 
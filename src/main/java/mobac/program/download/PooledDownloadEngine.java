@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.download;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mobac.program.JobDispatcher;
+import mobac.program.PauseResumeHandler;
+import mobac.program.interfaces.MapSource;
+import mobac.program.interfaces.MapSourceListener;
+import mobac.program.model.DownloadEngine;
+
+/**
+ * Download engine that performs the tile requests on a thread pool dedicated to the map source (see
+ * {@link DownloadEngine#CONNECTION_POOL}). Each pool thread performs one blocking {@link java.net.HttpURLConnection}
+ * request at a time, therefore the pool size limits the number of parallel connections to a map source. The number of
+ * submitted requests (running and waiting for a pool thread) is limited globally. Keep-alive connections are reused
+ * by the JDK as usual.
+ * <p>
+ * Tile store lookups, ETag/If-Modified-Since checks and tile store updates are still performed by {@link TileDownLoader}
+ * - only the thread executing it changes.
+ * </p>
+ */
+public class PooledDownloadEngine extends AbstractDownloadEngine {
+
+	private final int maxConnectionsPerHost;
+
+	/**
+	 * Limits the number of requests in flight - {@link #submit(DownloadJob)} blocks if no permit is available.
+	 */
+	private final Semaphore requestPermits;
+
+	private final ConcurrentHashMap<String, ThreadPoolExecutor> hostPools = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+
+	public PooledDownloadEngine(JobDispatcher dispatcher, PauseResumeHandler pauseResumeHandler,
+			MapSourceListener mapSourceListener, int maxRequestsInFlight, int maxConnectionsPerHost) {
+		super(dispatcher, pauseResumeHandler, mapSourceListener);
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		this.requestPermits = new Semaphore(Math.max(1, maxRequestsInFlight));
+		log.debug("Pooled download engine started: max requests in flight=" + maxRequestsInFlight
+				+ " max connections per host=" + maxConnectionsPerHost);
+	}
+
+	@Override
+	protected void acquirePermit(DownloadJob job) throws InterruptedException {
+		requestPermits.acquire();
+	}
+
+	@Override
+	protected void releasePermit(DownloadJob job) {
+		requestPermits.release();
+	}
+
+	@Override
+	protected Executor getExecutor(DownloadJob job) {
+		return getHostPool(job.mapSource);
+	}
+
+	@Override
+	public void shutdown() {
+		super.shutdown();
+		for (ThreadPoolExecutor pool : hostPools.values())
+			requestsDropped(pool.shutdownNow());
+		hostPools.clear();
+	}
+
+	/**
+	 * Multi-layer map sources may request tiles from more than one server, therefore the pools are separated per map
+	 * source which for regular map sources is identical to one pool per tile server.
+	 */
+	protected ThreadPoolExecutor getHostPool(MapSource mapSource) {
+		final String key = mapSource.getName();
+		ThreadPoolExecutor pool = hostPools.get(key);
+		if (pool != null)
+			return pool;
+		pool = new ThreadPoolExecutor(maxConnectionsPerHost, maxConnectionsPerHost, IDLE_THREAD_TIMEOUT,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+					private int threadNum = 0;
+
+					public synchronized Thread newThread(Runnable r) {
+						return new EngineThread(r, String.format("Connection %s %02d", key, threadNum++));
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		ThreadPoolExecutor existingPool = hostPools.putIfAbsent(key, pool);
+		if (existingPool != null) {
+			pool.shutdown();
+			return existingPool;
+		}
+		if (shutdown)
+			pool.shutdownNow();
+		return pool;
+	}
+
+}
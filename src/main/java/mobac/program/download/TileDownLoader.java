@@ -26,6 +26,7 @@ import mobac.exceptions.UnrecoverableDownloadException;
 import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSourceListener;
 import mobac.program.interfaces.MapSpace;
+import mobac.program.model.DownloadEngine;
 import mobac.program.model.Settings;
 import mobac.program.model.TileImageType;
 import mobac.program.tilestore.TileStore;
@@ -43,7 +44,15 @@ public class TileDownLoader {
 		Object defaultReadTimeout = System.getProperty("sun.net.client.defaultReadTimeout");
 		if (defaultReadTimeout == null)
 			System.setProperty("sun.net.client.defaultReadTimeout", "15000");
-		System.setProperty("http.maxConnections", "20");
+		Object maxConnections = System.getProperty("http.maxConnections");
+		if (maxConnections == null) {
+			// Size of the keep-alive connection cache per server - has to cover the parallel requests of the selected
+			// download engine: the connection pool per map source or the worker threads
+			int parallelRequests = settings.downloadThreadCount;
+			if (settings.downloadEngine == DownloadEngine.CONNECTION_POOL)
+				parallelRequests = settings.downloadMaxConnectionsPerHost;
+			System.setProperty("http.maxConnections", Integer.toString(Math.max(20, parallelRequests)));
+		}
 	}
 
 	private static Logger log = Logger.getLogger(TileDownLoader.class);
@@ -70,17 +79,23 @@ public class TileDownLoader {
 		if (settings.tileStoreEnabled) {
 
 			// Copy the file from the persistent tilestore instead of
-			// downloading it from internet.
-			tile = ts.getTile(x, y, zoom, mapSource);
+			// downloading it from internet. Only the meta data is loaded
+			// here, the tile data is loaded if the stored tile is used.
+			tile = ts.getTileMeta(x, y, zoom, mapSource);
 			boolean expired = isTileExpired(tile);
 			if (tile != null) {
 				if (expired) {
 					log.trace("Expired: " + mapSource.getName() + " " + tile);
 				} else {
-					log.trace("Tile of map source " + mapSource.getName() + " used from tilestore");
 					byte[] data = tile.getData();
-					notifyCachedTileUsed(data.length);
-					return data;
+					if (data != null) {
+						log.trace("Tile of map source " + mapSource.getName() + " used from tilestore");
+						notifyCachedTileUsed(data.length);
+						return data;
+					}
+					// Replaced or released since the meta data has been read - treat it as not stored
+					log.debug("Data of stored tile not available anymore: " + mapSource.getName() + " " + tile);
+					tile = null;
 				}
 			}
 		}
@@ -95,23 +110,28 @@ public class TileDownLoader {
 				notifyTileDownloaded(data.length);
 			} else {
 				data = tile.getData();
-				notifyCachedTileUsed(data.length);
+				if (data != null) {
+					notifyCachedTileUsed(data.length);
+				} else {
+					log.debug("Data of stored tile not available anymore: " + mapSource.getName() + " " + tile);
+					data = downloadTileAndUpdateStore(x, y, zoom, mapSource);
+					notifyTileDownloaded(data.length);
+				}
 			}
 		}
 		return data;
 	}
 
 	private static void notifyTileDownloaded(int size) {
-		if (Thread.currentThread() instanceof MapSourceListener) {
-			((MapSourceListener) Thread.currentThread()).tileDownloaded(size);
-		}
-
+		MapSourceListener listener = DownloadContext.getMapSourceListener();
+		if (listener != null)
+			listener.tileDownloaded(size);
 	}
 
 	private static void notifyCachedTileUsed(int size) {
-		if (Thread.currentThread() instanceof MapSourceListener) {
-			((MapSourceListener) Thread.currentThread()).tileLoadedFromCache(size);
-		}
+		MapSourceListener listener = DownloadContext.getMapSourceListener();
+		if (listener != null)
+			listener.tileLoadedFromCache(size);
 	}
 
 	/**
@@ -296,7 +316,7 @@ public class TileDownLoader {
 		InputStream input = conn.getInputStream();
 		byte[] data = null;
 		try {
-			if (Thread.currentThread() instanceof MapSourceListener) {
+			if (DownloadContext.getMapSourceListener() != null) {
 				// We only throttle atlas downloads, not downloads for the preview map
 				long bandwidthLimit = settings.getBandwidthLimit();
 				if (bandwidthLimit > 0) {
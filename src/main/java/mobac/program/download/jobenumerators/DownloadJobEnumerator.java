@@ -17,44 +17,73 @@
 package mobac.program.download.jobenumerators;
 
 import java.awt.Point;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import mobac.program.JobDispatcher.Job;
+import mobac.program.download.DownloadContext;
 import mobac.program.download.DownloadJob;
+import mobac.program.download.TileDownLoader;
 import mobac.program.interfaces.DownloadJobListener;
+import mobac.program.interfaces.HttpMapSource;
 import mobac.program.interfaces.MapSource;
+import mobac.program.interfaces.MapSourceListener;
 import mobac.program.interfaces.TileFilter;
 import mobac.program.model.Map;
+import mobac.program.model.Settings;
+import mobac.program.tilestore.TileStore;
+import mobac.program.tilestore.TileStoreEntry;
 import mobac.utilities.tar.TarIndexedArchive;
 
+import org.apache.log4j.Logger;
+
 /**
  * Enumerates / creates the download jobs for a regular rectangle single layer map.
+ * 
+ * If the tile store is used by the map source all stored tiles of a column are read at once before the jobs of the
+ * column are created. Tiles that are not expired are directly written to the tile archive - download jobs are only
+ * created for missing and expired tiles.
  */
 public class DownloadJobEnumerator implements Enumeration<Job> {
 
+	private static final Logger log = Logger.getLogger(DownloadJobEnumerator.class);
+
 	final protected TileFilter tileFilter;
 	final protected DownloadJobListener listener;
 	final protected int xMin;
 	final protected int xMax;
+	final protected int yMin;
 	final protected int yMax;
 	final protected int zoom;
 	final protected MapSource mapSource;
 	final protected TarIndexedArchive tileArchive;
 
+	/**
+	 * Tiles of the current column taken from the tile store (index <code>y - yMin</code>) or <code>null</code> if the
+	 * tile store is not used
+	 */
+	final protected boolean[] storedTiles;
+
 	protected int x, y;
-	protected Job nextJob;
+	protected Job nextJob = null;
+	protected boolean finished = false;
 
 	/**
 	 * This enumerator is the unfolded version for two encapsulated loops:
 	 * 
 	 * <pre>
-	 * for (int y = yMin; y &lt;= yMax; y++) {
-	 * 	for (int x = xMin; x &lt;= xMax; x++) {
+	 * for (int x = xMin; x &lt;= xMax; x++) {
+	 * 	for (int y = yMin; y &lt;= yMax; y++) {
 	 * 		DownloadJob job = new DownloadJob(downloadDestinationDir, tileSource, x, y, zoom, AtlasThread.this);
 	 * 	}
 	 * }
 	 * </pre>
 	 * 
+	 * The jobs are created on demand by the thread calling {@link #hasMoreElements()} - the tile store requires a
+	 * {@link mobac.program.tilestore.berkeleydb.DelayedInterruptThread}.
+	 * 
 	 * @param map
 	 * @param tileArchive
 	 * @param listener
@@ -68,39 +97,104 @@ public class DownloadJobEnumerator implements Enumeration<Job> {
 		int tileSize = map.getMapSource().getMapSpace().getTileSize();
 		this.xMin = minCoord.x / tileSize;
 		this.xMax = maxCoord.x / tileSize;
-		int yMin = minCoord.y / tileSize;
+		this.yMin = minCoord.y / tileSize;
 		this.yMax = maxCoord.y / tileSize;
 		this.zoom = map.getZoom();
 		this.tileArchive = tileArchive;
 		this.mapSource = mapSource;
+		if (Settings.getInstance().tileStoreEnabled && isTileStoreDataSource(mapSource))
+			storedTiles = new boolean[yMax - yMin + 1];
+		else
+			storedTiles = null;
 		y = yMin;
 		x = xMin;
+	}
 
-		nextJob = new DownloadJob(mapSource, x, y, zoom, tileArchive, listener);
-		if (!tileFilter.testTile(x, y, zoom, mapSource))
-			nextElement();
+	/**
+	 * @return <code>true</code> if the map source returns the tile data from the tile store unmodified (see
+	 *         {@link TileDownLoader#getImage(int, int, int, HttpMapSource)})
+	 * @see HttpMapSource#isPlainTileDataSource()
+	 */
+	protected static boolean isTileStoreDataSource(MapSource mapSource) {
+		return (mapSource instanceof HttpMapSource) && ((HttpMapSource) mapSource).isPlainTileDataSource();
 	}
 
 	public boolean hasMoreElements() {
+		if (nextJob == null && !finished)
+			nextJob = createNextJob();
 		return (nextJob != null);
 	}
 
 	public Job nextElement() {
+		if (!hasMoreElements())
+			throw new NoSuchElementException();
 		Job job = nextJob;
-		boolean filter = false;
-		do {
-			x++;
-			if (x > xMax) {
-				y++;
-				x = xMin;
-				if (y > yMax) {
-					nextJob = null;
-					return job;
+		nextJob = null;
+		return job;
+	}
+
+	protected Job createNextJob() {
+		while (x <= xMax) {
+			if (y == yMin && storedTiles != null) {
+				try {
+					useStoredTiles(x);
+				} catch (InterruptedException e) {
+					log.debug("Download job generation interrupted");
+					Thread.currentThread().interrupt();
+					break;
 				}
 			}
-			filter = tileFilter.testTile(x, y, zoom, mapSource);
-		} while (!filter);
-		nextJob = new DownloadJob(mapSource, x, y, zoom, tileArchive, listener);
-		return job;
+			int tileX = x;
+			int tileY = y;
+			y++;
+			if (y > yMax) {
+				y = yMin;
+				x++;
+			}
+			if (storedTiles != null && storedTiles[tileY - yMin])
+				continue;
+			if (tileFilter.testTile(tileX, tileY, zoom, mapSource))
+				return new DownloadJob(mapSource, tileX, tileY, zoom, tileArchive, listener);
+		}
+		finished = true;
+		return null;
+	}
+
+	/**
+	 * Reads all stored tiles of the column and writes the tiles that are not expired to the tile archive.
+	 * 
+	 * @param column
+	 * @throws InterruptedException
+	 */
+	protected void useStoredTiles(int column) throws InterruptedException {
+		Arrays.fill(storedTiles, false);
+		List<TileStoreEntry> tiles = TileStore.getInstance().getTileColumn(mapSource, zoom, column, yMin, yMax);
+		MapSourceListener mapSourceListener = DownloadContext.getMapSourceListener();
+		for (TileStoreEntry tile : tiles) {
+			int tileY = tile.getY();
+			if (TileDownLoader.isTileExpired(tile) || !tileFilter.testTile(column, tileY, zoom, mapSource))
+				continue;
+			// Without tile archive (download to tile store only) the tile data is not needed at all
+			int size = 0;
+			if (tileArchive != null) {
+				try {
+					byte[] data = tile.getData();
+					if (data == null)
+						// Not available anymore - let the download job retrieve the tile
+						continue;
+					tileArchive.writeTile(column, tileY, data);
+					size = data.length;
+				} catch (Exception e) {
+					// Let the download job retrieve the tile
+					log.error("Failed to write stored tile to the tile archive: " + e.getMessage());
+					continue;
+				}
+			}
+			storedTiles[tileY - yMin] = true;
+			if (mapSourceListener != null)
+				mapSourceListener.tileLoadedFromCache(size);
+			listener.jobStarted();
+			listener.jobFinishedSuccessfully(size);
+		}
 	}
 }
@@ -60,4 +60,12 @@ public interface HttpMapSource extends MapSource {
 	 */
 	public HttpURLConnection getTileUrlConnection(int zoom, int tilex, int tiley) throws IOException;
 
+	/**
+	 * @return <code>true</code> if {@link #getTileData(int, int, int, LoadMethod)} returns the tile data stored in the
+	 *         tile store for the requested tile coordinates unmodified and
+	 *         {@link #getTileImage(int, int, int, LoadMethod)} only decodes that data. In this case callers may read
+	 *         the tiles directly from the tile store and keep the encoded tile data instead of the image.
+	 */
+	public boolean isPlainTileDataSource();
+
 }
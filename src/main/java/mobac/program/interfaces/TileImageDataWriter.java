@@ -45,4 +45,12 @@ public interface TileImageDataWriter {
 	
 	public TileImageType getType();
 
+	/**
+	 * Creates a new independent writer with the same settings as this one. The new instance has to be initialized
+	 * separately. Required for encoding images on multiple threads concurrently.
+	 * 
+	 * @return
+	 */
+	public TileImageDataWriter newInstance();
+
 }
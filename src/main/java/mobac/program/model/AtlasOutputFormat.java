@@ -43,6 +43,7 @@ import mobac.program.atlascreators.GoogleEarthOverlay;
 import mobac.program.atlascreators.GpsSportsTracker;
 import mobac.program.atlascreators.IPhone3MapTiles5;
 import mobac.program.atlascreators.MBTiles;
+import mobac.program.atlascreators.MBTilesDeduplicated;
 import mobac.program.atlascreators.MGMaps;
 import mobac.program.atlascreators.MagellanRmp;
 import mobac.program.atlascreators.Maplorer;
@@ -109,6 +110,7 @@ public class AtlasOutputFormat implements Comparable<AtlasOutputFormat> {
 		FORMATS.add(createByClass(Maverick.class));
 		FORMATS.add(createByClass(MaverickOld.class));
 		FORMATS.add(createByClass(MBTiles.class));
+		FORMATS.add(createByClass(MBTilesDeduplicated.class));
 		FORMATS.add(createByClass(MGMaps.class));
 		FORMATS.add(createByClass(MobileTrailExplorer.class));
 		FORMATS.add(createByClass(MobileTrailExplorerCache.class));
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.model;
+
+import mobac.utilities.I18nUtils;
+
+/**
+ * Selects how the atlas download jobs perform their HTTP requests.
+ * 
+ * <ul>
+ * <li>{@link #WORKER_THREADS} Each worker thread performs the complete request of a tile and is blocked until the
+ * response has been received (classic behavior).</li>
+ * <li>{@link #CONNECTION_POOL} Worker threads only hand over the download jobs to the
+ * {@link mobac.program.download.PooledDownloadEngine} which performs the requests on a thread pool per map source.
+ * The number of parallel requests is limited per map source ({@link Settings#downloadMaxConnectionsPerHost}) instead
+ * of by the number of worker threads.</li>
+ * </ul>
+ * 
+ * There is no mode running each download job on its own (virtual) thread: virtual threads are not available on Java
+ * 7, and a platform thread per job is what the {@link #CONNECTION_POOL} with a higher per map source limit already
+ * provides.
+ */
+public enum DownloadEngine {
+	WORKER_THREADS, //
+	CONNECTION_POOL;
+
+	@Override
+	public String toString() {
+		switch (this) {
+		case WORKER_THREADS:
+			return I18nUtils.localizedStringForKey("set_net_engine_worker_threads");
+		case CONNECTION_POOL:
+			return I18nUtils.localizedStringForKey("set_net_engine_connection_pool");
+		}
+		return I18nUtils.localizedStringForKey("Undefined");
+	}
+
+}
@@ -82,6 +82,18 @@ public class Settings {
 
 	public boolean tileStoreEnabled = true;
 
+	/**
+	 * Tiles are written to the tile store asynchronously by one writer thread per tile database
+	 */
+	public boolean tileStoreWriteBehind = true;
+
+	/**
+	 * Tile store implementation - changes take effect after a restart
+	 * 
+	 * @see TileStoreBackend
+	 */
+	public TileStoreBackend tileStoreBackend = TileStoreBackend.BERKELEY_DB;
+
 	/**
 	 * Mapview related settings
 	 */
@@ -91,6 +103,17 @@ public class Settings {
 
 	public Point mapviewSelectionMax = null;
 	public Point mapviewSelectionMin = null;
+
+	/**
+	 * Memory budget in MiB for the decoded tile images held by the map preview
+	 */
+	public int mapviewTileCacheSize = 128;
+
+	/**
+	 * Memory budget in MiB for the encoded image data of tiles evicted from the map preview tile cache
+	 */
+	public int mapviewCompressedTileCacheSize = 32;
+
 	@XmlElementWrapper(name = "selectedZoomLevels")
 	@XmlElement(name = "zoomLevel")
 	public List<Integer> selectedZoomLevels = null;
@@ -106,6 +129,30 @@ public class Settings {
 	public int downloadThreadCount = 2;
 	public int downloadRetryCount = 1;
 
+	/**
+	 * Download engine used for atlas downloads
+	 * 
+	 * @see DownloadEngine
+	 */
+	public DownloadEngine downloadEngine = DownloadEngine.WORKER_THREADS;
+
+	/**
+	 * Maximum number of tile requests the pooled download engine accepts at the same time (including requests waiting
+	 * for a free connection).
+	 */
+	public int downloadMaxRequestsInFlight = 64;
+
+	/**
+	 * Maximum number of parallel connections per map source used by the pooled download engine. The total number of
+	 * requests is still limited by {@link #downloadMaxRequestsInFlight}.
+	 */
+	public int downloadMaxConnectionsPerHost = 8;
+
+	/**
+	 * Memory budget in MiB of the cache for decoded original tiles used while creating custom tiles.
+	 */
+	public int atlasTileImageCacheSize = 64;
+
 	private boolean customTileProcessing = false;
 	private Dimension tileSize = new Dimension(256, 256);
 	private TileImageFormat tileImageFormat = TileImageFormat.PNG;
@@ -290,6 +337,9 @@ public class Settings {
 			instance = (Settings) um.unmarshal(FILE);
 			instance.wgsGrid.checkValues();
 			instance.paperAtlas.checkValues();
+			if (instance.downloadEngine == null)
+				// Unknown value, e.g. a removed download engine
+				instance.downloadEngine = DownloadEngine.WORKER_THREADS;
 			SETTINGS_LAST_MODIFIED = FILE.lastModified();
 
 			// Settings 重新加载之后，必须更新语言资源
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.model;
+
+import mobac.utilities.I18nUtils;
+
+/**
+ * Selects the implementation of the {@link mobac.program.tilestore.TileStore}. Changing the backend takes effect after
+ * a restart. Tiles stored by one backend are not visible to the other one.
+ * 
+ * <ul>
+ * <li>{@link #BERKELEY_DB} One Berkeley DB Java Edition database per map source (classic behavior).</li>
+ * <li>{@link #PACKED_FILE} Tiles are appended to large segment files per map source and located via an in-memory
+ * index (see {@link mobac.program.tilestore.packed.PackedFileTileStore}).</li>
+ * </ul>
+ */
+public enum TileStoreBackend {
+	BERKELEY_DB, //
+	PACKED_FILE;
+
+	@Override
+	public String toString() {
+		switch (this) {
+		case BERKELEY_DB:
+			return I18nUtils.localizedStringForKey("set_tile_store_backend_bdb");
+		case PACKED_FILE:
+			return I18nUtils.localizedStringForKey("set_tile_store_backend_packed");
+		}
+		return I18nUtils.localizedStringForKey("Undefined");
+	}
+
+}
@@ -118,6 +118,10 @@ public class TileImageJpegDataWriter implements TileImageDataWriter {
 		return TileImageType.JPG;
 	}
 
+	public TileImageDataWriter newInstance() {
+		return new TileImageJpegDataWriter(this);
+	}
+
 	public static boolean performOpenJDKJpegTest() {
 		try {
 			TileImageJpegDataWriter writer = new TileImageJpegDataWriter(0.99d);
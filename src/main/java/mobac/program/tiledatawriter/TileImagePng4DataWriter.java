@@ -44,4 +44,8 @@ public class TileImagePng4DataWriter implements TileImageDataWriter {
 	public TileImageType getType() {
 		return TileImageType.PNG;
 	}
+
+	public TileImageDataWriter newInstance() {
+		return new TileImagePng4DataWriter();
+	}
 }
@@ -70,4 +70,8 @@ public class TileImagePngDataWriter implements TileImageDataWriter {
 		return TileImageType.PNG;
 	}
 
+	public TileImageDataWriter newInstance() {
+		return new TileImagePngDataWriter();
+	}
+
 }
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore;
+
+import java.awt.Point;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import mobac.utilities.Utilities;
+
+/**
+ * Compressed bitmap of the tiles available in a tile store, separated by zoom level. The tiles are grouped into blocks
+ * of 256x256 tiles. Sparse blocks store the sorted positions of the available tiles, dense blocks (more than 4096
+ * tiles) a plain bitmap - the same approach as used by Roaring bitmaps.
+ * 
+ * Tiles can only be added, therefore the index stays exact as long as every stored tile is added.
+ */
+public class TileCoverageIndex {
+
+	private static final int BLOCK_BITS = 8;
+
+	private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+	private static final int BLOCK_SIZE = 1 << (2 * BLOCK_BITS);
+
+	/**
+	 * Maximum number of positions stored in a sparse block. A dense block requires 8 KiB - the same as 4096 positions.
+	 */
+	private static final int SPARSE_MAX = 4096;
+
+	private static final int FILE_MAGIC = 0x4D434F56;
+
+	private static final int FILE_VERSION = 1;
+
+	private final Map<Long, Block> blocks = new HashMap<Long, Block>();
+
+	private final long[] zoomTileCount = new long[32];
+
+	private long tileCount = 0;
+
+	private static long blockKey(int blockX, int blockY, int zoom) {
+		return (((long) zoom) << 58) | ((blockX & 0x1FFFFFFFL) << 29) | (blockY & 0x1FFFFFFFL);
+	}
+
+	private static long blockKeyOf(int x, int y, int zoom) {
+		return blockKey(x >>> BLOCK_BITS, y >>> BLOCK_BITS, zoom);
+	}
+
+	private static int position(int x, int y) {
+		return ((y & BLOCK_MASK) << BLOCK_BITS) | (x & BLOCK_MASK);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @return <code>true</code> if the tile has not been part of the index before
+	 */
+	public synchronized boolean add(int x, int y, int zoom) {
+		Long key = blockKeyOf(x, y, zoom);
+		Block block = blocks.get(key);
+		if (block == null) {
+			block = new Block();
+			blocks.put(key, block);
+		}
+		if (!block.add(position(x, y)))
+			return false;
+		zoomTileCount[zoom]++;
+		tileCount++;
+		return true;
+	}
+
+	public synchronized boolean contains(int x, int y, int zoom) {
+		Block block = blocks.get(blockKeyOf(x, y, zoom));
+		return (block != null) && block.contains(position(x, y));
+	}
+
+	/**
+	 * @param zoom
+	 * @param x
+	 * @param yMin
+	 * @param yMax
+	 * @return <code>true</code> if at least one tile of the column section (x, yMin) - (x, yMax) is available
+	 */
+	public synchronized boolean containsAny(int zoom, int x, int yMin, int yMax) {
+		for (int by = yMin >>> BLOCK_BITS; by <= yMax >>> BLOCK_BITS; by++) {
+			Block block = blocks.get(blockKey(x >>> BLOCK_BITS, by, zoom));
+			if (block == null)
+				continue;
+			int y0 = Math.max(yMin, by << BLOCK_BITS);
+			int y1 = Math.min(yMax, (by << BLOCK_BITS) + BLOCK_MASK);
+			for (int y = y0; y <= y1; y++)
+				if (block.contains(position(x, y)))
+					return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds all tiles of the specified index. The blocks of <code>index</code> are taken over, therefore it must not be
+	 * used afterwards.
+	 * 
+	 * @param index
+	 */
+	public synchronized void addAll(TileCoverageIndex index) {
+		synchronized (index) {
+			for (Map.Entry<Long, Block> entry : index.blocks.entrySet())
+				mergeBlock(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void mergeBlock(long key, Block block) {
+		Block existing = blocks.get(key);
+		int addedTiles;
+		if (existing == null) {
+			blocks.put(key, block);
+			addedTiles = block.cardinality();
+		} else {
+			addedTiles = 0;
+			for (int p = 0; p < BLOCK_SIZE; p++)
+				if (block.contains(p) && existing.add(p))
+					addedTiles++;
+		}
+		int zoom = (int) (key >>> 58);
+		zoomTileCount[zoom] += addedTiles;
+		tileCount += addedTiles;
+	}
+
+	/**
+	 * @return Number of tiles of all zoom levels
+	 */
+	public synchronized long getTileCount() {
+		return tileCount;
+	}
+
+	public synchronized long getTileCount(int zoom) {
+		return zoomTileCount[zoom];
+	}
+
+	/**
+	 * Sets the sample of all available tiles within the specified region to <code>1</code>. Pixel (0,0) of the raster
+	 * corresponds to tile <code>tileNumMin</code>.
+	 * 
+	 * @param raster
+	 * @param zoom
+	 * @param tileNumMin
+	 * @param tileNumMax
+	 */
+	public synchronized void paintCoverage(WritableRaster raster, int zoom, Point tileNumMin, Point tileNumMax) {
+		int minBlockX = tileNumMin.x >>> BLOCK_BITS;
+		int minBlockY = tileNumMin.y >>> BLOCK_BITS;
+		int maxBlockX = tileNumMax.x >>> BLOCK_BITS;
+		int maxBlockY = tileNumMax.y >>> BLOCK_BITS;
+		long blocksInRegion = (long) (maxBlockX - minBlockX + 1) * (maxBlockY - minBlockY + 1);
+		if (blocksInRegion <= blocks.size()) {
+			for (int bx = minBlockX; bx <= maxBlockX; bx++) {
+				for (int by = minBlockY; by <= maxBlockY; by++) {
+					Block block = blocks.get(blockKey(bx, by, zoom));
+					if (block != null)
+						block.paint(raster, bx << BLOCK_BITS, by << BLOCK_BITS, tileNumMin, tileNumMax);
+				}
+			}
+		} else {
+			for (Map.Entry<Long, Block> entry : blocks.entrySet()) {
+				long key = entry.getKey();
+				if ((int) (key >>> 58) != zoom)
+					continue;
+				int bx = (int) ((key >>> 29) & 0x1FFFFFFFL);
+				int by = (int) (key & 0x1FFFFFFFL);
+				if (bx < minBlockX || bx > maxBlockX || by < minBlockY || by > maxBlockY)
+					continue;
+				entry.getValue().paint(raster, bx << BLOCK_BITS, by << BLOCK_BITS, tileNumMin, tileNumMax);
+			}
+		}
+	}
+
+	public synchronized void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(blocks.size());
+			for (Map.Entry<Long, Block> entry : blocks.entrySet()) {
+				out.writeLong(entry.getKey());
+				entry.getValue().writeTo(out);
+			}
+			out.flush();
+		} finally {
+			Utilities.closeStream(out);
+		}
+	}
+
+	/**
+	 * Adds all tiles of a coverage index saved via {@link #save(File)}.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				throw new IOException("Unsupported coverage index format: " + file);
+			int blockCount = in.readInt();
+			for (int i = 0; i < blockCount; i++) {
+				long key = in.readLong();
+				// Tiles added before loading are kept
+				mergeBlock(key, Block.readFrom(in));
+			}
+		} finally {
+			Utilities.closeStream(in);
+		}
+	}
+
+	/**
+	 * The available tiles of a 256x256 tile block
+	 */
+	private static class Block {
+
+		/**
+		 * Sorted positions (sparse block) - <code>null</code> for dense blocks
+		 */
+		private char[] positions = new char[4];
+
+		/**
+		 * Bitmap (dense block) - <code>null</code> for sparse blocks
+		 */
+		private long[] bits = null;
+
+		private int cardinality = 0;
+
+		boolean add(int position) {
+			if (bits != null) {
+				long mask = 1L << position;
+				if ((bits[position >>> 6] & mask) != 0)
+					return false;
+				bits[position >>> 6] |= mask;
+				cardinality++;
+				return true;
+			}
+			int i = Arrays.binarySearch(positions, 0, cardinality, (char) position);
+			if (i >= 0)
+				return false;
+			if (cardinality == SPARSE_MAX) {
+				convertToBitmap();
+				return add(position);
+			}
+			i = -i - 1;
+			if (cardinality == positions.length)
+				positions = Arrays.copyOf(positions, Math.min(SPARSE_MAX, cardinality * 2));
+			System.arraycopy(positions, i, positions, i + 1, cardinality - i);
+			positions[i] = (char) position;
+			cardinality++;
+			return true;
+		}
+
+		boolean contains(int position) {
+			if (bits != null)
+				return (bits[position >>> 6] & (1L << position)) != 0;
+			return Arrays.binarySearch(positions, 0, cardinality, (char) position) >= 0;
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		private void convertToBitmap() {
+			bits = new long[BLOCK_SIZE / 64];
+			for (int i = 0; i < cardinality; i++) {
+				int p = positions[i];
+				bits[p >>> 6] |= 1L << p;
+			}
+			positions = null;
+		}
+
+		/**
+		 * @param originX
+		 *            tile x of position 0
+		 * @param originY
+		 *            tile y of position 0
+		 */
+		void paint(WritableRaster raster, int originX, int originY, Point tileNumMin, Point tileNumMax) {
+			if (bits != null) {
+				for (int w = 0; w < bits.length; w++) {
+					long word = bits[w];
+					while (word != 0) {
+						int p = (w << 6) + Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+						paintTile(raster, originX + (p & BLOCK_MASK), originY + (p >>> BLOCK_BITS), tileNumMin,
+								tileNumMax);
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					int p = positions[i];
+					paintTile(raster, originX + (p & BLOCK_MASK), originY + (p >>> BLOCK_BITS), tileNumMin, tileNumMax);
+				}
+			}
+		}
+
+		private static void paintTile(WritableRaster raster, int x, int y, Point tileNumMin, Point tileNumMax) {
+			if (x < tileNumMin.x || x > tileNumMax.x || y < tileNumMin.y || y > tileNumMax.y)
+				return;
+			raster.setSample(x - tileNumMin.x, y - tileNumMin.y, 0, 1);
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			if (bits != null) {
+				out.writeInt(-1);
+				for (long word : bits)
+					out.writeLong(word);
+			} else {
+				out.writeInt(cardinality);
+				for (int i = 0; i < cardinality; i++)
+					out.writeChar(positions[i]);
+			}
+		}
+
+		static Block readFrom(DataInputStream in) throws IOException {
+			Block block = new Block();
+			int count = in.readInt();
+			if (count < 0) {
+				block.positions = null;
+				block.bits = new long[BLOCK_SIZE / 64];
+				for (int i = 0; i < block.bits.length; i++) {
+					block.bits[i] = in.readLong();
+					block.cardinality += Long.bitCount(block.bits[i]);
+				}
+			} else {
+				if (count > SPARSE_MAX)
+					throw new IOException("Invalid block size: " + count);
+				block.positions = new char[Math.max(4, count)];
+				for (int i = 0; i < count; i++)
+					block.positions[i] = in.readChar();
+				block.cardinality = count;
+			}
+			return block;
+		}
+	}
+}
@@ -18,8 +18,15 @@ package mobac.program.tilestore;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import javax.swing.JOptionPane;
 
@@ -28,7 +35,10 @@ import mobac.program.DirectoryManager;
 import mobac.program.interfaces.MapSource;
 import mobac.program.model.Settings;
 import mobac.program.tilestore.berkeleydb.BerkeleyDbTileStore;
+import mobac.program.tilestore.packed.PackedFileTileStore;
 import mobac.utilities.I18nUtils;
+import mobac.utilities.Utilities;
+import mobac.utilities.file.DirInfoFileFilter;
 
 import org.apache.log4j.Logger;
 
@@ -40,11 +50,19 @@ public abstract class TileStore {
 
 	protected File tileStoreDir;
 
+	private FileLock tileStoreLock = null;
+
 	public static synchronized void initialize() {
 		if (INSTANCE != null)
 			return;
 		try {
-			INSTANCE = new BerkeleyDbTileStore();
+			switch (Settings.getInstance().tileStoreBackend) {
+			case PACKED_FILE:
+				INSTANCE = new PackedFileTileStore();
+				break;
+			default:
+				INSTANCE = new BerkeleyDbTileStore();
+			}
 		} catch (TileStoreException e) {
 			String errMsg = I18nUtils.localizedStringForKey("msg_tile_store_access_conflict");
 			JOptionPane.showMessageDialog(null, errMsg,
@@ -67,6 +85,90 @@ public abstract class TileStore {
 		log.debug("Tile store path: " + tileStoreDir);
 	}
 
+	/**
+	 * Creates the tile store directory if necessary and locks it so that only one instance of Mobile Atlas Creator can
+	 * use it.
+	 * 
+	 * @throws TileStoreException
+	 *             if the lock is held by another process
+	 */
+	protected void acquireTileStoreLock() throws TileStoreException {
+		try {
+			// Get a file channel for the file
+			File file = new File(tileStoreDir, "lock");
+			if (!tileStoreDir.isDirectory())
+				try {
+					Utilities.mkDirs(tileStoreDir);
+				} catch (IOException e) {
+					throw new TileStoreException("Unable to create tile store directory: \"" + tileStoreDir.getPath()
+							+ "\"");
+				}
+			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+
+			// Try acquiring the lock without blocking. This method returns
+			// null or throws an exception if the file is already locked.
+			tileStoreLock = channel.tryLock();
+			if (tileStoreLock == null)
+				throw new TileStoreException("Unable to obtain tile store lock - "
+						+ "another instance of Mobile Atlas Creator is running!");
+		} catch (Exception e) {
+			log.error("", e);
+			throw new TileStoreException(e.getMessage(), e.getCause());
+		}
+	}
+
+	protected void releaseTileStoreLock() {
+		if (tileStoreLock == null)
+			return;
+		try {
+			tileStoreLock.release();
+		} catch (IOException e) {
+			log.error("", e);
+		}
+	}
+
+	/**
+	 * Sums up the size of all files in the specified directory (not recursive).
+	 * 
+	 * @param dir
+	 * @return size in bytes or <code>0</code> if the directory does not exist
+	 * @throws InterruptedException
+	 */
+	protected static long getDirectorySize(File dir) throws InterruptedException {
+		if (!dir.exists())
+			return 0;
+		DirInfoFileFilter diff = new DirInfoFileFilter();
+		try {
+			dir.listFiles(diff);
+		} catch (RuntimeException e) {
+			throw new InterruptedException();
+		}
+		return diff.getDirSize();
+	}
+
+	/**
+	 * Creates the two color image used by {@link #getCacheCoverage(MapSource, int, Point, Point)}: pixel value
+	 * <code>0</code> marks a missing tile, <code>1</code> a stored tile.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return the image or <code>null</code> if there is not enough memory
+	 */
+	protected BufferedImage createCoverageImage(int width, int height) {
+		byte ff = (byte) 0xFF;
+		byte[] colors = new byte[] { 120, 120, 120, 120, // alpha-gray
+				10, ff, 0, 120 // alpha-green
+		};
+		IndexColorModel colorModel = new IndexColorModel(2, 2, colors, 0, true);
+		try {
+			return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		} catch (Throwable e) {
+			log.error("Failed to create coverage image: " + e.toString());
+			System.gc();
+			return null;
+		}
+	}
+
 	public abstract void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource) throws IOException;
 
 	public abstract void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource,
@@ -82,8 +184,49 @@ public abstract class TileStore {
 	 */
 	public abstract TileStoreEntry getTile(int x, int y, int zoom, MapSource mapSource);
 
+	/**
+	 * Returns the tile for checking its meta data (download, modification and expiration time, eTag). Implementations
+	 * that store meta data and tile data in separate records load the tile data not before
+	 * {@link TileStoreEntry#getData()} is called on the returned entry.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @param mapSource
+	 * @return the tile or <code>null</code> if it is not in the tile store
+	 */
+	public TileStoreEntry getTileMeta(int x, int y, int zoom, MapSource mapSource) {
+		return getTile(x, y, zoom, mapSource);
+	}
+
 	public abstract boolean contains(int x, int y, int zoom, MapSource mapSource);
 
+	/**
+	 * Loads all stored tiles of one column (<code>x</code> fixed, <code>yMin</code> to <code>yMax</code>). Missing
+	 * tiles are not contained in the result, the order of the tiles is not specified. Implementations that store the
+	 * tiles ordered by x and y read the column sequentially. As with {@link #getTileMeta(int, int, int, MapSource)}
+	 * the tile data may be loaded on demand.
+	 * 
+	 * @param mapSource
+	 * @param zoom
+	 * @param x
+	 * @param yMin
+	 * @param yMax
+	 * @return the stored tiles of the column
+	 * @throws InterruptedException
+	 */
+	public List<TileStoreEntry> getTileColumn(MapSource mapSource, int zoom, int x, int yMin, int yMax)
+			throws InterruptedException {
+		List<TileStoreEntry> tiles = new ArrayList<TileStoreEntry>();
+		for (int y = yMin; y <= yMax; y++) {
+			TileStoreEntry tile = getTile(x, y, zoom, mapSource);
+			if (tile != null)
+				tiles.add(tile);
+			Utilities.checkForInterruption();
+		}
+		return tiles;
+	}
+
 	public abstract void prepareTileStore(MapSource mapSource);
 
 	public abstract void clearStore(String storeName);
@@ -122,6 +265,28 @@ public abstract class TileStore {
 
 	public abstract void putTile(TileStoreEntry tile, MapSource mapSource);
 
+	/**
+	 * Stores all specified tiles of one map source. Implementations may group the tiles into one write operation.
+	 * 
+	 * @param tiles
+	 * @param mapSource
+	 */
+	public void putTiles(Collection<? extends TileStoreEntry> tiles, MapSource mapSource) {
+		for (TileStoreEntry tile : tiles)
+			putTile(tile, mapSource);
+	}
+
+	/**
+	 * Blocks until all tiles previously passed to this tile store have been written. Only required for implementations
+	 * that write tiles asynchronously (write-behind).
+	 * 
+	 * @throws InterruptedException
+	 * @throws IOException
+	 *             if tiles previously passed to this tile store could not be written
+	 */
+	public void flush() throws InterruptedException, IOException {
+	}
+
 	public abstract TileStoreEntry createNewEntry(int x, int y, int zoom, byte[] data, long timeLastModified,
 			long timeExpires, String eTag);
 
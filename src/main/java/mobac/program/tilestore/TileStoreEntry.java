@@ -25,7 +25,10 @@ public interface TileStoreEntry {
 	public int getZoom();
 
 	/**
-	 * This function does never return a <code>null</code> value!
+	 * Returns the tile data. For entries with deferred loading of the tile data (see
+	 * {@link TileStore#getTileMeta(int, int, int, mobac.program.interfaces.MapSource)}) the data may not be available
+	 * anymore, e.g. because the tile has been replaced or the tile store has been closed meanwhile - in this case
+	 * <code>null</code> is returned. Otherwise this function does never return a <code>null</code> value!
 	 * 
 	 * @return tile data
 	 */
@@ -20,11 +20,19 @@ public class TileStoreInfo {
 
 	int tileCount;
 	long storeSize;
+	long duplicateTileCount;
+	long deduplicatedSize;
 
 	public TileStoreInfo(long storeSize, int tileCount) {
+		this(storeSize, tileCount, 0, 0);
+	}
+
+	public TileStoreInfo(long storeSize, int tileCount, long duplicateTileCount, long deduplicatedSize) {
 		super();
 		this.storeSize = storeSize;
 		this.tileCount = tileCount;
+		this.duplicateTileCount = duplicateTileCount;
+		this.deduplicatedSize = deduplicatedSize;
 	}
 
 	/**
@@ -41,4 +49,18 @@ public class TileStoreInfo {
 		return storeSize;
 	}
 
+	/**
+	 * @return Number of tiles sharing their data with another tile (stored only once)
+	 */
+	public long getDuplicateTileCount() {
+		return duplicateTileCount;
+	}
+
+	/**
+	 * @return Number of bytes not stored because of deduplication
+	 */
+	public long getDeduplicatedSize() {
+		return deduplicatedSize;
+	}
+
 }
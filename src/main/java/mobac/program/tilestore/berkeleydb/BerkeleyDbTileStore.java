@@ -18,23 +18,29 @@ package mobac.program.tilestore.berkeleydb;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.awt.image.IndexColorModel;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import mobac.exceptions.TileStoreException;
 import mobac.program.interfaces.MapSource;
 import mobac.program.model.Settings;
+import mobac.program.tilestore.TileCoverageIndex;
 import mobac.program.tilestore.TileStore;
 import mobac.program.tilestore.TileStoreEntry;
 import mobac.program.tilestore.TileStoreInfo;
@@ -42,7 +48,6 @@ import mobac.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
 import mobac.utilities.GUIExceptionHandler;
 import mobac.utilities.Utilities;
 import mobac.utilities.file.DeleteFileFilter;
-import mobac.utilities.file.DirInfoFileFilter;
 import mobac.utilities.file.DirectoryFileFilter;
 
 import com.sleepycat.je.DatabaseException;
@@ -66,18 +71,49 @@ public class BerkeleyDbTileStore extends TileStore {
 	 */
 	private static final int MAX_CONCURRENT_ENVIRONMENTS = 5;
 
+	/**
+	 * Maximum number of tiles per tile database waiting to be written by the write-behind thread. If this number is
+	 * reached the threads storing tiles have to wait.
+	 */
+	private static final int MAX_PENDING_TILES = 2000;
+
+	/**
+	 * Maximum number of tiles written by the write-behind thread in one pass
+	 */
+	private static final int WRITE_BATCH_SIZE = 500;
+
+	/**
+	 * Number of attempts of the write-behind thread to write a tile before it is given up
+	 */
+	private static final int MAX_WRITE_ATTEMPTS = 3;
+
+	/**
+	 * Number of attempts to store a tile if its database is closed concurrently
+	 */
+	private static final int MAX_REOPEN_ATTEMPTS = 5;
+
+	/**
+	 * File in the database directory the {@link TileCoverageIndex} is saved to when the database is closed
+	 */
+	private static final String COVERAGE_FILE = "coverage.dat";
+
 	private EnvironmentConfig envConfig;
 
-	private Map<String, TileDatabase> tileDbMap;
+	/**
+	 * Opened tile databases. Lookups are performed without locking, opening and closing of databases is synchronized
+	 * on the map.
+	 */
+	private volatile Map<String, TileDatabase> tileDbMap;
 
-	private FileLock tileStoreLock = null;
+	private final boolean writeBehind;
 
 	private Mutations mutations;
 
 	public BerkeleyDbTileStore() throws TileStoreException {
 		super();
 		acquireTileStoreLock();
-		tileDbMap = new TreeMap<String, TileDatabase>();
+		tileDbMap = new ConcurrentHashMap<String, TileDatabase>();
+		writeBehind = Settings.getInstance().tileStoreWriteBehind;
 
 		envConfig = new EnvironmentConfig();
 		envConfig.setTransactional(false);
@@ -105,40 +141,6 @@ public class BerkeleyDbTileStore extends TileStore {
 		Runtime.getRuntime().addShutdownHook(new ShutdownThread(true));
 	}
 
-	protected void acquireTileStoreLock() throws TileStoreException {
-		try {
-			// Get a file channel for the file
-			File file = new File(tileStoreDir, "lock");
-			if (!tileStoreDir.isDirectory())
-				try {
-					Utilities.mkDirs(tileStoreDir);
-				} catch (IOException e) {
-					throw new TileStoreException("Unable to create tile store directory: \"" + tileStoreDir.getPath()
-							+ "\"");
-				}
-			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
-
-			// Use the file channel to create a lock on the file.
-			// This method blocks until it can retrieve the lock.
-
-			// Try acquiring the lock without blocking. This method returns
-			// null or throws an exception if the file is already locked.
-			tileStoreLock = channel.tryLock();
-			if (tileStoreLock == null)
-				throw new TileStoreException("Unable to obtain tile store lock - "
-						+ "another instance of Mobile Atlas Creator is running!");
-
-			// // Release the lock
-			// lock.release();
-			//
-			// // Close the file
-			// channel.close();
-		} catch (Exception e) {
-			log.error("", e);
-			throw new TileStoreException(e.getMessage(), e.getCause());
-		}
-	}
-
 	@Override
 	public TileStoreEntry createNewEntry(int x, int y, int zoom, byte[] data, long timeLastModified, long timeExpires,
 			String eTag) {
@@ -154,52 +156,29 @@ public class BerkeleyDbTileStore extends TileStore {
 	}
 
 	private TileDatabase getTileDatabase(MapSource mapSource) throws DatabaseException {
-		TileDatabase db;
-		if (tileDbMap == null)
-			// Tile store has been closed already
-			return null;
-		String storeName = mapSource.getName();
-		if (storeName == null)
-			return null;
-		synchronized (tileDbMap) {
-			db = tileDbMap.get(storeName);
-		}
-		if (db != null)
-			return db;
-		try {
-			synchronized (tileDbMap) {
-				cleanupDatabases();
-				db = tileDbMap.get(storeName);
-				if (db == null) {
-					db = new TileDatabase(storeName);
-					db.lastAccess = System.currentTimeMillis();
-					tileDbMap.put(mapSource.getName(), db);
-				}
-				return db;
-			}
-		} catch (Exception e) {
-			log.error("Error creating tile store db \"" + mapSource.getName() + "\"", e);
-			throw new TileStoreException(e);
-		}
+		return getTileDatabase(mapSource.getName());
 	}
 
 	private TileDatabase getTileDatabase(String storeName) throws DatabaseException {
 		TileDatabase db;
+		Map<String, TileDatabase> tileDbMap = this.tileDbMap;
 		if (tileDbMap == null)
 			// Tile store has been closed already
 			return null;
 		if (storeName == null)
 			return null;
-		synchronized (tileDbMap) {
-			db = tileDbMap.get(storeName);
+		db = tileDbMap.get(storeName);
+		if (db != null) {
+			if (!db.isClosing())
+				return db;
+			// A database being closed has to be closed completely before the environment can be opened again
+			db.awaitClosed();
 		}
-		if (db != null)
-			return db;
 		try {
 			synchronized (tileDbMap) {
 				cleanupDatabases();
 				db = tileDbMap.get(storeName);
-				if (db == null) {
+				if (db == null || db.isClosing()) {
 					db = new TileDatabase(storeName);
 					db.lastAccess = System.currentTimeMillis();
 					tileDbMap.put(storeName, db);
@@ -214,9 +193,25 @@ public class BerkeleyDbTileStore extends TileStore {
 
 	@Override
 	public TileStoreInfo getStoreInfo(String storeName) throws InterruptedException {
-		int tileCount = getNrOfTiles(storeName);
 		long storeSize = getStoreSize(storeName);
-		return new TileStoreInfo(storeSize, tileCount);
+		try {
+			File storeDir = getStoreDir(storeName);
+			if (!storeDir.isDirectory())
+				return new TileStoreInfo(storeSize, 0);
+			boolean wasOpen = isDatabaseOpen(storeName);
+			TileDatabase db = getTileDatabase(storeName);
+			int tileCount = (int) db.entryCount();
+			TileDbDedupStats stats = db.dedupStats;
+			TileStoreInfo info = new TileStoreInfo(storeSize, tileCount, stats.getDuplicateTileCount(),
+					stats.getSavedBytes());
+			// A database already in use (e.g. by a running download) has to stay open
+			if (!wasOpen)
+				db.close();
+			return info;
+		} catch (DatabaseException e) {
+			log.error("", e);
+			return new TileStoreInfo(storeSize, -1);
+		}
 	}
 
 	@Override
@@ -234,7 +229,7 @@ public class BerkeleyDbTileStore extends TileStore {
 				log.trace("Saved " + mapSource.getName() + " " + tile);
 			db = getTileDatabase(mapSource);
 			if (db != null)
-				db.put(tile);
+				db = put(db, tile, mapSource);
 		} catch (Exception e) {
 			if (db != null)
 				db.close();
@@ -249,7 +244,8 @@ public class BerkeleyDbTileStore extends TileStore {
 			if (log.isTraceEnabled())
 				log.trace("Saved " + mapSource.getName() + " " + tile);
 			db = getTileDatabase(mapSource);
-			db.put((TileDbEntry) tile);
+			if (db != null)
+				db = put(db, (TileDbEntry) tile, mapSource);
 		} catch (Exception e) {
 			if (db != null)
 				db.close();
@@ -257,6 +253,84 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 	}
 
+	@Override
+	public void putTiles(Collection<? extends TileStoreEntry> tiles, MapSource mapSource) {
+		TileDatabase db = null;
+		try {
+			db = getTileDatabase(mapSource);
+			if (db == null)
+				return;
+			if (writeBehind) {
+				for (TileStoreEntry tile : tiles) {
+					db = put(db, (TileDbEntry) tile, mapSource);
+					if (db == null)
+						return;
+				}
+			} else {
+				ArrayList<TileDbEntry> list = new ArrayList<TileDbEntry>(tiles.size());
+				for (TileStoreEntry tile : tiles)
+					list.add((TileDbEntry) tile);
+				db.writeTiles(list);
+			}
+		} catch (Exception e) {
+			if (db != null)
+				db.close();
+			log.error("Faild to write tiles to tile store \"" + mapSource.getName() + "\"", e);
+		}
+	}
+
+	/**
+	 * Stores the tile in the specified database. If the database has been closed concurrently (e.g. by
+	 * {@link #getStoreInfo(String)} or because too many databases are open) the tile is stored in the reopened
+	 * database.
+	 * 
+	 * @return the database the tile has been stored in or <code>null</code> if the tile store has been closed
+	 * @throws DatabaseException
+	 */
+	private TileDatabase put(TileDatabase db, TileDbEntry tile, MapSource mapSource) throws DatabaseException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				db.put(tile);
+				return db;
+			} catch (DatabaseException e) {
+				if (!db.isClosing() || attempt >= MAX_REOPEN_ATTEMPTS)
+					throw e;
+				log.debug("Tile store \"" + mapSource.getName() + "\" has been closed - reopening it");
+				db = getTileDatabase(mapSource);
+				if (db == null)
+					return null;
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the database of the specified store is currently open
+	 */
+	private boolean isDatabaseOpen(String storeName) {
+		Map<String, TileDatabase> tileDbMap = this.tileDbMap;
+		if (tileDbMap == null)
+			return false;
+		TileDatabase db = tileDbMap.get(storeName);
+		return db != null && !db.isClosing();
+	}
+
+	@Override
+	public void flush() throws InterruptedException, IOException {
+		Map<String, TileDatabase> tileDbMap = this.tileDbMap;
+		if (tileDbMap == null)
+			return;
+		IOException error = null;
+		for (TileDatabase db : tileDbMap.values()) {
+			try {
+				db.flush();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
 	@Override
 	public TileStoreEntry getTile(int x, int y, int zoom, MapSource mapSource) {
 		TileDatabase db = null;
@@ -280,6 +354,37 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 	}
 
+	@Override
+	public TileStoreEntry getTileMeta(int x, int y, int zoom, MapSource mapSource) {
+		TileDatabase db = null;
+		try {
+			db = getTileDatabase(mapSource);
+			if (db == null)
+				return null;
+			return db.getMeta(new TileDbKey(x, y, zoom));
+		} catch (Exception e) {
+			if (db != null)
+				db.close();
+			log.error("failed to retrieve tile from tile store \"" + mapSource.getName() + "\"", e);
+			return null;
+		}
+	}
+
+	@Override
+	public List<TileStoreEntry> getTileColumn(MapSource mapSource, int zoom, int x, int yMin, int yMax)
+			throws InterruptedException {
+		TileDatabase db = null;
+		try {
+			db = getTileDatabase(mapSource);
+			if (db == null)
+				return new ArrayList<TileStoreEntry>(0);
+			return db.getTileColumn(zoom, x, yMin, yMax);
+		} catch (DatabaseException e) {
+			log.error("failed to retrieve tiles from tile store \"" + mapSource.getName() + "\"", e);
+			return new ArrayList<TileStoreEntry>(0);
+		}
+	}
+
 	public boolean contains(int x, int y, int zoom, MapSource mapSource) {
 		try {
 			return getTileDatabase(mapSource).contains(new TileDbKey(x, y, zoom));
@@ -327,9 +432,11 @@ public class BerkeleyDbTileStore extends TileStore {
 			File storeDir = getStoreDir(mapSourceName);
 			if (!storeDir.isDirectory())
 				return 0;
+			boolean wasOpen = isDatabaseOpen(mapSourceName);
 			TileDatabase db = getTileDatabase(mapSourceName);
 			int tileCount = (int) db.entryCount();
-			db.close();
+			if (!wasOpen)
+				db.close();
 			return tileCount;
 		} catch (DatabaseException e) {
 			log.error("", e);
@@ -338,18 +445,7 @@ public class BerkeleyDbTileStore extends TileStore {
 	}
 
 	public long getStoreSize(String storeName) throws InterruptedException {
-		File tileStore = getStoreDir(storeName);
-		if (tileStore.exists()) {
-			DirInfoFileFilter diff = new DirInfoFileFilter();
-			try {
-				tileStore.listFiles(diff);
-			} catch (RuntimeException e) {
-				throw new InterruptedException();
-			}
-			return diff.getDirSize();
-		} else {
-			return 0;
-		}
+		return getDirectorySize(getStoreDir(storeName));
 	}
 
 	public BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
@@ -382,6 +478,13 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 	}
 
+	/**
+	 * Packs the tile coordinates into a long value with the same sort order as {@link TileDbKey} (zoom, x, y)
+	 */
+	private static long getPendingTileKey(int x, int y, int zoom) {
+		return (((long) zoom) << 58) | ((x & 0x1FFFFFFFL) << 29) | (y & 0x1FFFFFFFL);
+	}
+
 	public void closeAll() {
 		Thread t = new ShutdownThread(false);
 		t.start();
@@ -456,11 +559,7 @@ public class BerkeleyDbTileStore extends TileStore {
 				tileDbMap.clear();
 				if (shutdown) {
 					tileDbMap = null;
-					try {
-						tileStoreLock.release();
-					} catch (IOException e) {
-						log.error("", e);
-					}
+					releaseTileStoreLock();
 				}
 			}
 			log.debug("All tile databases has been closed");
@@ -473,7 +572,73 @@ public class BerkeleyDbTileStore extends TileStore {
 		final Environment env;
 		final EntityStore store;
 		final PrimaryIndex<TileDbKey, TileDbEntry> tileIndex;
-		boolean dbClosed = false;
+		final PrimaryIndex<Long, TileDbBlob> blobIndex;
+		final PrimaryIndex<Integer, TileDbDedupStats> statsIndex;
+		volatile boolean dbClosed = false;
+
+		/**
+		 * Set as soon as {@link #close(boolean)} has been called - guarded by {@link #writeMonitor}. From then on no
+		 * tiles are accepted by {@link #put(TileDbEntry)}.
+		 */
+		volatile boolean closing = false;
+
+		/**
+		 * Released when the database has been closed completely
+		 */
+		final CountDownLatch closedLatch = new CountDownLatch(1);
+
+		/**
+		 * Guards {@link #blobIndex}, {@link #dedupStats} and {@link #digest}: reference counting requires that
+		 * modifications of tiles and blobs are serialized.
+		 */
+		final Object blobLock = new Object();
+
+		final TileDbDedupStats dedupStats;
+
+		final MessageDigest digest;
+
+		final File storeDir;
+
+		/**
+		 * Coverage of the tiles written to the database. Only complete if {@link #coverageValid} is set, otherwise it
+		 * is rebuilt on demand via {@link #ensureCoverage()}.
+		 */
+		final TileCoverageIndex coverage = new TileCoverageIndex();
+
+		volatile boolean coverageValid = false;
+
+		/**
+		 * Serializes rebuilding the {@link #coverage} - independent of the monitor of the coverage index which is
+		 * required for adding written tiles
+		 */
+		final Object coverageBuildLock = new Object();
+
+		/**
+		 * Tiles not yet written by the {@link TileWriterThread} - always the latest version of a tile
+		 */
+		final ConcurrentHashMap<Long, TileDbEntry> pendingTiles = new ConcurrentHashMap<Long, TileDbEntry>();
+
+		/**
+		 * Keys of the {@link #pendingTiles} in the order they have been stored
+		 */
+		final LinkedBlockingQueue<Long> writeQueue = new LinkedBlockingQueue<Long>();
+
+		/**
+		 * Monitor for threads waiting for the {@link TileWriterThread} (flush or too many pending tiles)
+		 */
+		final Object writeMonitor = new Object();
+
+		TileWriterThread writerThread = null;
+
+		/**
+		 * Last error of the {@link TileWriterThread} - reported by the next {@link #put(TileDbEntry)}
+		 */
+		final AtomicReference<Exception> writeError = new AtomicReference<Exception>();
+
+		/**
+		 * Number of tiles the {@link TileWriterThread} failed to write since the last {@link #flush()}
+		 */
+		final AtomicInteger lostTiles = new AtomicInteger(0);
 
 		long lastAccess;
 
@@ -484,7 +649,7 @@ public class BerkeleyDbTileStore extends TileStore {
 		public TileDatabase(String mapSourceName, File databaseDirectory) throws IOException,
 				EnvironmentLockedException, DatabaseException {
 			log.debug("Opening tile store db: \"" + databaseDirectory + "\"");
-			File storeDir = databaseDirectory;
+			storeDir = databaseDirectory;
 			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
 			try {
 				t.pauseInterrupt();
@@ -502,6 +667,16 @@ public class BerkeleyDbTileStore extends TileStore {
 				store = new EntityStore(env, "TilesEntityStore", storeConfig);
 
 				tileIndex = store.getPrimaryIndex(TileDbKey.class, TileDbEntry.class);
+				blobIndex = store.getPrimaryIndex(Long.class, TileDbBlob.class);
+				statsIndex = store.getPrimaryIndex(Integer.class, TileDbDedupStats.class);
+				TileDbDedupStats stats = statsIndex.get(TileDbDedupStats.ID);
+				dedupStats = (stats != null) ? stats : new TileDbDedupStats();
+				try {
+					digest = MessageDigest.getInstance("MD5");
+				} catch (NoSuchAlgorithmException e) {
+					throw new IOException(e);
+				}
+				loadCoverage();
 			} finally {
 				if (t.interruptedWhilePaused())
 					close();
@@ -513,15 +688,178 @@ public class BerkeleyDbTileStore extends TileStore {
 			return dbClosed;
 		}
 
-		public long entryCount() throws DatabaseException {
-			return tileIndex.count();
+		/**
+		 * @return <code>true</code> if the database has been closed or is currently being closed
+		 */
+		public boolean isClosing() {
+			return closing || dbClosed;
+		}
+
+		/**
+		 * Waits until the database being closed by another thread has been closed completely
+		 * 
+		 * @throws TileStoreException
+		 *             if the calling thread has been interrupted
+		 */
+		public void awaitClosed() throws TileStoreException {
+			try {
+				closedLatch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TileStoreException("Interrupted while waiting for tile store \"" + mapSourceName
+						+ "\" to be closed", e);
+			}
+		}
+
+		public long entryCount() throws DatabaseException, InterruptedException {
+			ensureCoverage();
+			return coverage.getTileCount();
+		}
+
+		/**
+		 * Loads the coverage index saved when the database has been closed the last time. The file is deleted
+		 * afterwards so that an outdated coverage index is never used after a crash.
+		 */
+		private void loadCoverage() {
+			File coverageFile = new File(storeDir, COVERAGE_FILE);
+			if (!coverageFile.isFile())
+				return;
+			try {
+				coverage.load(coverageFile);
+				coverageValid = true;
+			} catch (IOException e) {
+				log.error("Failed to load coverage index of \"" + mapSourceName + "\": " + e.getMessage());
+			}
+			if (!coverageFile.delete())
+				log.error("Failed to delete coverage index file " + coverageFile);
+		}
+
+		private void saveCoverage() {
+			if (!coverageValid)
+				return;
+			try {
+				coverage.save(new File(storeDir, COVERAGE_FILE));
+			} catch (IOException e) {
+				log.error("Failed to save coverage index of \"" + mapSourceName + "\"", e);
+			}
+		}
+
+		/**
+		 * Rebuilds the coverage index from the keys of all stored tiles if it is not available. The keys are collected
+		 * in a separate index so that writing tiles is not blocked during the scan. Tiles written meanwhile are added to
+		 * {@link #coverage} by {@link #writeTiles(List)}, both are merged afterwards.
+		 * 
+		 * @throws DatabaseException
+		 * @throws InterruptedException
+		 */
+		public void ensureCoverage() throws DatabaseException, InterruptedException {
+			if (coverageValid)
+				return;
+			synchronized (coverageBuildLock) {
+				if (coverageValid)
+					return;
+				log.debug("Building coverage index of \"" + mapSourceName + "\"");
+				Thread t = Thread.currentThread();
+				TileCoverageIndex storedTiles = new TileCoverageIndex();
+				EntityCursor<TileDbKey> cursor = tileIndex.keys();
+				try {
+					TileDbKey key = cursor.next();
+					while (key != null) {
+						storedTiles.add(key.x, key.y, key.zoom);
+						key = cursor.next();
+						if (t.isInterrupted()) {
+							log.debug("Building coverage index aborted");
+							throw new InterruptedException();
+						}
+					}
+				} finally {
+					cursor.close();
+				}
+				coverage.addAll(storedTiles);
+				coverageValid = true;
+				log.debug("Coverage index of \"" + mapSourceName + "\" built: " + coverage.getTileCount() + " tiles");
+			}
 		}
 
+		/**
+		 * Stores the tile. In write-behind mode the tile is only queued for the {@link TileWriterThread} of this
+		 * database.
+		 * 
+		 * @param tile
+		 * @throws DatabaseException
+		 *             if writing the tile failed, if the database is closed or - in write-behind mode - if the
+		 *             {@link TileWriterThread} failed to write previous tiles (the specified tile is queued anyway)
+		 */
 		public void put(TileDbEntry tile) throws DatabaseException {
+			if (!writeBehind) {
+				writeTiles(Collections.singletonList(tile));
+				return;
+			}
+			synchronized (writeMonitor) {
+				if (closing || dbClosed)
+					throw new TileStoreException("Tile store \"" + mapSourceName + "\" has been closed");
+				try {
+					while (pendingTiles.size() >= MAX_PENDING_TILES && writerThread != null && !closing)
+						writeMonitor.wait();
+				} catch (InterruptedException e) {
+					// Do not lose the tile - it is queued anyway
+					Thread.currentThread().interrupt();
+				}
+				if (closing)
+					throw new TileStoreException("Tile store \"" + mapSourceName + "\" has been closed");
+				if (writerThread == null) {
+					writerThread = new TileWriterThread();
+					writerThread.start();
+				}
+				// Queued while holding the monitor: close() can not miss the tile
+				Long key = getPendingTileKey(tile.getX(), tile.getY(), tile.getZoom());
+				if (pendingTiles.put(key, tile) == null)
+					writeQueue.add(key);
+			}
+			Exception e = writeError.getAndSet(null);
+			if (e != null)
+				throw new DatabaseException("Writing tiles to tile store \"" + mapSourceName + "\" failed", e);
+		}
+
+		/**
+		 * Writes the tiles directly to the database. The tile data is stored as {@link TileDbBlob} separated from the
+		 * meta data in the {@link TileDbEntry} and shared by all tiles with identical content.
+		 * 
+		 * @param tiles
+		 * @throws DatabaseException
+		 */
+		public void writeTiles(List<TileDbEntry> tiles) throws DatabaseException {
 			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
 			try {
 				t.pauseInterrupt();
-				tileIndex.put(tile);
+				synchronized (blobLock) {
+					long savedBytes = dedupStats.savedBytes;
+					for (TileDbEntry tile : tiles) {
+						if (tile.isBlobDataPending()) {
+							// Meta data update of a tile loaded via getMeta() - the blob is kept as long as the
+							// stored tile still references it
+							TileDbEntry storedTile = tileIndex.get(tile.tileKey);
+							if (storedTile != null && storedTile.getBlobHash() == tile.getBlobHash()) {
+								tileIndex.put(tile.createStorageEntry(tile.getBlobHash()));
+								coverage.add(tile.getX(), tile.getY(), tile.getZoom());
+							} else {
+								// The tile has been replaced or deleted since the meta data has been read. The
+								// update is outdated and its blob may already be released.
+								log.debug("Skipping outdated meta data update of " + tile);
+							}
+							continue;
+						}
+						long blobHash = acquireBlob(tile.getData());
+						// The new blob reference is stored before the old one is released - in case of a crash we
+						// may leak a blob but never lose one
+						TileDbEntry oldTile = tileIndex.put(tile.createStorageEntry(blobHash));
+						if (oldTile != null && oldTile.getBlobHash() != 0)
+							releaseBlob(oldTile.getBlobHash());
+						coverage.add(tile.getX(), tile.getY(), tile.getZoom());
+					}
+					if (savedBytes != dedupStats.savedBytes)
+						statsIndex.put(dedupStats);
+				}
 			} finally {
 				if (t.interruptedWhilePaused())
 					close();
@@ -529,12 +867,189 @@ public class BerkeleyDbTileStore extends TileStore {
 			}
 		}
 
+		/**
+		 * Waits until all pending tiles have been written.
+		 * 
+		 * @throws InterruptedException
+		 * @throws IOException
+		 *             if the {@link TileWriterThread} had to give up tiles since the last flush
+		 */
+		public void flush() throws InterruptedException, IOException {
+			synchronized (writeMonitor) {
+				while (!pendingTiles.isEmpty() && writerThread != null && writerThread.isAlive())
+					writeMonitor.wait(1000);
+			}
+			int lost = lostTiles.getAndSet(0);
+			if (lost > 0)
+				throw new IOException(lost + " tiles could not be written to tile store \"" + mapSourceName + "\"");
+		}
+
+		/**
+		 * Increments the reference count of the blob with the specified content or creates it.
+		 * 
+		 * @param data
+		 * @return key of the blob or <code>0</code> if the data has to be stored directly in the tile entry (hash
+		 *         collision)
+		 * @throws DatabaseException
+		 */
+		private long acquireBlob(byte[] data) throws DatabaseException {
+			byte[] md5 = digest.digest(data);
+			long hash = 0;
+			for (int i = 0; i < 8; i++)
+				hash = (hash << 8) | (md5[i] & 0xFF);
+			if (hash == 0)
+				return 0;
+			TileDbBlob blob = blobIndex.get(hash);
+			if (blob == null) {
+				blobIndex.put(new TileDbBlob(hash, data));
+				return hash;
+			}
+			if (!Arrays.equals(blob.data, data))
+				return 0;
+			blob.refCount++;
+			blobIndex.put(blob);
+			dedupStats.duplicateTileCount++;
+			dedupStats.savedBytes += data.length;
+			return hash;
+		}
+
+		private void releaseBlob(long hash) throws DatabaseException {
+			TileDbBlob blob = blobIndex.get(hash);
+			if (blob == null)
+				return;
+			if (blob.refCount <= 1) {
+				blobIndex.delete(hash);
+				return;
+			}
+			blob.refCount--;
+			blobIndex.put(blob);
+			dedupStats.duplicateTileCount--;
+			dedupStats.savedBytes -= blob.data.length;
+		}
+
 		public boolean contains(TileDbKey key) throws DatabaseException {
+			if (pendingTiles.containsKey(getPendingTileKey(key.x, key.y, key.zoom)))
+				return true;
+			if (coverageValid)
+				return coverage.contains(key.x, key.y, key.zoom);
 			return tileIndex.contains(key);
 		}
 
 		public TileDbEntry get(TileDbKey key) throws DatabaseException {
-			return tileIndex.get(key);
+			TileDbEntry tile = pendingTiles.get(getPendingTileKey(key.x, key.y, key.zoom));
+			if (tile != null)
+				return tile;
+			return resolveBlobData(tileIndex.get(key));
+		}
+
+		/**
+		 * Reads only the meta data record of the tile, the {@link TileDbBlob} is loaded on demand by
+		 * {@link TileDbEntry#getData()}.
+		 * 
+		 * @param key
+		 * @return
+		 * @throws DatabaseException
+		 */
+		public TileDbEntry getMeta(TileDbKey key) throws DatabaseException {
+			TileDbEntry tile = pendingTiles.get(getPendingTileKey(key.x, key.y, key.zoom));
+			if (tile != null)
+				return tile;
+			tile = tileIndex.get(key);
+			if (tile != null && tile.getBlobHash() != 0)
+				tile.setBlobDataSource(this);
+			return tile;
+		}
+
+		/**
+		 * Loads the {@link TileDbBlob} of a tile returned by {@link #getMeta(TileDbKey)}.
+		 * 
+		 * @param tile
+		 * @return the tile data or <code>null</code> if the data is not available anymore - the tile has been
+		 *         replaced or the database has been closed since the meta data has been read
+		 */
+		byte[] loadBlobData(TileDbEntry tile) {
+			if (isClosing()) {
+				log.debug("Tile store \"" + mapSourceName + "\" closed - data of " + tile + " not available");
+				return null;
+			}
+			TileDbBlob blob;
+			try {
+				blob = blobIndex.get(tile.getBlobHash());
+			} catch (Exception e) {
+				log.debug("Failed to load data of " + tile + " from tile store \"" + mapSourceName + "\": "
+						+ e.getMessage());
+				return null;
+			}
+			if (blob == null) {
+				log.debug("Data of " + tile + " in tile store \"" + mapSourceName + "\" has been released");
+				return null;
+			}
+			return blob.data;
+		}
+
+		/**
+		 * Loads the data of a tile entry that references a {@link TileDbBlob}.
+		 * 
+		 * @param tile
+		 * @return the tile or <code>null</code> if the blob is missing
+		 * @throws DatabaseException
+		 */
+		private TileDbEntry resolveBlobData(TileDbEntry tile) throws DatabaseException {
+			if (tile == null || tile.getBlobHash() == 0)
+				return tile;
+			TileDbBlob blob = blobIndex.get(tile.getBlobHash());
+			if (blob == null) {
+				log.warn("Missing data of " + tile + " in tile store \"" + mapSourceName + "\"");
+				return null;
+			}
+			tile.setBlobData(blob.data);
+			return tile;
+		}
+
+		/**
+		 * Reads the tiles of one column using a single cursor over the key range (zoom, x, yMin) - (zoom, x, yMax).
+		 * Only the meta data records are read, the {@link TileDbBlob}s are loaded on demand. Tiles not yet written by
+		 * the {@link TileWriterThread} are included. If the {@link #coverage} is available columns without stored tiles
+		 * are not read at all.
+		 */
+		public List<TileStoreEntry> getTileColumn(int zoom, int x, int yMin, int yMax) throws DatabaseException,
+				InterruptedException {
+			ArrayList<TileStoreEntry> tiles = new ArrayList<TileStoreEntry>();
+			if (coverageValid && !coverage.containsAny(zoom, x, yMin, yMax)) {
+				// Nothing stored in this column - only pending tiles are possible
+				addPendingTiles(tiles, zoom, x, yMin, yMax);
+				return tiles;
+			}
+			Thread t = Thread.currentThread();
+			EntityCursor<TileDbEntry> cursor = tileIndex.entities(new TileDbKey(x, yMin, zoom), true, new TileDbKey(
+					x, yMax, zoom), true);
+			try {
+				TileDbEntry tile = cursor.next();
+				while (tile != null) {
+					if (!pendingTiles.containsKey(getPendingTileKey(tile.getX(), tile.getY(), zoom))) {
+						if (tile.getBlobHash() != 0)
+							tile.setBlobDataSource(this);
+						tiles.add(tile);
+					}
+					tile = cursor.next();
+					if (t.isInterrupted())
+						throw new InterruptedException();
+				}
+			} finally {
+				cursor.close();
+			}
+			addPendingTiles(tiles, zoom, x, yMin, yMax);
+			return tiles;
+		}
+
+		private void addPendingTiles(List<TileStoreEntry> tiles, int zoom, int x, int yMin, int yMax) {
+			if (pendingTiles.isEmpty())
+				return;
+			for (int y = yMin; y <= yMax; y++) {
+				TileDbEntry tile = pendingTiles.get(getPendingTileKey(x, y, zoom));
+				if (tile != null)
+					tiles.add(tile);
+			}
 		}
 
 		public PrimaryIndex<TileDbKey, TileDbEntry> getTileIndex() {
@@ -544,47 +1059,13 @@ public class BerkeleyDbTileStore extends TileStore {
 		public BufferedImage getCacheCoverage(int zoom, Point tileNumMin, Point tileNumMax) throws DatabaseException,
 				InterruptedException {
 			log.debug("Loading cache coverage for region " + tileNumMin + " " + tileNumMax + " of zoom level " + zoom);
-			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
 			int width = tileNumMax.x - tileNumMin.x + 1;
 			int height = tileNumMax.y - tileNumMin.y + 1;
-			byte ff = (byte) 0xFF;
-			byte[] colors = new byte[] { 120, 120, 120, 120, // alpha-gray
-					10, ff, 0, 120 // alpha-green
-			};
-			IndexColorModel colorModel = new IndexColorModel(2, 2, colors, 0, true);
-			BufferedImage image = null;
-			try {
-				image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
-			} catch (Throwable e) {
-				log.error("Failed to create coverage image: " + e.toString());
-				image = null;
-				System.gc();
+			BufferedImage image = createCoverageImage(width, height);
+			if (image == null)
 				return null;
-			}
-			WritableRaster raster = image.getRaster();
-
-			// We are loading the coverage of the selected area column by column which is much faster than loading the
-			// whole region at once
-			for (int x = tileNumMin.x; x <= tileNumMax.x; x++) {
-				TileDbKey fromKey = new TileDbKey(x, tileNumMin.y, zoom);
-				TileDbKey toKey = new TileDbKey(x, tileNumMax.y, zoom);
-				EntityCursor<TileDbKey> cursor = tileIndex.keys(fromKey, true, toKey, true);
-				try {
-					TileDbKey key = cursor.next();
-					while (key != null) {
-						int pixelx = key.x - tileNumMin.x;
-						int pixely = key.y - tileNumMin.y;
-						raster.setSample(pixelx, pixely, 0, 1);
-						key = cursor.next();
-						if (t.isInterrupted()) {
-							log.debug("Cache coverage loading aborted");
-							throw new InterruptedException();
-						}
-					}
-				} finally {
-					cursor.close();
-				}
-			}
+			ensureCoverage();
+			coverage.paintCoverage(image.getRaster(), zoom, tileNumMin, tileNumMax);
 			return image;
 		}
 
@@ -602,8 +1083,14 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 
 		public void close(boolean removeFromMap) {
-			if (dbClosed)
-				return;
+			synchronized (writeMonitor) {
+				if (closing || dbClosed)
+					return;
+				closing = true;
+				writeMonitor.notifyAll();
+			}
+			stopWriterThread();
+			saveCoverage();
 			if (removeFromMap) {
 				synchronized (tileDbMap) {
 					TileDatabase db2 = tileDbMap.get(mapSourceName);
@@ -627,6 +1114,7 @@ public class BerkeleyDbTileStore extends TileStore {
 					log.error("", e);
 				} finally {
 					dbClosed = true;
+					closedLatch.countDown();
 				}
 			} finally {
 				if (t.interruptedWhilePaused())
@@ -635,11 +1123,158 @@ public class BerkeleyDbTileStore extends TileStore {
 			}
 		}
 
+		/**
+		 * Writes all pending tiles and terminates the {@link TileWriterThread}
+		 */
+		private void stopWriterThread() {
+			TileWriterThread writer;
+			synchronized (writeMonitor) {
+				writer = writerThread;
+				if (writer == null)
+					return;
+				writer.stopRequested = true;
+			}
+			if (writer == Thread.currentThread())
+				return;
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				log.error("Interrupted while writing pending tiles of \"" + mapSourceName + "\"");
+				Thread.currentThread().interrupt();
+			}
+		}
+
 		@Override
 		protected void finalize() throws Throwable {
 			close();
 			super.finalize();
 		}
 
+		/**
+		 * Writes the tiles stored in write-behind mode. All pending tiles are written in batches sorted by key. If a
+		 * batch fails its tiles are written one by one. Tiles that still fail stay pending and are retried up to
+		 * {@link #MAX_WRITE_ATTEMPTS} times before they are given up and reported via {@link TileDatabase#put} and
+		 * {@link TileDatabase#flush()}.
+		 */
+		private class TileWriterThread extends DelayedInterruptThread {
+
+			volatile boolean stopRequested = false;
+
+			private final ArrayList<Long> keys = new ArrayList<Long>(WRITE_BATCH_SIZE);
+			private final ArrayList<TileDbEntry> tiles = new ArrayList<TileDbEntry>(WRITE_BATCH_SIZE);
+
+			/**
+			 * Number of failed attempts per tile key
+			 */
+			private final HashMap<Long, Integer> failedAttempts = new HashMap<Long, Integer>();
+
+			public TileWriterThread() {
+				super("TileStoreWriter-" + mapSourceName);
+				setDaemon(true);
+			}
+
+			@Override
+			public void run() {
+				log.debug("Tile store writer thread started for \"" + mapSourceName + "\"");
+				boolean interrupted = false;
+				try {
+					while (true) {
+						Long key;
+						if (interrupted) {
+							key = writeQueue.poll();
+						} else {
+							try {
+								key = writeQueue.poll(500, TimeUnit.MILLISECONDS);
+							} catch (InterruptedException e) {
+								// Write the remaining tiles before terminating
+								log.debug("Tile store writer thread interrupted - writing " + pendingTiles.size()
+										+ " pending tiles");
+								interrupted = true;
+								continue;
+							}
+						}
+						if (key == null) {
+							if (stopRequested || interrupted) {
+								// Tiles are queued while holding the monitor - check again before terminating
+								synchronized (writeMonitor) {
+									if (writeQueue.isEmpty()) {
+										writerThread = null;
+										break;
+									}
+								}
+							}
+							continue;
+						}
+						writeBatch(key);
+						synchronized (writeMonitor) {
+							writeMonitor.notifyAll();
+						}
+					}
+				} finally {
+					synchronized (writeMonitor) {
+						if (writerThread == this)
+							writerThread = null;
+						writeMonitor.notifyAll();
+					}
+					if (!pendingTiles.isEmpty())
+						log.error("Tile store writer thread finished - " + pendingTiles.size() + " tiles not written");
+				}
+				log.debug("Tile store writer thread finished for \"" + mapSourceName + "\"");
+			}
+
+			private void writeBatch(Long firstKey) {
+				keys.add(firstKey);
+				writeQueue.drainTo(keys, WRITE_BATCH_SIZE - 1);
+				// Sequential key order results in sequential access to the B-tree
+				Collections.sort(keys);
+				for (Long k : keys)
+					tiles.add(pendingTiles.get(k));
+				try {
+					writeTiles(tiles);
+					for (int i = 0; i < keys.size(); i++)
+						tileWritten(keys.get(i), tiles.get(i));
+				} catch (Exception e) {
+					// The batch is not transactional - tiles already written are simply written again
+					log.warn("Failed to write " + tiles.size() + " tiles to tile store \"" + mapSourceName
+							+ "\" - writing tiles separately: " + e.getMessage());
+					for (int i = 0; i < keys.size(); i++) {
+						TileDbEntry tile = tiles.get(i);
+						try {
+							writeTiles(Collections.singletonList(tile));
+							tileWritten(keys.get(i), tile);
+						} catch (Exception e2) {
+							tileFailed(keys.get(i), tile, e2);
+						}
+					}
+				} finally {
+					keys.clear();
+					tiles.clear();
+				}
+			}
+
+			private void tileWritten(Long key, TileDbEntry tile) {
+				failedAttempts.remove(key);
+				// If the tile has been replaced meanwhile the new version has to be written, too
+				if (!pendingTiles.remove(key, tile))
+					writeQueue.add(key);
+			}
+
+			private void tileFailed(Long key, TileDbEntry tile, Exception e) {
+				Integer attempts = failedAttempts.get(key);
+				attempts = (attempts == null) ? 1 : attempts + 1;
+				if (attempts < MAX_WRITE_ATTEMPTS) {
+					// The tile stays pending and is retried with one of the next batches
+					failedAttempts.put(key, attempts);
+					writeQueue.add(key);
+					return;
+				}
+				failedAttempts.remove(key);
+				log.error("Failed to write " + tile + " to tile store \"" + mapSourceName + "\"", e);
+				writeError.set(e);
+				lostTiles.incrementAndGet();
+				if (!pendingTiles.remove(key, tile))
+					writeQueue.add(key);
+			}
+		}
 	}
 }
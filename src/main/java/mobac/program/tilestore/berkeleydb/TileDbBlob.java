@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore.berkeleydb;
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+/**
+ * Tile data shared by all {@link TileDbEntry}s with identical content. The primary key is a 64 bit hash of the data.
+ */
+@Entity(version = 1)
+public class TileDbBlob {
+
+	@PrimaryKey
+	protected long hash;
+
+	protected byte[] data;
+
+	/**
+	 * Number of {@link TileDbEntry}s referencing this blob
+	 */
+	protected int refCount;
+
+	protected TileDbBlob() {
+		// required for deserialization
+	}
+
+	public TileDbBlob(long hash, byte[] data) {
+		this.hash = hash;
+		this.data = data;
+		this.refCount = 1;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getRefCount() {
+		return refCount;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore.berkeleydb;
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+/**
+ * Deduplication statistics of one tile database (single record with key {@link #ID}).
+ */
+@Entity(version = 1)
+public class TileDbDedupStats {
+
+	public static final int ID = 1;
+
+	@PrimaryKey
+	protected int id = ID;
+
+	/**
+	 * Number of tiles that reference a blob already referenced by another tile
+	 */
+	protected long duplicateTileCount;
+
+	/**
+	 * Number of bytes not stored because of deduplication
+	 */
+	protected long savedBytes;
+
+	public TileDbDedupStats() {
+	}
+
+	public long getDuplicateTileCount() {
+		return duplicateTileCount;
+	}
+
+	public long getSavedBytes() {
+		return savedBytes;
+	}
+
+}
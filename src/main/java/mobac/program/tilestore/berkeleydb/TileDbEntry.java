@@ -25,13 +25,28 @@ import com.sleepycat.persist.model.KeyField;
 import com.sleepycat.persist.model.Persistent;
 import com.sleepycat.persist.model.PrimaryKey;
 
-@Entity(version = 3)
+@Entity(version = 4)
 public class TileDbEntry implements TileStoreEntry {
 
 	@PrimaryKey
 	protected TileDbKey tileKey;
 
+	/**
+	 * Tile data - <code>null</code> in the database if the data is stored as {@link TileDbBlob}
+	 */
 	private byte[] data;
+
+	/**
+	 * Database the {@link TileDbBlob} is loaded from on the first call of {@link #getData()} - only set for entries
+	 * loaded without their data
+	 */
+	private transient BerkeleyDbTileStore.TileDatabase dataSource = null;
+
+	/**
+	 * Key of the {@link TileDbBlob} holding the tile data or <code>0</code> if the data is stored in this entry
+	 */
+	private long blobHash = 0;
+
 	private String eTag = null;
 
 	private long timeDownloaded;
@@ -76,9 +91,61 @@ public class TileDbEntry implements TileStoreEntry {
 	}
 
 	public byte[] getData() {
+		if (data == null && dataSource != null) {
+			data = dataSource.loadBlobData(this);
+			// If loading failed the entry still references the blob - e.g. for meta data updates
+			if (data != null)
+				dataSource = null;
+		}
 		return data;
 	}
 
+	long getBlobHash() {
+		return blobHash;
+	}
+
+	/**
+	 * Sets the data of a tile loaded from the database that references a {@link TileDbBlob}
+	 */
+	void setBlobData(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Defers loading of the {@link TileDbBlob} referenced by this entry until {@link #getData()} is called.
+	 */
+	void setBlobDataSource(BerkeleyDbTileStore.TileDatabase dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @return <code>true</code> if the entry references a {@link TileDbBlob} that has not been loaded yet
+	 */
+	boolean isBlobDataPending() {
+		return data == null && dataSource != null;
+	}
+
+	/**
+	 * Creates the entry to be written to the database. The copy does not contain the tile data if
+	 * <code>blobHash</code> is not <code>0</code>.
+	 * 
+	 * @param blobHash
+	 * @return
+	 */
+	TileDbEntry createStorageEntry(long blobHash) {
+		if (blobHash == 0 && this.blobHash == 0)
+			return this;
+		TileDbEntry entry = new TileDbEntry();
+		entry.tileKey = tileKey;
+		entry.data = (blobHash != 0) ? null : data;
+		entry.blobHash = blobHash;
+		entry.eTag = eTag;
+		entry.timeDownloaded = timeDownloaded;
+		entry.timeLastModified = timeLastModified;
+		entry.timeExpires = timeExpires;
+		return entry;
+	}
+
 	public String geteTag() {
 		return eTag;
 	}
@@ -0,0 +1,600 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore.packed;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mobac.exceptions.TileStoreException;
+import mobac.program.interfaces.MapSource;
+import mobac.program.model.Settings;
+import mobac.program.tilestore.TileStore;
+import mobac.program.tilestore.TileStoreEntry;
+import mobac.program.tilestore.TileStoreInfo;
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+import mobac.utilities.Utilities;
+import mobac.utilities.file.DeleteFileFilter;
+import mobac.utilities.file.DirectoryFileFilter;
+
+/**
+ * Tile store implementation that appends the tiles of a map source to large segment files. The location of each tile
+ * is kept in an in-memory {@link PackedTileIndex} which is persisted when the store is closed. After an unclean
+ * shutdown the tiles written after the last persisted index are recovered by scanning the segment files.
+ * 
+ * Replaced tiles are not removed from the segment files - the space is reclaimed only when the store is cleared.
+ */
+public class PackedFileTileStore extends TileStore {
+
+	/**
+	 * Max count of tile stores opened
+	 */
+	private static final int MAX_CONCURRENT_STORES = 5;
+
+	/**
+	 * A segment is sealed and memory mapped as soon as it reaches this size
+	 */
+	private static final long MAX_SEGMENT_SIZE = 128L * 1024 * 1024;
+
+	private static final String INDEX_FILE = "index.dat";
+
+	private static final int INDEX_MAGIC = 0x4D504B49;
+
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * Opened tile stores. Lookups are performed without locking, opening and closing is synchronized on the map.
+	 */
+	private volatile Map<String, TileDatabase> tileDbMap;
+
+	public PackedFileTileStore() throws TileStoreException {
+		super();
+		acquireTileStoreLock();
+		tileDbMap = new ConcurrentHashMap<String, TileDatabase>();
+		Runtime.getRuntime().addShutdownHook(new ShutdownThread(true));
+	}
+
+	/**
+	 * Packs segment number and record offset into one long value
+	 */
+	static long getLocation(int segment, int offset) {
+		return (((long) segment) << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public TileStoreEntry createNewEntry(int x, int y, int zoom, byte[] data, long timeLastModified, long timeExpires,
+			String eTag) {
+		return new PackedTileEntry(x, y, zoom, data, timeLastModified, timeExpires, eTag);
+	}
+
+	@Override
+	public TileStoreEntry createNewEmptyEntry(int x, int y, int zoom) {
+		long time = System.currentTimeMillis();
+		long timeExpires = time + Settings.getInstance().tileDefaultExpirationTime;
+		return new PackedTileEntry(x, y, zoom, new byte[] {}, time, timeExpires, "");
+	}
+
+	private TileDatabase getTileDatabase(MapSource mapSource) throws TileStoreException {
+		return getTileDatabase(mapSource.getName());
+	}
+
+	private TileDatabase getTileDatabase(String storeName) throws TileStoreException {
+		Map<String, TileDatabase> tileDbMap = this.tileDbMap;
+		if (tileDbMap == null)
+			// Tile store has been closed already
+			return null;
+		if (storeName == null)
+			return null;
+		TileDatabase db = tileDbMap.get(storeName);
+		if (db != null)
+			return db;
+		try {
+			synchronized (tileDbMap) {
+				cleanupDatabases();
+				db = tileDbMap.get(storeName);
+				if (db == null) {
+					db = new TileDatabase(storeName);
+					tileDbMap.put(storeName, db);
+				}
+				return db;
+			}
+		} catch (IOException e) {
+			log.error("Error opening tile store \"" + storeName + "\"", e);
+			throw new TileStoreException(e);
+		}
+	}
+
+	protected void cleanupDatabases() {
+		if (tileDbMap.size() < MAX_CONCURRENT_STORES)
+			return;
+		synchronized (tileDbMap) {
+			List<TileDatabase> list = new ArrayList<TileDatabase>(tileDbMap.values());
+			Collections.sort(list, new Comparator<TileDatabase>() {
+
+				public int compare(TileDatabase o1, TileDatabase o2) {
+					if (o1.lastAccess == o2.lastAccess)
+						return 0;
+					return (o1.lastAccess < o2.lastAccess) ? -1 : 1;
+				}
+			});
+			for (int i = 0; i < list.size() - 2; i++)
+				list.get(i).close();
+		}
+	}
+
+	@Override
+	public void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource) throws IOException {
+		putTileData(tileData, x, y, zoom, mapSource, -1, -1, null);
+	}
+
+	@Override
+	public void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource, long timeLastModified,
+			long timeExpires, String eTag) throws IOException {
+		putTile(new PackedTileEntry(x, y, zoom, tileData, timeLastModified, timeExpires, eTag), mapSource);
+	}
+
+	@Override
+	public void putTile(TileStoreEntry tile, MapSource mapSource) {
+		putTiles(Collections.singletonList(tile), mapSource);
+	}
+
+	@Override
+	public void putTiles(Collection<? extends TileStoreEntry> tiles, MapSource mapSource) {
+		TileDatabase db = null;
+		try {
+			db = getTileDatabase(mapSource);
+			if (db == null)
+				return;
+			db.put(tiles);
+			if (log.isTraceEnabled())
+				log.trace("Saved " + tiles.size() + " tiles of " + mapSource.getName());
+		} catch (Exception e) {
+			if (db != null)
+				db.close();
+			log.error("Faild to write tiles to tile store \"" + mapSource.getName() + "\"", e);
+		}
+	}
+
+	@Override
+	public TileStoreEntry getTile(int x, int y, int zoom, MapSource mapSource) {
+		TileDatabase db = null;
+		try {
+			db = getTileDatabase(mapSource);
+			if (db == null)
+				return null;
+			TileStoreEntry tile = db.get(x, y, zoom);
+			if (log.isTraceEnabled()) {
+				if (tile == null)
+					log.trace("Tile store cache miss: (x,y,z)" + x + "/" + y + "/" + zoom + " " + mapSource.getName());
+				else
+					log.trace("Loaded " + mapSource.getName() + " " + tile);
+			}
+			return tile;
+		} catch (Exception e) {
+			log.error("failed to retrieve tile from tile store \"" + mapSource.getName() + "\"", e);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean contains(int x, int y, int zoom, MapSource mapSource) {
+		try {
+			TileDatabase db = getTileDatabase(mapSource);
+			return (db != null) && db.index.contains(PackedTileIndex.getTileKey(x, y, zoom));
+		} catch (TileStoreException e) {
+			log.error("", e);
+			return false;
+		}
+	}
+
+	@Override
+	public void prepareTileStore(MapSource mapSource) {
+		try {
+			getTileDatabase(mapSource);
+		} catch (TileStoreException e) {
+		}
+	}
+
+	@Override
+	public void clearStore(String storeName) {
+		File storeDir = getStoreDir(storeName);
+		synchronized (tileDbMap) {
+			TileDatabase db = tileDbMap.get(storeName);
+			if (db != null)
+				db.close(false, false);
+			if (storeDir.exists()) {
+				DeleteFileFilter dff = new DeleteFileFilter();
+				storeDir.listFiles(dff);
+				storeDir.delete();
+				log.debug("Tilestore " + storeName + " cleared: " + dff);
+			}
+			tileDbMap.remove(storeName);
+		}
+	}
+
+	@Override
+	public String[] getAllStoreNames() {
+		File[] dirs = tileStoreDir.listFiles(new DirectoryFileFilter());
+		ArrayList<String> storeNames = new ArrayList<String>(dirs.length);
+		for (File d : dirs) {
+			String name = d.getName();
+			if (name.startsWith("pk-"))
+				storeNames.add(name.substring(3));
+		}
+		String[] result = new String[storeNames.size()];
+		storeNames.toArray(result);
+		return result;
+	}
+
+	@Override
+	public boolean storeExists(MapSource mapSource) {
+		return getStoreDir(mapSource.getName()).isDirectory();
+	}
+
+	@Override
+	public TileStoreInfo getStoreInfo(String storeName) throws InterruptedException {
+		File storeDir = getStoreDir(storeName);
+		if (!storeDir.isDirectory())
+			return new TileStoreInfo(0, 0);
+		int tileCount;
+		try {
+			TileDatabase db = getTileDatabase(storeName);
+			tileCount = (db != null) ? db.index.size() : -1;
+		} catch (TileStoreException e) {
+			log.error("", e);
+			tileCount = -1;
+		}
+		return new TileStoreInfo(getDirectorySize(storeDir), tileCount);
+	}
+
+	@Override
+	public BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
+			throws InterruptedException {
+		try {
+			TileDatabase db = getTileDatabase(mapSource);
+			if (db == null)
+				return null;
+			return db.getCacheCoverage(zoom, tileNumMin, tileNumMax);
+		} catch (TileStoreException e) {
+			log.error("", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void closeAll() {
+		Thread t = new ShutdownThread(false);
+		t.start();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			log.error("", e);
+		}
+	}
+
+	/**
+	 * @param storeName
+	 * @return directory used for storing the segment files of the specified map source
+	 */
+	protected File getStoreDir(String storeName) {
+		return new File(tileStoreDir, "pk-" + storeName);
+	}
+
+	/**
+	 * Pauses the interrupt of the current thread if possible - an interrupt during I/O operation would close the file
+	 * channels.
+	 * 
+	 * @return the current thread if the interrupt has been paused
+	 */
+	private static DelayedInterruptThread pauseInterrupt() {
+		Thread t = Thread.currentThread();
+		if (!(t instanceof DelayedInterruptThread))
+			return null;
+		DelayedInterruptThread dit = (DelayedInterruptThread) t;
+		dit.pauseInterrupt();
+		return dit;
+	}
+
+	private static void resumeInterrupt(DelayedInterruptThread t) {
+		if (t != null)
+			t.resumeInterrupt();
+	}
+
+	private class ShutdownThread extends DelayedInterruptThread {
+
+		private final boolean shutdown;
+
+		public ShutdownThread(boolean shutdown) {
+			super("PackedStoreShutdown");
+			this.shutdown = shutdown;
+		}
+
+		@Override
+		public void run() {
+			Map<String, TileDatabase> tileDbMap = PackedFileTileStore.this.tileDbMap;
+			if (tileDbMap == null)
+				return;
+			log.debug("Closing all tile stores...");
+			synchronized (tileDbMap) {
+				for (TileDatabase db : tileDbMap.values())
+					db.close(false, true);
+				tileDbMap.clear();
+				if (shutdown) {
+					PackedFileTileStore.this.tileDbMap = null;
+					releaseTileStoreLock();
+				}
+			}
+			log.debug("All tile stores have been closed");
+		}
+	}
+
+	protected class TileDatabase {
+
+		final String storeName;
+		final File storeDir;
+		final PackedTileIndex index;
+
+		/**
+		 * All segments ordered by number, the last one is the active segment. Replaced (copy on write) when a new
+		 * segment is started.
+		 */
+		volatile TileSegment[] segments;
+
+		/**
+		 * Set if the index differs from the persisted one
+		 */
+		boolean indexModified = false;
+
+		volatile boolean closed = false;
+
+		final long lastAccess;
+
+		public TileDatabase(String storeName) throws IOException {
+			log.debug("Opening packed tile store: \"" + storeName + "\"");
+			this.storeName = storeName;
+			lastAccess = System.currentTimeMillis();
+			storeDir = getStoreDir(storeName);
+			Utilities.mkDirs(storeDir);
+			DelayedInterruptThread t = pauseInterrupt();
+			try {
+				ArrayList<TileSegment> segmentList = new ArrayList<TileSegment>();
+				File f = getSegmentFile(0);
+				while (f.isFile()) {
+					segmentList.add(new TileSegment(f, segmentList.size()));
+					f = getSegmentFile(segmentList.size());
+				}
+				if (segmentList.isEmpty())
+					segmentList.add(new TileSegment(getSegmentFile(0), 0));
+				segments = segmentList.toArray(new TileSegment[segmentList.size()]);
+				index = loadIndex();
+				for (int i = 0; i < segments.length - 1; i++)
+					segments[i].seal();
+				log.debug("Packed tile store \"" + storeName + "\" opened: " + index.size() + " tiles in "
+						+ segments.length + " segments");
+			} finally {
+				resumeInterrupt(t);
+			}
+		}
+
+		private File getSegmentFile(int number) {
+			return new File(storeDir, String.format("segment-%05d.dat", number));
+		}
+
+		/**
+		 * Loads the persisted index and adds the tiles appended afterwards. If no valid index is available it is
+		 * rebuilt from the segment files.
+		 */
+		private PackedTileIndex loadIndex() throws IOException {
+			File indexFile = new File(storeDir, INDEX_FILE);
+			int firstSegment = 0;
+			long firstOffset = 0;
+			PackedTileIndex index = null;
+			if (indexFile.isFile()) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+				try {
+					if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION)
+						throw new IOException("Unsupported index file format");
+					int segmentCount = in.readInt();
+					long lastSegmentLength = in.readLong();
+					if (segmentCount < 1 || segmentCount > segments.length
+							|| segments[segmentCount - 1].getLength() < lastSegmentLength)
+						throw new IOException("Index does not match the segment files");
+					index = PackedTileIndex.readFrom(in);
+					firstSegment = segmentCount - 1;
+					firstOffset = lastSegmentLength;
+				} catch (IOException e) {
+					log.warn("Rebuilding index of tile store \"" + storeName + "\": " + e.getMessage());
+					index = null;
+				} finally {
+					Utilities.closeStream(in);
+				}
+			}
+			if (index == null) {
+				index = new PackedTileIndex();
+				firstSegment = 0;
+				firstOffset = 0;
+			}
+			int recovered = 0;
+			for (int i = firstSegment; i < segments.length; i++) {
+				recovered += segments[i].scan(index, firstOffset, getLocation(i, 0));
+				firstOffset = 0;
+			}
+			if (recovered > 0) {
+				log.debug(recovered + " tiles added to the index of tile store \"" + storeName + "\"");
+				indexModified = true;
+			}
+			return index;
+		}
+
+		private void saveIndex() throws IOException {
+			File indexFile = new File(storeDir, INDEX_FILE);
+			File tmpFile = new File(storeDir, INDEX_FILE + ".tmp");
+			TileSegment[] segments = this.segments;
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile),
+					65536));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(segments.length);
+				out.writeLong(segments[segments.length - 1].getLength());
+				index.writeTo(out);
+				out.flush();
+			} finally {
+				Utilities.closeStream(out);
+			}
+			indexFile.delete();
+			if (!tmpFile.renameTo(indexFile))
+				throw new IOException("Failed to rename " + tmpFile + " to " + indexFile);
+			indexModified = false;
+		}
+
+		public synchronized void put(Collection<? extends TileStoreEntry> tiles) throws IOException {
+			if (closed)
+				return;
+			DelayedInterruptThread t = pauseInterrupt();
+			try {
+				for (TileStoreEntry tile : tiles) {
+					TileSegment[] segs = segments;
+					TileSegment segment = segs[segs.length - 1];
+					long length = segment.getLength();
+					if (length > 0 && length + TileSegment.getRecordSize(tile) > MAX_SEGMENT_SIZE)
+						segment = startNewSegment();
+					int offset = segment.append(tile);
+					index.put(PackedTileIndex.getTileKey(tile.getX(), tile.getY(), tile.getZoom()),
+							getLocation(segment.number, offset));
+					indexModified = true;
+				}
+			} finally {
+				resumeInterrupt(t);
+			}
+		}
+
+		private TileSegment startNewSegment() throws IOException {
+			TileSegment[] segs = segments;
+			segs[segs.length - 1].seal();
+			TileSegment segment = new TileSegment(getSegmentFile(segs.length), segs.length);
+			TileSegment[] newSegments = new TileSegment[segs.length + 1];
+			System.arraycopy(segs, 0, newSegments, 0, segs.length);
+			newSegments[segs.length] = segment;
+			segments = newSegments;
+			return segment;
+		}
+
+		public PackedTileEntry get(int x, int y, int zoom) throws IOException {
+			long location = index.get(PackedTileIndex.getTileKey(x, y, zoom));
+			if (location == PackedTileIndex.NOT_FOUND)
+				return null;
+			TileSegment segment = segments[(int) (location >>> 32)];
+			DelayedInterruptThread t = pauseInterrupt();
+			try {
+				return segment.read((int) location);
+			} finally {
+				resumeInterrupt(t);
+			}
+		}
+
+		public BufferedImage getCacheCoverage(final int zoom, final Point tileNumMin, final Point tileNumMax)
+				throws InterruptedException {
+			log.debug("Loading cache coverage for region " + tileNumMin + " " + tileNumMax + " of zoom level " + zoom);
+			int width = tileNumMax.x - tileNumMin.x + 1;
+			int height = tileNumMax.y - tileNumMin.y + 1;
+			BufferedImage image = createCoverageImage(width, height);
+			if (image == null)
+				return null;
+			final WritableRaster raster = image.getRaster();
+			if ((long) width * height <= index.size()) {
+				// Small region: look up each tile
+				for (int x = tileNumMin.x; x <= tileNumMax.x; x++) {
+					for (int y = tileNumMin.y; y <= tileNumMax.y; y++) {
+						if (index.contains(PackedTileIndex.getTileKey(x, y, zoom)))
+							raster.setSample(x - tileNumMin.x, y - tileNumMin.y, 0, 1);
+					}
+					Utilities.checkForInterruption();
+				}
+			} else {
+				// Large region: scan the whole index once
+				index.visit(new PackedTileIndex.Visitor() {
+
+					int count = 0;
+
+					public void visit(long tileKey, long location) throws InterruptedException {
+						if ((++count & 0xFFFF) == 0)
+							Utilities.checkForInterruption();
+						if (PackedTileIndex.getZoom(tileKey) != zoom)
+							return;
+						int x = PackedTileIndex.getX(tileKey);
+						int y = PackedTileIndex.getY(tileKey);
+						if (x >= tileNumMin.x && x <= tileNumMax.x && y >= tileNumMin.y && y <= tileNumMax.y)
+							raster.setSample(x - tileNumMin.x, y - tileNumMin.y, 0, 1);
+					}
+				});
+			}
+			return image;
+		}
+
+		public void close() {
+			close(true, true);
+		}
+
+		/**
+		 * @param removeFromMap
+		 * @param persistIndex
+		 *            <code>false</code> if the store is going to be deleted anyway
+		 */
+		public void close(boolean removeFromMap, boolean persistIndex) {
+			Map<String, TileDatabase> tileDbMap = PackedFileTileStore.this.tileDbMap;
+			if (removeFromMap && tileDbMap != null) {
+				synchronized (tileDbMap) {
+					if (tileDbMap.get(storeName) == this)
+						tileDbMap.remove(storeName);
+				}
+			}
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				log.debug("Closing packed tile store \"" + storeName + "\"");
+				DelayedInterruptThread t = pauseInterrupt();
+				try {
+					if (persistIndex && indexModified)
+						saveIndex();
+				} catch (IOException e) {
+					log.error("Failed to save index of tile store \"" + storeName + "\"", e);
+				} finally {
+					for (TileSegment segment : segments)
+						segment.close();
+					resumeInterrupt(t);
+				}
+			}
+		}
+	}
+}
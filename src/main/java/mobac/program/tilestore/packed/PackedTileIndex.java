@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore.packed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open addressing hash table (linear probing) that maps the packed tile coordinates (see {@link #getTileKey(int, int,
+ * int)}) to the location of the tile record in the segment files.
+ * 
+ * Lookups do not lock and do not allocate any objects. Modifications are serialized. A key is published after its
+ * value, therefore a reader that finds a key always reads a valid location. When the table grows a completely filled
+ * new table replaces the old one, readers still working on the old table see a consistent older state. Entries are
+ * never removed.
+ */
+public class PackedTileIndex {
+
+	public static final long NOT_FOUND = -1L;
+
+	private static final long EMPTY = -1L;
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	/**
+	 * Key and value pairs: key at <code>2*slot</code>, value at <code>2*slot+1</code>
+	 */
+	private volatile AtomicLongArray table;
+
+	private volatile int size = 0;
+
+	private int resizeThreshold;
+
+	public PackedTileIndex() {
+		this(1024);
+	}
+
+	public PackedTileIndex(int expectedSize) {
+		int slots = 16;
+		while (slots * LOAD_FACTOR <= expectedSize)
+			slots <<= 1;
+		table = createTable(slots);
+		resizeThreshold = (int) (slots * LOAD_FACTOR);
+	}
+
+	/**
+	 * Packs the tile coordinates into one long value. Sort order is zoom, x, y.
+	 */
+	public static long getTileKey(int x, int y, int zoom) {
+		return (((long) zoom) << 58) | ((x & 0x1FFFFFFFL) << 29) | (y & 0x1FFFFFFFL);
+	}
+
+	public static int getZoom(long tileKey) {
+		return (int) (tileKey >>> 58);
+	}
+
+	public static int getX(long tileKey) {
+		return (int) ((tileKey >>> 29) & 0x1FFFFFFFL);
+	}
+
+	public static int getY(long tileKey) {
+		return (int) (tileKey & 0x1FFFFFFFL);
+	}
+
+	private static AtomicLongArray createTable(int slots) {
+		AtomicLongArray t = new AtomicLongArray(slots * 2);
+		for (int i = 0; i < slots; i++)
+			t.lazySet(i * 2, EMPTY);
+		return t;
+	}
+
+	private static int slot(long key, int mask) {
+		// MurmurHash3 finalizer - spreads the coordinate bits over the whole table
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	/**
+	 * @param tileKey
+	 * @return location of the tile or {@link #NOT_FOUND}
+	 */
+	public long get(long tileKey) {
+		AtomicLongArray t = table;
+		int mask = (t.length() >> 1) - 1;
+		int i = slot(tileKey, mask);
+		while (true) {
+			long k = t.get(i << 1);
+			if (k == tileKey)
+				return t.get((i << 1) + 1);
+			if (k == EMPTY)
+				return NOT_FOUND;
+			i = (i + 1) & mask;
+		}
+	}
+
+	public boolean contains(long tileKey) {
+		return get(tileKey) != NOT_FOUND;
+	}
+
+	/**
+	 * Adds or replaces the location of a tile
+	 * 
+	 * @param tileKey
+	 * @param location
+	 */
+	public synchronized void put(long tileKey, long location) {
+		if (insert(table, tileKey, location)) {
+			size++;
+			if (size > resizeThreshold)
+				grow();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a new key has been inserted
+	 */
+	private static boolean insert(AtomicLongArray t, long tileKey, long location) {
+		int mask = (t.length() >> 1) - 1;
+		int i = slot(tileKey, mask);
+		while (true) {
+			long k = t.get(i << 1);
+			if (k == tileKey) {
+				t.set((i << 1) + 1, location);
+				return false;
+			}
+			if (k == EMPTY) {
+				t.set((i << 1) + 1, location);
+				t.set(i << 1, tileKey);
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		AtomicLongArray oldTable = table;
+		int slots = oldTable.length();
+		AtomicLongArray newTable = createTable(slots);
+		for (int i = 0; i < oldTable.length(); i += 2) {
+			long k = oldTable.get(i);
+			if (k != EMPTY)
+				insert(newTable, k, oldTable.get(i + 1));
+		}
+		resizeThreshold = (int) (slots * LOAD_FACTOR);
+		table = newTable;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Calls the visitor for every entry. Entries added while iterating may or may not be visited.
+	 * 
+	 * @param visitor
+	 * @throws InterruptedException
+	 *             thrown by the visitor
+	 */
+	public void visit(Visitor visitor) throws InterruptedException {
+		AtomicLongArray t = table;
+		for (int i = 0; i < t.length(); i += 2) {
+			long k = t.get(i);
+			if (k != EMPTY)
+				visitor.visit(k, t.get(i + 1));
+		}
+	}
+
+	public synchronized void writeTo(DataOutputStream out) throws IOException {
+		AtomicLongArray t = table;
+		out.writeInt(size);
+		for (int i = 0; i < t.length(); i += 2) {
+			long k = t.get(i);
+			if (k != EMPTY) {
+				out.writeLong(k);
+				out.writeLong(t.get(i + 1));
+			}
+		}
+	}
+
+	public static PackedTileIndex readFrom(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0)
+			throw new IOException("Invalid tile count: " + count);
+		PackedTileIndex index = new PackedTileIndex(count);
+		for (int i = 0; i < count; i++) {
+			long key = in.readLong();
+			long location = in.readLong();
+			index.put(key, location);
+		}
+		return index;
+	}
+
+	public interface Visitor {
+
+		void visit(long tileKey, long location) throws InterruptedException;
+
+	}
+}
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program.tilestore.packed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import mobac.program.tilestore.TileStoreEntry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One segment file of a {@link PackedFileTileStore}. Tile records are only appended, never modified. Once a segment is
+ * full it is sealed and from then on read via a read-only memory mapping. The active segment is read using positional
+ * reads which are safe for concurrent use.
+ * 
+ * <pre>
+ * Record layout:
+ * int    magic
+ * int    record length (including header)
+ * int    zoom, x, y
+ * long   time downloaded, time last modified, time expires
+ * short  eTag length (-1 = no eTag)
+ * byte[] eTag (UTF-8)
+ * byte[] tile data (remaining bytes of the record)
+ * </pre>
+ */
+public class TileSegment {
+
+	private static final Logger log = Logger.getLogger(TileSegment.class);
+
+	static final int RECORD_MAGIC = 0x4D504B54;
+
+	static final int HEADER_SIZE = 46;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	final int number;
+	final File file;
+
+	private volatile FileChannel channel;
+
+	/**
+	 * Reused by the (synchronized) writer
+	 */
+	private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE + Short.MAX_VALUE);
+
+	/**
+	 * Number of valid bytes in this segment
+	 */
+	private volatile long length;
+
+	private volatile MappedByteBuffer mapping = null;
+
+	private volatile boolean closed = false;
+
+	public TileSegment(File file, int number) throws IOException {
+		this.file = file;
+		this.number = number;
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		length = channel.size();
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public boolean isSealed() {
+		return mapping != null;
+	}
+
+	/**
+	 * @param tile
+	 * @return size of the record that would be written for <code>tile</code>
+	 */
+	public static int getRecordSize(TileStoreEntry tile) {
+		String eTag = tile.geteTag();
+		int eTagLength = (eTag != null) ? eTag.getBytes(UTF8).length : 0;
+		return HEADER_SIZE + eTagLength + tile.getData().length;
+	}
+
+	/**
+	 * Appends the tile record at the end of the segment.
+	 * 
+	 * @param tile
+	 * @return offset of the record
+	 * @throws IOException
+	 */
+	public synchronized int append(TileStoreEntry tile) throws IOException {
+		byte[] data = tile.getData();
+		byte[] eTag = (tile.geteTag() != null) ? tile.geteTag().getBytes(UTF8) : null;
+		if (eTag != null && eTag.length > Short.MAX_VALUE)
+			eTag = null;
+		int eTagLength = (eTag != null) ? eTag.length : 0;
+		long offset = length;
+		ByteBuffer header = headerBuffer;
+		header.clear();
+		header.putInt(RECORD_MAGIC);
+		header.putInt(HEADER_SIZE + eTagLength + data.length);
+		header.putInt(tile.getZoom());
+		header.putInt(tile.getX());
+		header.putInt(tile.getY());
+		header.putLong(tile.getTimeDownloaded());
+		header.putLong(tile.getTimeLastModified());
+		header.putLong(tile.getTimeExpires());
+		header.putShort((short) ((eTag != null) ? eTagLength : -1));
+		if (eTag != null)
+			header.put(eTag);
+		header.flip();
+		FileChannel ch = getChannel();
+		ch.position(offset);
+		ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(data) };
+		while (buffers[1].hasRemaining())
+			ch.write(buffers);
+		length = offset + HEADER_SIZE + eTagLength + data.length;
+		return (int) offset;
+	}
+
+	/**
+	 * Maps the segment into memory. Afterwards no more tiles can be appended.
+	 */
+	public synchronized void seal() {
+		if (mapping != null)
+			return;
+		try {
+			mapping = getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} catch (IOException e) {
+			// e.g. address space exhausted on 32bit VMs - we still can read using the file channel
+			log.warn("Unable to map segment file " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the tile record at the specified offset.
+	 * 
+	 * @param offset
+	 * @return the tile or <code>null</code> if there is no valid tile record at <code>offset</code>
+	 * @throws IOException
+	 */
+	public PackedTileEntry read(int offset) throws IOException {
+		MappedByteBuffer m = mapping;
+		if (m != null) {
+			ByteBuffer b = m.duplicate();
+			b.position(offset);
+			return parseRecord(b);
+		}
+		ByteBuffer header = ByteBuffer.allocate(8);
+		readFully(header, offset);
+		header.flip();
+		if (header.getInt() != RECORD_MAGIC)
+			return null;
+		int recordLength = header.getInt();
+		if (recordLength < HEADER_SIZE || offset + recordLength > length)
+			return null;
+		ByteBuffer b = ByteBuffer.allocate(recordLength);
+		readFully(b, offset);
+		b.flip();
+		return parseRecord(b);
+	}
+
+	private void readFully(ByteBuffer b, long position) throws IOException {
+		FileChannel ch = getChannel();
+		while (b.hasRemaining()) {
+			int read = ch.read(b, position);
+			if (read < 0)
+				throw new IOException("Unexpected end of segment file " + file);
+			position += read;
+		}
+	}
+
+	private static PackedTileEntry parseRecord(ByteBuffer b) {
+		int recordStart = b.position();
+		if (b.remaining() < HEADER_SIZE || b.getInt() != RECORD_MAGIC)
+			return null;
+		int recordLength = b.getInt();
+		if (recordLength < HEADER_SIZE || recordLength > b.limit() - recordStart)
+			return null;
+		int zoom = b.getInt();
+		int x = b.getInt();
+		int y = b.getInt();
+		long timeDownloaded = b.getLong();
+		long timeLastModified = b.getLong();
+		long timeExpires = b.getLong();
+		short eTagLength = b.getShort();
+		String eTag = null;
+		if (eTagLength >= 0) {
+			byte[] eTagBytes = new byte[eTagLength];
+			b.get(eTagBytes);
+			eTag = new String(eTagBytes, UTF8);
+		}
+		byte[] data = new byte[recordStart + recordLength - b.position()];
+		b.get(data);
+		return new PackedTileEntry(x, y, zoom, data, timeDownloaded, timeLastModified, timeExpires, eTag);
+	}
+
+	/**
+	 * Reads all tile records starting at <code>offset</code> and adds them to the index. Trailing garbage (e.g. a
+	 * record that has only partially been written) is truncated.
+	 * 
+	 * @param index
+	 * @param offset
+	 *            start of the first record
+	 * @param location
+	 *            location of the segment start (see {@link PackedFileTileStore#getLocation(int, int)})
+	 * @return number of records read
+	 * @throws IOException
+	 */
+	public synchronized int scan(PackedTileIndex index, long offset, long location) throws IOException {
+		long fileSize = getChannel().size();
+		ByteBuffer header = ByteBuffer.allocate(20);
+		int count = 0;
+		while (offset + HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(header, offset);
+			header.flip();
+			if (header.getInt() != RECORD_MAGIC)
+				break;
+			int recordLength = header.getInt();
+			if (recordLength < HEADER_SIZE || offset + recordLength > fileSize)
+				break;
+			int zoom = header.getInt();
+			int x = header.getInt();
+			int y = header.getInt();
+			index.put(PackedTileIndex.getTileKey(x, y, zoom), location + offset);
+			offset += recordLength;
+			count++;
+		}
+		if (offset < fileSize) {
+			log.warn("Truncating invalid data at the end of segment " + file + " (" + (fileSize - offset) + " bytes)");
+			getChannel().truncate(offset);
+		}
+		length = offset;
+		return count;
+	}
+
+	/**
+	 * Returns the file channel. A channel closed because of an interrupted I/O operation is reopened.
+	 */
+	private FileChannel getChannel() throws IOException {
+		FileChannel ch = channel;
+		if (ch.isOpen())
+			return ch;
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Segment file closed: " + file);
+			if (!channel.isOpen())
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			return channel;
+		}
+	}
+
+	public synchronized void close() {
+		closed = true;
+		mapping = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.error("", e);
+		}
+	}
+}
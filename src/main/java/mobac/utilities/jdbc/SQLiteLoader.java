@@ -18,6 +18,7 @@ package mobac.utilities.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import javax.swing.JOptionPane;
 
@@ -78,6 +79,35 @@ public class SQLiteLoader {
 		}
 	}
 
+	/**
+	 * Configures the connection for bulk inserting tiles: a page cache of 64 MiB and temporary tables in memory. A
+	 * database file that has just been created gets neither a rollback journal nor syncing - if the process crashes
+	 * while writing only the new (incomplete) atlas is lost. Existing databases the atlas is appended to keep an
+	 * in-memory rollback journal, so that a failed transaction can still be rolled back without damaging the data
+	 * already present. The WAL journal mode is not used as it is persisted in the database file and not supported by
+	 * all applications reading the created atlases.
+	 * 
+	 * @param conn
+	 * @param newDatabase
+	 *            <code>true</code> if the database file did not exist before the connection was opened
+	 * @throws SQLException
+	 */
+	public static void setBulkInsertPragmas(Connection conn, boolean newDatabase) throws SQLException {
+		Statement stat = conn.createStatement();
+		try {
+			if (newDatabase) {
+				stat.execute("PRAGMA journal_mode = OFF");
+				stat.execute("PRAGMA synchronous = OFF");
+			} else {
+				stat.execute("PRAGMA journal_mode = MEMORY");
+			}
+			stat.execute("PRAGMA cache_size = -65536");
+			stat.execute("PRAGMA temp_store = MEMORY");
+		} finally {
+			stat.close();
+		}
+	}
+
 	public static void closeConnection(Connection conn) {
 		if (conn == null)
 			return;
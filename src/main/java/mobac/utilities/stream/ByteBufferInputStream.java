@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.utilities.stream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} that reads the remaining bytes of a {@link ByteBuffer} without copying them into an intermediate
+ * array. The position of the buffer is advanced while reading.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	protected final ByteBuffer buf;
+
+	public ByteBufferInputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	@Override
+	public int read() {
+		if (!buf.hasRemaining())
+			return -1;
+		return buf.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		int remaining = buf.remaining();
+		if (remaining == 0)
+			return -1;
+		len = Math.min(len, remaining);
+		buf.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		int skip = (int) Math.max(0, Math.min(n, buf.remaining()));
+		buf.position(buf.position() + skip);
+		return skip;
+	}
+
+	@Override
+	public int available() {
+		return buf.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		buf.mark();
+	}
+
+	@Override
+	public synchronized void reset() {
+		buf.reset();
+	}
+
+}
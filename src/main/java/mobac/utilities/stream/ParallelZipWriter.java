@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.utilities.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import mobac.program.tilestore.berkeleydb.DelayedInterruptThread;
+import mobac.utilities.Charsets;
+import mobac.utilities.Utilities;
+
+/**
+ * Writes a ZIP archive. The CRC (and for deflated entries the compression) of each entry is calculated by a pool of
+ * worker threads, therefore entries can be added by several threads and even a single producer thread does not have to
+ * wait for the CRC calculation.
+ * 
+ * <p>
+ * The entries are appended in the order their processing completes, which may differ from the order they were added.
+ * The number of pending entries is limited - adding an entry blocks if too many entries are pending. The central
+ * directory is written by {@link #close()}. ZIP64 extensions are used if the archive contains more than 65535 entries or
+ * exceeds 4 GB. Like {@link java.util.zip.ZipOutputStream} adding an entry with a name already present in the archive
+ * is rejected by a {@link ZipException}.
+ * </p>
+ * 
+ * <p>
+ * Errors occurring while processing an entry are reported by the next call of one of the <code>write...</code> methods
+ * or by {@link #close()}.
+ * </p>
+ */
+public class ParallelZipWriter {
+
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int END_SIG = 0x06054b50;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	/**
+	 * General purpose flag: file name is UTF-8 encoded
+	 */
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+
+	private final OutputStream out;
+
+	private final ThreadPoolExecutor executor;
+
+	private final int maxPendingEntries;
+
+	private final Semaphore pendingEntries;
+
+	private final int dosDateTime;
+
+	/**
+	 * Names of all added entries - guarded by itself
+	 */
+	private final HashSet<String> entryNames = new HashSet<String>();
+
+	/**
+	 * Central directory records of all written entries - guarded by <code>this</code>
+	 */
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream(64 * 1024);
+
+	/**
+	 * Guarded by <code>this</code>
+	 */
+	private long offset = 0;
+
+	/**
+	 * Guarded by <code>this</code>
+	 */
+	private long entryCount = 0;
+
+	private volatile IOException error = null;
+
+	public ParallelZipWriter(File zipFile) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(zipFile), OUTPUT_BUFFER_SIZE);
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		maxPendingEntries = 4 * threadCount;
+		pendingEntries = new Semaphore(maxPendingEntries);
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), DelayedInterruptThread.createThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		dosDateTime = getDosDateTime(Calendar.getInstance());
+	}
+
+	/**
+	 * Adds an uncompressed entry. This method is thread safe.
+	 * 
+	 * @param name
+	 *            file name including path in the zip
+	 * @param data
+	 *            must not be modified afterwards
+	 * @throws ZipException
+	 *             if an entry with the same name has already been added
+	 * @throws IOException
+	 */
+	public void writeStoredEntry(String name, byte[] data) throws IOException {
+		addEntry(name, data, false);
+	}
+
+	/**
+	 * Adds a compressed entry. If compression does not reduce the size the entry is stored uncompressed. This method is
+	 * thread safe.
+	 * 
+	 * @param name
+	 *            file name including path in the zip
+	 * @param data
+	 *            must not be modified afterwards
+	 * @throws ZipException
+	 *             if an entry with the same name has already been added
+	 * @throws IOException
+	 */
+	public void writeDeflatedEntry(String name, byte[] data) throws IOException {
+		addEntry(name, data, true);
+	}
+
+	private void addEntry(String name, byte[] data, boolean deflate) throws IOException {
+		checkError();
+		synchronized (entryNames) {
+			if (!entryNames.add(name))
+				throw new ZipException("duplicate entry: " + name);
+		}
+		try {
+			pendingEntries.acquire();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		try {
+			executor.execute(new EntryTask(name.getBytes(Charsets.UTF_8), data, deflate));
+		} catch (RejectedExecutionException e) {
+			pendingEntries.release();
+			throw new IOException("Zip file has already been closed", e);
+		}
+	}
+
+	/**
+	 * Waits until all pending entries have been written, writes the central directory and closes the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			pendingEntries.acquire(maxPendingEntries);
+			executor.shutdown();
+			checkError();
+			writeCentralDirectory();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			executor.shutdownNow();
+			Utilities.closeStream(out);
+		}
+	}
+
+	/**
+	 * Discards all pending entries and closes the file without writing the central directory
+	 */
+	public void abort() {
+		executor.shutdownNow();
+		Utilities.closeStream(out);
+	}
+
+	private void checkError() throws IOException {
+		IOException e = error;
+		if (e != null)
+			throw e;
+	}
+
+	private synchronized void writeEntry(byte[] name, int method, long crc, byte[] data, int size) throws IOException {
+		long headerOffset = offset;
+		int version = (method == METHOD_DEFLATED) ? VERSION_DEFLATED : VERSION_STORED;
+		int flags = FLAG_UTF8;
+
+		ByteBuffer header = ByteBuffer.allocate(30 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(LOCAL_HEADER_SIG);
+		header.putShort((short) version);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(dosDateTime);
+		header.putInt((int) crc);
+		header.putInt(data.length); // compressed size
+		header.putInt(size); // uncompressed size
+		header.putShort((short) name.length);
+		header.putShort((short) 0); // extra field length
+		header.put(name);
+		out.write(header.array());
+		out.write(data);
+		offset += header.capacity() + data.length;
+
+		// The size of an entry is always below 4 GB - only the offset may require ZIP64
+		boolean zip64 = headerOffset >= ZIP64_MAGIC;
+		if (zip64)
+			version = VERSION_ZIP64;
+		ByteBuffer record = ByteBuffer.allocate(46 + name.length + (zip64 ? 12 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(CENTRAL_HEADER_SIG);
+		record.putShort((short) version); // version made by
+		record.putShort((short) version); // version needed to extract
+		record.putShort((short) flags);
+		record.putShort((short) method);
+		record.putInt(dosDateTime);
+		record.putInt((int) crc);
+		record.putInt(data.length);
+		record.putInt(size);
+		record.putShort((short) name.length);
+		record.putShort((short) (zip64 ? 12 : 0)); // extra field length
+		record.putShort((short) 0); // comment length
+		record.putShort((short) 0); // disk number
+		record.putShort((short) 0); // internal attributes
+		record.putInt(0); // external attributes
+		record.putInt((int) (zip64 ? ZIP64_MAGIC : headerOffset));
+		record.put(name);
+		if (zip64) {
+			record.putShort((short) 0x0001); // ZIP64 extended information
+			record.putShort((short) 8);
+			record.putLong(headerOffset);
+		}
+		centralDirectory.write(record.array());
+		entryCount++;
+	}
+
+	private synchronized void writeCentralDirectory() throws IOException {
+		long cdOffset = offset;
+		long cdSize = centralDirectory.size();
+		centralDirectory.writeTo(out);
+		long cdEnd = cdOffset + cdSize;
+
+		boolean zip64 = entryCount >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC;
+		if (zip64) {
+			ByteBuffer zip64End = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+			zip64End.putInt(ZIP64_END_SIG);
+			zip64End.putLong(44); // size of the remaining record
+			zip64End.putShort((short) VERSION_ZIP64); // version made by
+			zip64End.putShort((short) VERSION_ZIP64); // version needed to extract
+			zip64End.putInt(0); // number of this disk
+			zip64End.putInt(0); // disk with the central directory
+			zip64End.putLong(entryCount); // entries on this disk
+			zip64End.putLong(entryCount); // total entries
+			zip64End.putLong(cdSize);
+			zip64End.putLong(cdOffset);
+			// ZIP64 end of central directory locator
+			zip64End.putInt(ZIP64_LOCATOR_SIG);
+			zip64End.putInt(0); // disk with the ZIP64 end of central directory record
+			zip64End.putLong(cdEnd);
+			zip64End.putInt(1); // total number of disks
+			out.write(zip64End.array());
+		}
+
+		ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(END_SIG);
+		end.putShort((short) 0); // number of this disk
+		end.putShort((short) 0); // disk with the central directory
+		short count = (short) (zip64 ? ZIP64_MAGIC_COUNT : entryCount);
+		end.putShort(count); // entries on this disk
+		end.putShort(count); // total entries
+		end.putInt((int) (zip64 ? ZIP64_MAGIC : cdSize));
+		end.putInt((int) (zip64 ? ZIP64_MAGIC : cdOffset));
+		end.putShort((short) 0); // comment length
+		out.write(end.array());
+		out.flush();
+	}
+
+	private static int getDosDateTime(Calendar c) {
+		int year = Math.max(c.get(Calendar.YEAR) - 1980, 0);
+		int dosDate = (year << 9) | ((c.get(Calendar.MONTH) + 1) << 5) | c.get(Calendar.DAY_OF_MONTH);
+		int dosTime = (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5)
+				| (c.get(Calendar.SECOND) >> 1);
+		return (dosDate << 16) | dosTime;
+	}
+
+	private class EntryTask implements Runnable {
+
+		private final byte[] name;
+		private final byte[] data;
+		private final boolean deflate;
+
+		public EntryTask(byte[] name, byte[] data, boolean deflate) {
+			this.name = name;
+			this.data = data;
+			this.deflate = deflate;
+		}
+
+		public void run() {
+			try {
+				if (error != null)
+					return;
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				byte[] entryData = data;
+				int method = METHOD_STORED;
+				if (deflate) {
+					byte[] compressed = deflate(data);
+					if (compressed.length < data.length) {
+						entryData = compressed;
+						method = METHOD_DEFLATED;
+					}
+				}
+				writeEntry(name, method, crc.getValue(), entryData, data.length);
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = new IOException(e);
+			} finally {
+				pendingEntries.release();
+			}
+		}
+
+		private byte[] deflate(byte[] data) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(data);
+				deflater.finish();
+				ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 2 + 64);
+				byte[] buf = new byte[8192];
+				while (!deflater.finished()) {
+					int len = deflater.deflate(buf);
+					bout.write(buf, 0, len);
+				}
+				return bout.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
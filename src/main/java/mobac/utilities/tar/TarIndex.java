@@ -20,14 +20,45 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Read access to a finished {@link TarIndexedArchive}. The archive is mapped into memory (in segments of
+ * {@link #SEGMENT_STRIDE} bytes) and entries are returned as {@link ByteBuffer} slices of the mapped segments. As the
+ * offsets and lengths of the entries have been recorded at write time no tar header has to be read or parsed. Reading
+ * does not modify any shared state, therefore an instance can be used by multiple threads concurrently.
+ * <p>
+ * Accessing a segment after it has been unmapped crashes the VM. Therefore {@link #close()} unmaps the segments only
+ * if no reader is active - see {@link #beginRead()}. Otherwise the mapping is released by the garbage collector.
+ * </p>
+ */
 public class TarIndex {
 
 	private static final Logger log = Logger.getLogger(TarIndex.class);
+
+	/**
+	 * Distance between the start of two mapped segments.
+	 */
+	private static final long SEGMENT_STRIDE = 1L << 30;
+
+	/**
+	 * Each segment is mapped a bit larger than {@link #SEGMENT_STRIDE} so that entries starting near the end of a
+	 * segment can still be read from that segment. Larger entries crossing a segment are read via the file channel.
+	 */
+	private static final long SEGMENT_OVERLAP = 64L << 20;
+
 	private File tarFile;
 	private RandomAccessFile tarRAFile;
+	private volatile MappedByteBuffer[] segments;
+
+	private final AtomicInteger activeReaders = new AtomicInteger(0);
 
 	private TarIndexTable tarIndex;
 
@@ -36,33 +67,117 @@ public class TarIndex {
 		this.tarFile = tarFile;
 		this.tarIndex = tarIndex;
 		tarRAFile = new RandomAccessFile(tarFile, "r");
+		try {
+			mapSegments();
+		} catch (IOException e) {
+			log.warn("Memory mapping of " + tarFile + " failed - using regular file access: " + e.getMessage());
+			segments = new MappedByteBuffer[0];
+		}
 	}
 
-	public byte[] getEntryContent(String entryName) throws IOException {
-		long off = tarIndex.getEntryOffset(entryName);
-		if (off < 0)
+	private void mapSegments() throws IOException {
+		FileChannel channel = tarRAFile.getChannel();
+		long fileSize = channel.size();
+		int segmentCount = (int) ((fileSize + SEGMENT_STRIDE - 1) / SEGMENT_STRIDE);
+		segments = new MappedByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long start = i * SEGMENT_STRIDE;
+			long size = Math.min(SEGMENT_STRIDE + SEGMENT_OVERLAP, fileSize - start);
+			segments[i] = channel.map(MapMode.READ_ONLY, start, size);
+		}
+	}
+
+	/**
+	 * Marks the calling thread as reader of buffers returned by {@link #getEntryBuffer(int, int)}. Must be called before
+	 * {@link #getEntryBuffer(int, int)} and followed by {@link #endRead()} after the buffer is no longer used.
+	 */
+	public void beginRead() {
+		activeReaders.incrementAndGet();
+	}
+
+	public void endRead() {
+		activeReaders.decrementAndGet();
+	}
+
+	/**
+	 * Returns the content of the specified tile entry as read-only slice of the mapped archive. The returned buffer is
+	 * private to the caller (position and limit can be modified), the content is not copied. The access has to be
+	 * enclosed by {@link #beginRead()} and {@link #endRead()}.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return the entry content or <code>null</code> if the entry does not exist
+	 * @throws IOException
+	 */
+	public ByteBuffer getEntryBuffer(int x, int y) throws IOException {
+		long entry = tarIndex.getEntry(x, y);
+		if (entry < 0)
 			return null;
-		tarRAFile.seek(off);
-		byte[] buf = new byte[512];
-		tarRAFile.readFully(buf);
-		TarHeader th = new TarHeader();
-		th.read(buf);
-		int fileSize = th.getFileSizeInt();
-		log.trace("reading file " + entryName + " off=" + off + " size=" + fileSize);
-		byte[] data = new byte[fileSize];
-		tarRAFile.readFully(data);
-		return data;
+		long off = TarIndexTable.getDataOffset(entry);
+		int len = TarIndexTable.getDataLength(entry);
+		if (log.isTraceEnabled())
+			log.trace("reading tile x=" + x + " y=" + y + " off=" + off + " size=" + len);
+		MappedByteBuffer[] segments = this.segments;
+		int segmentIndex = (int) (off / SEGMENT_STRIDE);
+		if (segmentIndex < segments.length) {
+			ByteBuffer segment = segments[segmentIndex];
+			int segmentOff = (int) (off - segmentIndex * SEGMENT_STRIDE);
+			if (segmentOff + len <= segment.capacity()) {
+				ByteBuffer buf = segment.duplicate();
+				buf.position(segmentOff);
+				buf.limit(segmentOff + len);
+				return buf.slice();
+			}
+		}
+		// Entry is not covered by a mapped segment
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		FileChannel channel = tarRAFile.getChannel();
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, off + buf.position()) < 0)
+				throw new IOException("Unexpected end of tar file " + tarFile);
+		}
+		buf.flip();
+		return buf;
+	}
+
+	public byte[] getEntryContent(int x, int y) throws IOException {
+		beginRead();
+		try {
+			ByteBuffer buf = getEntryBuffer(x, y);
+			if (buf == null)
+				return null;
+			byte[] data = new byte[buf.remaining()];
+			buf.get(data);
+			return data;
+		} finally {
+			endRead();
+		}
 	}
 
 	public int size() {
 		return tarIndex.size();
 	}
 
+	/**
+	 * Closes the archive and releases the mapped segments. Reads started afterwards fail with an {@link IOException}.
+	 * The segments are unmapped immediately only if no reader is active. Otherwise a thread that has not been
+	 * terminated yet may still access them and the mapping is left to the garbage collector.
+	 */
 	public void close() {
+		MappedByteBuffer[] mappedSegments = segments;
+		segments = new MappedByteBuffer[0];
 		try {
 			tarRAFile.close();
 		} catch (IOException e) {
 		}
+		int readers = activeReaders.get();
+		if (readers > 0) {
+			log.debug(readers + " readers still active - mapping of " + tarFile
+					+ " will be released by the garbage collector");
+			return;
+		}
+		for (MappedByteBuffer segment : mappedSegments)
+			unmap(segment);
 	}
 
 	public void closeAndDelete() {
@@ -70,4 +185,24 @@ public class TarIndex {
 		tarFile.deleteOnExit();
 		tarFile.delete();
 	}
+
+	/**
+	 * Releases the mapping immediately instead of waiting for the garbage collector. Otherwise the archive file can not
+	 * be deleted on Windows. Works only on Sun/Oracle based VMs - on other VMs the mapping is released by the garbage
+	 * collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		} catch (Throwable t) {
+			log.trace("Unmapping not possible: " + t);
+		}
+	}
 }
@@ -16,34 +16,113 @@
  ******************************************************************************/
 package mobac.utilities.tar;
 
-import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * Index of the tile entries of a {@link TarIndexedArchive}. The index is a dense array covering the rectangle of tile
+ * coordinates of the map, therefore neither the write nor the read path needs to create tile names or boxed keys.
+ * Entries may be added by multiple threads concurrently.
+ * <p>
+ * For each entry the position of the tar header and the length of the entry data is recorded at write time. Therefore
+ * the entry data can be read directly without parsing the tar header.
+ * </p>
+ */
 public class TarIndexTable {
 
+	private final int xMin;
+	private final int yMin;
+	private final int width;
+	private final int height;
+
 	/**
-	 * Maps tile name to TAR block index (each block has 512 bytes).
+	 * TAR block index + 1 (each block has 512 bytes) in the upper and data length in the lower 32 bits. 0 marks a
+	 * missing entry.
 	 */
-	private Hashtable<String, Integer> hashTable;
+	private final AtomicLongArray entries;
+
+	private final AtomicInteger size = new AtomicInteger(0);
 
-	public TarIndexTable(int initialCapacity) {
-		hashTable = new Hashtable<String, Integer>(initialCapacity);
+	/**
+	 * Creates an index for all tiles within the specified rectangle of tile coordinates (inclusive).
+	 * 
+	 * @param xMin
+	 * @param yMin
+	 * @param xMax
+	 * @param yMax
+	 */
+	public TarIndexTable(int xMin, int yMin, int xMax, int yMax) {
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.width = xMax - xMin + 1;
+		this.height = yMax - yMin + 1;
+		if (width <= 0 || height <= 0 || ((long) width) * height > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid tile range: x=" + xMin + "-" + xMax + " y=" + yMin + "-"
+					+ yMax);
+		entries = new AtomicLongArray(width * height);
 	}
 
-	public void addTarEntry(String filename, long streamPos) {
-		assert ((streamPos & 0x1F) == 0);
-		int tarBlockIndex = (int) (streamPos >> 9);
-		hashTable.put(filename, new Integer(tarBlockIndex));
+	private int getIndex(int x, int y) {
+		x -= xMin;
+		y -= yMin;
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			return -1;
+		return y * width + x;
 	}
 
-	public long getEntryOffset(String filename) {
-		Integer tarBlockIndex = hashTable.get(filename);
-		if (tarBlockIndex == null)
+	public boolean contains(int x, int y) {
+		return getIndex(x, y) >= 0;
+	}
+
+	public void addTarEntry(int x, int y, long streamPos, int dataLength) {
+		assert ((streamPos & 0x1FF) == 0);
+		int index = getIndex(x, y);
+		if (index < 0)
+			throw new IllegalArgumentException("Tile x=" + x + " y=" + y + " is outside of the indexed range");
+		long tarBlockIndex = streamPos >> 9;
+		long entry = ((tarBlockIndex + 1) << 32) | (dataLength & 0xFFFFFFFFL);
+		if (entries.getAndSet(index, entry) == 0)
+			size.incrementAndGet();
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the packed entry information or -1 if the entry does not exist
+	 * @see #getHeaderOffset(long)
+	 * @see #getDataOffset(long)
+	 * @see #getDataLength(long)
+	 */
+	public long getEntry(int x, int y) {
+		int index = getIndex(x, y);
+		if (index < 0)
 			return -1;
-		long offset = ((long) (tarBlockIndex)) << 9;
-		return offset;
+		long entry = entries.get(index);
+		if (entry == 0)
+			return -1;
+		return entry;
+	}
+
+	public long getEntryOffset(int x, int y) {
+		long entry = getEntry(x, y);
+		if (entry < 0)
+			return -1;
+		return getHeaderOffset(entry);
 	}
 
 	public int size() {
-		return hashTable.size();
+		return size.get();
+	}
+
+	public static long getHeaderOffset(long entry) {
+		return ((entry >>> 32) - 1) << 9;
+	}
+
+	public static long getDataOffset(long entry) {
+		return getHeaderOffset(entry) + 512;
+	}
+
+	public static int getDataLength(long entry) {
+		return (int) entry;
 	}
 }
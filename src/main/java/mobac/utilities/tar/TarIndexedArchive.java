@@ -19,29 +19,161 @@ package mobac.utilities.tar;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Extended version of {@link TarArchive} that automatically creates
- * {@link Hashtable} with the starting offsets of every archived file.
+ * Tar archive for the downloaded tiles of a map that can be written by multiple threads at once and automatically
+ * records the starting offsets of every archived tile in a {@link TarIndexTable}.
+ * <p>
+ * A writer reserves the region of its entry (tar header plus the data padded to the tar block size) by atomically
+ * advancing the end position of the archive. Afterwards header and data are written via positional writes of a
+ * {@link FileChannel}. Writers therefore never wait for each other - unwritten padding bytes are implicitly zero.
+ * </p>
+ * <p>
+ * Tile entries are named <code>x&lt;x&gt;y&lt;y&gt;</code>. The tar header is built directly from a prepared header
+ * template, therefore no tile names are created as strings.
+ * </p>
+ * <p>
+ * Note: {@link FileChannel} is interruptible - if a writing thread is interrupted the archive is closed. This only
+ * happens if the atlas creation is aborted and the archive is discarded anyway.
+ * </p>
  */
-public class TarIndexedArchive extends TarArchive {
+public class TarIndexedArchive {
 
-	private TarIndexTable tarIndex;
+	private static final int TAR_BLOCK_SIZE = 512;
 
-	public TarIndexedArchive(File tarFile, int approxFileCount) throws IOException {
-		super(tarFile, null);
-		tarIndex = new TarIndexTable(approxFileCount);
+	private static final int HEADER_NAME_OFFSET = 0;
+	private static final int HEADER_SIZE_OFFSET = 124;
+	private static final int HEADER_CHECKSUM_OFFSET = 148;
+
+	private final File tarFile;
+	private final RandomAccessFile tarRAFile;
+	private final FileChannel tarChannel;
+
+	/**
+	 * End position of the last reserved entry
+	 */
+	private final AtomicLong tarFilePos = new AtomicLong(0);
+
+	private final TarIndexTable tarIndex;
+
+	/**
+	 * Tar header with an empty file name, size 0 and a checksum field filled with spaces
+	 */
+	private final byte[] headerTemplate;
+
+	/**
+	 * Creates a new archive for the tiles within the specified rectangle of tile coordinates (inclusive).
+	 * 
+	 * @param tarFile
+	 * @param xMin
+	 * @param yMin
+	 * @param xMax
+	 * @param yMax
+	 * @throws IOException
+	 */
+	public TarIndexedArchive(File tarFile, int xMin, int yMin, int xMax, int yMax) throws IOException {
+		this.tarFile = tarFile;
+		tarIndex = new TarIndexTable(xMin, yMin, xMax, yMax);
+		headerTemplate = new TarHeader("", 0, false).getBytes();
+		Arrays.fill(headerTemplate, HEADER_CHECKSUM_OFFSET, HEADER_CHECKSUM_OFFSET + 8, (byte) ' ');
+		tarRAFile = new RandomAccessFile(tarFile, "rw");
+		tarRAFile.setLength(0);
+		tarChannel = tarRAFile.getChannel();
+	}
+
+	/**
+	 * Writes the data of the specified tile into the archive. This method is thread-safe.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param data
+	 * @throws IOException
+	 */
+	public void writeTile(int x, int y, byte[] data) throws IOException {
+		int len = data.length;
+		byte[] header = createTileHeader(x, y, len);
+		long entrySize = TAR_BLOCK_SIZE + TarRecord.calculateFileSizeInTar(len);
+		long entryPos = tarFilePos.getAndAdd(entrySize);
+		writeFully(ByteBuffer.wrap(header), entryPos);
+		writeFully(ByteBuffer.wrap(data, 0, len), entryPos + TAR_BLOCK_SIZE);
+		tarIndex.addTarEntry(x, y, entryPos, len);
+	}
+
+	private byte[] createTileHeader(int x, int y, int len) {
+		byte[] header = headerTemplate.clone();
+		int pos = HEADER_NAME_OFFSET;
+		header[pos++] = 'x';
+		pos = writeDecimal(header, pos, x);
+		header[pos++] = 'y';
+		writeDecimal(header, pos, y);
+		// size: 11 octal digits right aligned, leading spaces
+		long size = len;
+		for (int i = HEADER_SIZE_OFFSET + 10; i >= HEADER_SIZE_OFFSET; i--) {
+			if (size != 0 || i == HEADER_SIZE_OFFSET + 10) {
+				header[i] = (byte) ('0' + (size & 7));
+				size >>>= 3;
+			} else
+				header[i] = ' ';
+		}
+		// checksum: six octal digits followed by a null (see TarHeader.correctCheckSum)
+		int checksum = 0;
+		for (int i = 0; i < TAR_BLOCK_SIZE; i++)
+			checksum += (header[i] & 0xFF);
+		for (int i = HEADER_CHECKSUM_OFFSET + 5; i >= HEADER_CHECKSUM_OFFSET; i--) {
+			header[i] = (byte) ('0' + (checksum & 7));
+			checksum >>>= 3;
+		}
+		header[HEADER_CHECKSUM_OFFSET + 6] = 0;
+		return header;
+	}
+
+	private static int writeDecimal(byte[] buf, int pos, int value) {
+		if (value < 0) {
+			buf[pos++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (int v = value / 10; v > 0; v /= 10)
+			digits++;
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+	private void writeFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += tarChannel.write(buf, pos);
+	}
+	/**
+	 * Writes the end of archive marker. Must not be called before all writing threads have finished.
+	 * 
+	 * @throws IOException
+	 */
+	public void writeEndofArchive() throws IOException {
+		byte[] endOfArchive = new byte[2 * TAR_BLOCK_SIZE];
+		writeFully(ByteBuffer.wrap(endOfArchive), tarFilePos.getAndAdd(endOfArchive.length));
 	}
 
-	@Override
-	protected void writeTarHeader(TarHeader th) throws IOException {
-		long streamPos = getTarFilePos();
-		tarIndex.addTarEntry(th.getFileName(), streamPos);
-		super.writeTarHeader(th);
+	public long getTarFilePos() {
+		return tarFilePos.get();
+	}
+
+	public void close() {
+		try {
+			tarRAFile.close();
+		} catch (Exception e) {
+		}
 	}
 
 	public void delete() {
+		close();
 		if (tarFile != null) {
 			boolean b = tarFile.delete();
 			if (!b && tarFile.isFile())
@@ -49,6 +181,10 @@ public class TarIndexedArchive extends TarArchive {
 		}
 	}
 
+	public File getTarFile() {
+		return tarFile;
+	}
+
 	public TarIndex getTarIndex() {
 		try {
 			return new TarIndex(tarFile, tarIndex);
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import mobac.program.tilestore.packed.PackedTileEntry;
+import mobac.program.tilestore.packed.PackedTileIndex;
+import mobac.program.tilestore.packed.TileSegment;
+
+/**
+ * Tests the index and the segment files of the packed tile store.
+ */
+public class PackedTileStoreTestCase extends TestCase {
+
+	private File segmentFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		segmentFile = File.createTempFile("segment", ".dat");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		segmentFile.delete();
+	}
+
+	public void testTileKey() {
+		long key = PackedTileIndex.getTileKey((1 << 29) - 1, 12345, 31);
+		assertEquals((1 << 29) - 1, PackedTileIndex.getX(key));
+		assertEquals(12345, PackedTileIndex.getY(key));
+		assertEquals(31, PackedTileIndex.getZoom(key));
+		assertTrue(PackedTileIndex.getTileKey(1, 0, 5) > PackedTileIndex.getTileKey(0, 1000, 5));
+		assertTrue(PackedTileIndex.getTileKey(0, 0, 6) > PackedTileIndex.getTileKey(1000, 1000, 5));
+	}
+
+	public void testCollisions() {
+		// 16 slots - the keys collide and are placed by linear probing
+		PackedTileIndex index = new PackedTileIndex(1);
+		for (int i = 0; i < 9; i++)
+			index.put(PackedTileIndex.getTileKey(i, i, 3), i);
+		assertEquals(9, index.size());
+		for (int i = 0; i < 9; i++)
+			assertEquals(i, index.get(PackedTileIndex.getTileKey(i, i, 3)));
+		assertEquals(PackedTileIndex.NOT_FOUND, index.get(PackedTileIndex.getTileKey(9, 9, 3)));
+		assertFalse(index.contains(PackedTileIndex.getTileKey(1, 2, 3)));
+	}
+
+	public void testReplace() {
+		PackedTileIndex index = new PackedTileIndex();
+		long key = PackedTileIndex.getTileKey(10, 20, 8);
+		index.put(key, 100);
+		index.put(key, 200);
+		assertEquals(1, index.size());
+		assertEquals(200, index.get(key));
+	}
+
+	public void testResize() {
+		PackedTileIndex index = new PackedTileIndex(1);
+		int count = 100000;
+		for (int i = 0; i < count; i++)
+			index.put(PackedTileIndex.getTileKey(i % 1000, i / 1000, 17), i * 7L);
+		assertEquals(count, index.size());
+		for (int i = 0; i < count; i++)
+			assertEquals(i * 7L, index.get(PackedTileIndex.getTileKey(i % 1000, i / 1000, 17)));
+		assertFalse(index.contains(PackedTileIndex.getTileKey(0, count / 1000, 17)));
+	}
+
+	public void testPersistRoundTrip() throws IOException {
+		PackedTileIndex index = new PackedTileIndex();
+		for (int i = 0; i < 5000; i++)
+			index.put(PackedTileIndex.getTileKey(i, i * 3, i % 20), ((long) i << 32) | i);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		index.writeTo(out);
+		out.close();
+
+		PackedTileIndex loaded = PackedTileIndex.readFrom(new DataInputStream(new ByteArrayInputStream(buf
+				.toByteArray())));
+		assertEquals(index.size(), loaded.size());
+		for (int i = 0; i < 5000; i++)
+			assertEquals(((long) i << 32) | i, loaded.get(PackedTileIndex.getTileKey(i, i * 3, i % 20)));
+	}
+
+	public void testSegmentReadWrite() throws IOException {
+		TileSegment segment = new TileSegment(segmentFile, 0);
+		int offset1 = segment.append(new PackedTileEntry(1, 2, 3, new byte[] { 1, 2, 3 }, 10, 20, "etag"));
+		int offset2 = segment.append(new PackedTileEntry(4, 5, 6, new byte[100], 30, 40, null));
+		assertEquals(0, offset1);
+		PackedTileEntry tile = segment.read(offset1);
+		assertEquals(1, tile.getX());
+		assertEquals(2, tile.getY());
+		assertEquals(3, tile.getZoom());
+		assertEquals(3, tile.getData().length);
+		assertEquals(20, tile.getTimeExpires());
+		assertEquals("etag", tile.geteTag());
+		assertNull(segment.read(offset2).geteTag());
+		// Sealed segments are read via the memory mapping
+		segment.seal();
+		assertTrue(segment.isSealed());
+		assertEquals(100, segment.read(offset2).getData().length);
+		assertEquals(40, segment.read(offset2).getTimeExpires());
+		segment.close();
+	}
+
+	public void testRecoveryFromTruncatedSegment() throws IOException {
+		TileSegment segment = new TileSegment(segmentFile, 0);
+		int count = 10;
+		int lastOffset = 0;
+		for (int i = 0; i < count; i++)
+			lastOffset = segment.append(new PackedTileEntry(i, i, 10, new byte[50 + i], 0, 0, null));
+		segment.close();
+
+		// Simulate a crash while the last record has been written
+		RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+		raf.setLength(lastOffset + 30);
+		raf.close();
+
+		segment = new TileSegment(segmentFile, 0);
+		PackedTileIndex index = new PackedTileIndex();
+		assertEquals(count - 1, segment.scan(index, 0, 0));
+		assertEquals(count - 1, index.size());
+		assertEquals(lastOffset, segment.getLength());
+		assertEquals(lastOffset, segmentFile.length());
+		assertFalse(index.contains(PackedTileIndex.getTileKey(count - 1, count - 1, 10)));
+		long location = index.get(PackedTileIndex.getTileKey(3, 3, 10));
+		assertEquals(53, segment.read((int) location).getData().length);
+
+		// New records are appended after the last valid record
+		int offset = segment.append(new PackedTileEntry(99, 99, 10, new byte[7], 0, 0, null));
+		assertEquals(lastOffset, offset);
+		assertEquals(7, segment.read(offset).getData().length);
+		segment.close();
+	}
+
+	public void testRecoveryFromGarbage() throws IOException {
+		TileSegment segment = new TileSegment(segmentFile, 0);
+		segment.append(new PackedTileEntry(1, 1, 10, new byte[10], 0, 0, null));
+		long validLength = segment.getLength();
+		segment.close();
+
+		RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+		raf.seek(validLength);
+		raf.write(new byte[200]);
+		raf.close();
+
+		segment = new TileSegment(segmentFile, 0);
+		PackedTileIndex index = new PackedTileIndex();
+		assertEquals(1, segment.scan(index, 0, 0));
+		assertEquals(validLength, segmentFile.length());
+		segment.close();
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(PackedTileStoreTestCase.class);
+	}
+
+}
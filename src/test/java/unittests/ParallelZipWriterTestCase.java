@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+import mobac.utilities.Utilities;
+import mobac.utilities.stream.ParallelZipWriter;
+
+/**
+ * Writes archives using {@link ParallelZipWriter} and reads them back via {@link ZipFile}.
+ */
+public class ParallelZipWriterTestCase extends TestCase {
+
+	private File zipFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		zipFile = File.createTempFile("mobac-test", ".zip");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		zipFile.delete();
+	}
+
+	public void testStoredAndDeflatedEntries() throws Exception {
+		ParallelZipWriter writer = new ParallelZipWriter(zipFile);
+		writer.writeStoredEntry("stored.bin", createEntryData(1, 1000));
+		writer.writeDeflatedEntry("dir/deflated.txt", new byte[10000]);
+		writer.writeDeflatedEntry("random.bin", createEntryData(2, 100));
+		writer.close();
+
+		ZipFile zip = new ZipFile(zipFile);
+		try {
+			assertEquals(3, zip.size());
+			assertEntry(zip, "stored.bin", ZipEntry.STORED, createEntryData(1, 1000));
+			assertEntry(zip, "dir/deflated.txt", ZipEntry.DEFLATED, new byte[10000]);
+			assertEntry(zip, "random.bin", ZipEntry.STORED, createEntryData(2, 100));
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * More than 65535 entries require the ZIP64 end of central directory record and locator
+	 */
+	public void testZip64EntryCount() throws Exception {
+		final int count = 70000;
+		ParallelZipWriter writer = new ParallelZipWriter(zipFile);
+		for (int i = 0; i < count; i++) {
+			String name = String.format("%d/%d.png", i / 1000, i);
+			if (i % 2 == 0)
+				writer.writeStoredEntry(name, createEntryData(i, 64));
+			else
+				writer.writeDeflatedEntry(name, new byte[64 + i % 100]);
+		}
+		writer.close();
+
+		ZipFile zip = new ZipFile(zipFile);
+		try {
+			assertEquals(count, zip.size());
+			HashSet<String> names = new HashSet<String>(count);
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements())
+				assertTrue(names.add(entries.nextElement().getName()));
+			assertEquals(count, names.size());
+			for (int i = 0; i < count; i += 997) {
+				String name = String.format("%d/%d.png", i / 1000, i);
+				if (i % 2 == 0)
+					assertEntry(zip, name, ZipEntry.STORED, createEntryData(i, 64));
+				else
+					assertEntry(zip, name, ZipEntry.DEFLATED, new byte[64 + i % 100]);
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	public void testDuplicateEntry() throws Exception {
+		ParallelZipWriter writer = new ParallelZipWriter(zipFile);
+		writer.writeStoredEntry("tile.png", createEntryData(1, 10));
+		try {
+			writer.writeDeflatedEntry("tile.png", createEntryData(2, 10));
+			fail("duplicate entry not rejected");
+		} catch (ZipException e) {
+		}
+		writer.close();
+
+		ZipFile zip = new ZipFile(zipFile);
+		try {
+			assertEquals(1, zip.size());
+			assertEntry(zip, "tile.png", ZipEntry.STORED, createEntryData(1, 10));
+		} finally {
+			zip.close();
+		}
+	}
+
+	private void assertEntry(ZipFile zip, String name, int method, byte[] expectedData) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		assertNotNull("missing entry " + name, entry);
+		assertEquals(method, entry.getMethod());
+		assertEquals(expectedData.length, entry.getSize());
+		InputStream in = zip.getInputStream(entry);
+		try {
+			byte[] data = Utilities.getInputBytes(in);
+			assertTrue("content of entry " + name, Arrays.equals(expectedData, data));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return pseudo random data that can not be compressed
+	 */
+	private byte[] createEntryData(int seed, int length) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(ParallelZipWriterTestCase.class);
+	}
+
+}
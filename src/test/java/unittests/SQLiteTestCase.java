@@ -16,10 +16,30 @@
  ******************************************************************************/
 package unittests;
 
+import java.awt.Point;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import mobac.program.atlascreators.MBTilesDeduplicated;
 import mobac.program.atlascreators.RMapsSQLite;
+import mobac.program.interfaces.MapSource;
+import mobac.program.model.Atlas;
+import mobac.program.model.Layer;
+import mobac.tools.testtileserver.servlets.JpgTileGeneratorServlet;
+import mobac.tools.testtileserver.servlets.PngFileTileServlet;
+import mobac.utilities.jdbc.SQLiteLoader;
 
 public class SQLiteTestCase extends AbstractAtlasCreatorTestCase {
 
+	/**
+	 * Number of distinct tiles of the atlas created by {@link #createTestAtlas(String, int)}
+	 */
+	protected static final int TEST_ATLAS_TILE_COUNT = 6 * 4;
+
 	public SQLiteTestCase() {
 		super();
 	}
@@ -28,5 +48,148 @@ public class SQLiteTestCase extends AbstractAtlasCreatorTestCase {
 		log.info("Starting test testRMaps");
 		createAtlas("HamburgPark", RMapsSQLite.class);
 	}
-	
+
+	/**
+	 * Creates the same atlas twice into the same directory: the second run appends to the existing database, the
+	 * deferred index has to be created and the database must not be damaged.
+	 */
+	public void testRMapsAppend() throws Exception {
+		SQLiteLoader.loadSQLite();
+		Atlas atlas = createTestAtlas("RMapsAppend", 11);
+		File atlasDir = new File(testAtlasDir, "RMapsSQLite_RMapsAppend_" + System.currentTimeMillis());
+		File dbFile = new File(atlasDir, atlas.getName() + ".sqlitedb");
+		for (int i = 0; i < 2; i++) {
+			createAtlas(atlas, new RMapsSQLite(), atlasDir);
+			assertTrue(dbFile.isFile());
+			Connection conn = openDatabase(dbFile);
+			try {
+				assertEquals(TEST_ATLAS_TILE_COUNT, queryInt(conn, "SELECT count(*) FROM tiles"));
+				assertEquals(1, queryInt(conn, "SELECT count(*) FROM sqlite_master WHERE type='index' AND name='IND'"));
+				assertEquals("ok", queryString(conn, "PRAGMA integrity_check"));
+			} finally {
+				conn.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates an atlas of overlapping maps in which all tiles have the same content: the table <code>images</code>
+	 * has to contain the tile image only once, the duplicate entries of the overlapping area have to be removed
+	 * before the unique index is created and the view <code>tiles</code> has to return each tile exactly once.
+	 */
+	public void testMBTilesDeduplicated() throws Exception {
+		SQLiteLoader.loadSQLite();
+		int zoom = 12;
+		Atlas atlas = createTestAtlas("MBTilesDeduplicated", zoom);
+		TEST_TILE_SERVER.setTileServlet(new PngFileTileServlet(0));
+		File atlasDir;
+		try {
+			atlasDir = createAtlas(atlas, new MBTilesDeduplicated());
+		} finally {
+			TEST_TILE_SERVER.setTileServlet(new JpgTileGeneratorServlet(90));
+		}
+		File dbFile = new File(atlasDir, atlas.getName() + ".mbtiles");
+		assertTrue(dbFile.isFile());
+		Connection conn = openDatabase(dbFile);
+		try {
+			assertEquals(1, queryInt(conn, "SELECT count(*) FROM images"));
+			assertEquals(TEST_ATLAS_TILE_COUNT, queryInt(conn, "SELECT count(*) FROM map"));
+			assertEquals(1, queryInt(conn, "SELECT count(*) FROM sqlite_master WHERE type='index' "
+					+ "AND name='map_index'"));
+			assertEquals(TEST_ATLAS_TILE_COUNT, queryInt(conn, "SELECT count(*) FROM tiles WHERE tile_data NOT NULL"));
+			int tmsRowMax = (1 << zoom) - 300 - 1;
+			for (int x = 500; x < 506; x++) {
+				for (int y = tmsRowMax - 3; y <= tmsRowMax; y++) {
+					assertEquals(1, queryInt(conn, "SELECT count(*) FROM tiles WHERE zoom_level=" + zoom
+							+ " AND tile_column=" + x + " AND tile_row=" + y));
+				}
+			}
+			assertEquals("ok", queryString(conn, "PRAGMA integrity_check"));
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Only databases that have just been created may be written without rollback journal.
+	 */
+	public void testBulkInsertPragmas() throws Exception {
+		SQLiteLoader.loadSQLite();
+		File dbFile = File.createTempFile("mobac-pragmas", ".sqlite");
+		try {
+			assertTrue(dbFile.delete());
+			Connection conn = openDatabase(dbFile);
+			try {
+				SQLiteLoader.setBulkInsertPragmas(conn, true);
+				assertEquals("off", queryString(conn, "PRAGMA journal_mode").toLowerCase());
+				Statement stat = conn.createStatement();
+				stat.executeUpdate("CREATE TABLE test (a int)");
+				stat.close();
+			} finally {
+				conn.close();
+			}
+			conn = openDatabase(dbFile);
+			try {
+				SQLiteLoader.setBulkInsertPragmas(conn, false);
+				assertEquals("memory", queryString(conn, "PRAGMA journal_mode").toLowerCase());
+				conn.setAutoCommit(false);
+				Statement stat = conn.createStatement();
+				stat.executeUpdate("INSERT INTO test VALUES (1)");
+				stat.close();
+				conn.rollback();
+				assertEquals(0, queryInt(conn, "SELECT count(*) FROM test"));
+			} finally {
+				conn.close();
+			}
+		} finally {
+			dbFile.delete();
+		}
+	}
+
+	/**
+	 * Creates an atlas consisting of two maps on the specified zoom level, each four by four tiles large and
+	 * overlapping each other by two tile columns.
+	 */
+	protected Atlas createTestAtlas(String name, int zoom) throws Exception {
+		MapSource mapSource = TEST_TILE_SERVER_MANAGER.getDefaultMapSource();
+		int tileSize = mapSource.getMapSpace().getTileSize();
+		Atlas atlas = Atlas.newInstance();
+		atlas.setName(name);
+		Layer layer = new Layer(atlas, name);
+		for (int i = 0; i < 2; i++) {
+			int x = 500 + 2 * i;
+			Point min = new Point(x * tileSize, 300 * tileSize);
+			Point max = new Point((x + 4) * tileSize - 1, 304 * tileSize - 1);
+			layer.addMapsAutocut(name + " " + i, mapSource, min, max, zoom, null, 32000, 0);
+		}
+		atlas.addLayer(layer);
+		return atlas;
+	}
+
+	protected Connection openDatabase(File dbFile) throws SQLException {
+		return DriverManager.getConnection("jdbc:sqlite:/" + dbFile.getAbsolutePath());
+	}
+
+	protected int queryInt(Connection conn, String sql) throws SQLException {
+		Statement stat = conn.createStatement();
+		try {
+			ResultSet rs = stat.executeQuery(sql);
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			stat.close();
+		}
+	}
+
+	protected String queryString(Connection conn, String sql) throws SQLException {
+		Statement stat = conn.createStatement();
+		try {
+			ResultSet rs = stat.executeQuery(sql);
+			assertTrue(rs.next());
+			return rs.getString(1);
+		} finally {
+			stat.close();
+		}
+	}
+
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import mobac.program.tilestore.TileCoverageIndex;
+
+public class TileCoverageIndexTestCase extends TestCase {
+
+	private File tempFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		tempFile = File.createTempFile("coverage", ".dat");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		tempFile.delete();
+	}
+
+	public void testAddContains() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		assertTrue(index.add(5, 7, 10));
+		assertFalse(index.add(5, 7, 10));
+		assertTrue(index.add(5, 7, 11));
+		assertTrue(index.add(300, 2, 10));
+		assertTrue(index.contains(5, 7, 10));
+		assertTrue(index.contains(5, 7, 11));
+		assertTrue(index.contains(300, 2, 10));
+		assertFalse(index.contains(7, 5, 10));
+		assertFalse(index.contains(5, 7, 12));
+		assertEquals(3, index.getTileCount());
+		assertEquals(2, index.getTileCount(10));
+		assertEquals(1, index.getTileCount(11));
+	}
+
+	public void testDenseBlock() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		// Every second tile of a 256x256 block - more than a sparse block can hold
+		for (int y = 0; y < 256; y++)
+			for (int x = y & 1; x < 256; x += 2)
+				assertTrue(index.add(x, y, 8));
+		assertEquals(256 * 128, index.getTileCount(8));
+		for (int y = 0; y < 256; y++)
+			for (int x = 0; x < 256; x++)
+				assertEquals(((x + y) & 1) == 0, index.contains(x, y, 8));
+	}
+
+	public void testContainsAny() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		index.add(10, 300, 12);
+		assertTrue(index.containsAny(12, 10, 0, 1000));
+		assertTrue(index.containsAny(12, 10, 300, 300));
+		assertTrue(index.containsAny(12, 10, 250, 300));
+		assertFalse(index.containsAny(12, 10, 0, 299));
+		assertFalse(index.containsAny(12, 10, 301, 1000));
+		assertFalse(index.containsAny(12, 11, 0, 1000));
+		assertFalse(index.containsAny(11, 10, 0, 1000));
+	}
+
+	public void testSaveLoad() throws IOException {
+		TileCoverageIndex index = new TileCoverageIndex();
+		for (int i = 0; i < 5000; i++)
+			index.add(i % 256, i / 256, 9);
+		for (int i = 0; i < 100; i++)
+			index.add(i * 1000, i * 3, 17);
+		index.save(tempFile);
+
+		TileCoverageIndex loaded = new TileCoverageIndex();
+		loaded.load(tempFile);
+		assertEquals(index.getTileCount(), loaded.getTileCount());
+		assertEquals(5000, loaded.getTileCount(9));
+		assertEquals(100, loaded.getTileCount(17));
+		for (int i = 0; i < 5000; i++)
+			assertTrue(loaded.contains(i % 256, i / 256, 9));
+		assertFalse(loaded.contains(5000 % 256, 5000 / 256, 9));
+		for (int i = 0; i < 100; i++)
+			assertTrue(loaded.contains(i * 1000, i * 3, 17));
+		assertFalse(loaded.contains(1, 3, 17));
+	}
+
+	public void testLoadMergesExistingTiles() throws IOException {
+		TileCoverageIndex index = new TileCoverageIndex();
+		index.add(1, 1, 5);
+		index.add(2, 2, 5);
+		index.save(tempFile);
+
+		TileCoverageIndex loaded = new TileCoverageIndex();
+		loaded.add(2, 2, 5);
+		loaded.add(3, 3, 5);
+		loaded.load(tempFile);
+		assertEquals(3, loaded.getTileCount());
+		assertTrue(loaded.contains(1, 1, 5));
+		assertTrue(loaded.contains(2, 2, 5));
+		assertTrue(loaded.contains(3, 3, 5));
+	}
+
+	public void testAddAll() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		index.add(1, 1, 5);
+		TileCoverageIndex other = new TileCoverageIndex();
+		other.add(1, 1, 5);
+		other.add(1000, 1000, 5);
+		index.addAll(other);
+		assertEquals(2, index.getTileCount());
+		assertTrue(index.contains(1000, 1000, 5));
+	}
+
+	public void testLoadInvalidFile() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile));
+		out.writeInt(0x12345678);
+		out.close();
+		try {
+			new TileCoverageIndex().load(tempFile);
+			fail("Invalid file loaded");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TileCoverageIndexTestCase.class);
+	}
+
+}